@@ -9,7 +9,8 @@ create table directories
     parent_directory_id bigint NULL
         constraint fk_pdirectory
             references directories
-            on delete cascade
+            on delete cascade,
+    path VARCHAR(1024) COLLATE "C"
 );
 
 CREATE TABLE original_images
@@ -19,9 +20,13 @@ CREATE TABLE original_images
     image_key      VARCHAR(255),
     session_key      VARCHAR(255),
     base64  TEXT,
+    data    BYTEA,
+    mime_type VARCHAR(64),
+    content_hash VARCHAR(64),
     width INTEGER,
     height INTEGER,
     parent_directory_id BIGINT,
+    placeholder VARCHAR(64),
 
     CONSTRAINT fk_directory FOREIGN KEY (parent_directory_id)
         REFERENCES directories (directory_id)
@@ -39,8 +44,88 @@ CREATE TABLE IF NOT EXISTS resized_images
     height INTEGER,
     name          VARCHAR(255),
     base64        TEXT,
+    data          BYTEA,
+    mime_type     VARCHAR(64),
+    content_hash  VARCHAR(64),
 
     CONSTRAINT fk_original_image FOREIGN KEY (original_image)
         REFERENCES original_images (image_id)
         ON DELETE CASCADE
-);
\ No newline at end of file
+);
+CREATE INDEX IF NOT EXISTS idx_original_images_content_hash ON original_images (content_hash);
+CREATE INDEX IF NOT EXISTS idx_resized_images_original_image ON resized_images (original_image);
+CREATE INDEX IF NOT EXISTS idx_resized_images_size_id ON resized_images (width, height, image_id);
+CREATE INDEX IF NOT EXISTS idx_resized_images_session_id ON resized_images (session_key, image_id);
+CREATE INDEX IF NOT EXISTS idx_resized_images_image_key ON resized_images (image_key);
+CREATE INDEX IF NOT EXISTS idx_resized_images_content_hash ON resized_images (content_hash);
+CREATE INDEX IF NOT EXISTS idx_original_images_image_key ON original_images (image_key);
+CREATE INDEX IF NOT EXISTS idx_original_images_parent_directory ON original_images (parent_directory_id);
+CREATE INDEX IF NOT EXISTS idx_directories_parent_key ON directories (parent_directory_id, directory_key);
+CREATE INDEX IF NOT EXISTS idx_directories_key ON directories (directory_key);
+CREATE INDEX IF NOT EXISTS idx_directories_path ON directories (path);
+
+-- Materialised path of directory ids from the root, e.g. '/1/5/9/'. Maintained by the triggers below
+-- on insert and move; deletes need no upkeep because subtrees cascade. A subtree of path p is the
+-- range [p, p || '~'), since '~' sorts after every digit and '/' in the C collation.
+CREATE OR REPLACE FUNCTION directories_set_path() RETURNS trigger AS $$
+DECLARE
+    parent_path VARCHAR;
+BEGIN
+    IF NEW.parent_directory_id IS NULL THEN
+        NEW.path := '/' || NEW.directory_id || '/';
+    ELSE
+        SELECT path INTO parent_path FROM directories WHERE directory_id = NEW.parent_directory_id;
+        IF TG_OP = 'UPDATE' AND starts_with(parent_path, OLD.path) THEN
+            RAISE EXCEPTION 'Cannot move directory % into its own subtree', OLD.directory_key;
+        END IF;
+        NEW.path := parent_path || NEW.directory_id || '/';
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION directories_move_subtree() RETURNS trigger AS $$
+BEGIN
+    UPDATE directories
+    SET path = NEW.path || substr(path, length(OLD.path) + 1)
+    WHERE path > OLD.path AND path < OLD.path || '~';
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE TRIGGER trg_directories_path_insert
+    BEFORE INSERT ON directories
+    FOR EACH ROW EXECUTE FUNCTION directories_set_path();
+
+CREATE OR REPLACE TRIGGER trg_directories_path_move
+    BEFORE UPDATE OF parent_directory_id ON directories
+    FOR EACH ROW WHEN (OLD.parent_directory_id IS DISTINCT FROM NEW.parent_directory_id)
+    EXECUTE FUNCTION directories_set_path();
+
+CREATE OR REPLACE TRIGGER trg_directories_subtree_move
+    AFTER UPDATE OF parent_directory_id ON directories
+    FOR EACH ROW WHEN (OLD.path IS DISTINCT FROM NEW.path)
+    EXECUTE FUNCTION directories_move_subtree();
+
+CREATE TABLE IF NOT EXISTS backfill_progress
+(
+    job_name      VARCHAR(64) PRIMARY KEY,
+    last_image_id BIGINT NOT NULL DEFAULT 0,
+    updated_at    TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS image_variants
+(
+    variant_id     SERIAL PRIMARY KEY,
+    original_image BIGINT NOT NULL,
+    width          INTEGER NOT NULL,
+    height         INTEGER NOT NULL,
+    fit_mode       VARCHAR(16) NOT NULL,
+    data           BYTEA,
+    mime_type      VARCHAR(64),
+
+    CONSTRAINT fk_variant_original_image FOREIGN KEY (original_image)
+        REFERENCES original_images (image_id)
+        ON DELETE CASCADE,
+    CONSTRAINT uq_image_variants_size UNIQUE (original_image, width, height, fit_mode)
+);
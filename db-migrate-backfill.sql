@@ -0,0 +1,9 @@
+-- Adds the table holding the resume cursor of the resized image backfill.
+-- Safe to run more than once.
+
+CREATE TABLE IF NOT EXISTS backfill_progress
+(
+    job_name      VARCHAR(64) PRIMARY KEY,
+    last_image_id BIGINT NOT NULL DEFAULT 0,
+    updated_at    TIMESTAMP
+);
@@ -0,0 +1,27 @@
+-- Moves image payloads of an existing database from base64 TEXT to BYTEA.
+-- Safe to run more than once; rows that were already converted are skipped.
+-- The application reads both representations, so it can run while the backend is up.
+
+ALTER TABLE original_images ADD COLUMN IF NOT EXISTS data BYTEA;
+ALTER TABLE original_images ADD COLUMN IF NOT EXISTS mime_type VARCHAR(64);
+ALTER TABLE resized_images ADD COLUMN IF NOT EXISTS data BYTEA;
+ALTER TABLE resized_images ADD COLUMN IF NOT EXISTS mime_type VARCHAR(64);
+
+-- originals are stored as data URLs: data:<mime type>;base64,<payload>
+UPDATE original_images
+SET mime_type = substring(base64 FROM '^data:([^;]+);base64,'),
+    data      = decode(substring(base64 FROM position(',' IN base64) + 1), 'base64'),
+    base64    = NULL
+WHERE data IS NULL
+  AND base64 LIKE 'data:%;base64,%';
+
+-- resized images hold a bare base64 payload encoded in the format of their original
+UPDATE resized_images r
+SET mime_type = o.mime_type,
+    data      = decode(r.base64, 'base64'),
+    base64    = NULL
+FROM original_images o
+WHERE r.original_image = o.image_id
+  AND r.data IS NULL
+  AND r.base64 IS NOT NULL
+  AND r.base64 <> 'ERROR';
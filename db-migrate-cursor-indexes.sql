@@ -0,0 +1,8 @@
+-- Indexes backing the cursor (keyset) variants of the listing endpoints.
+-- Safe to run more than once.
+
+CREATE INDEX IF NOT EXISTS idx_resized_images_size_id ON resized_images (width, height, image_id);
+CREATE INDEX IF NOT EXISTS idx_resized_images_session_id ON resized_images (session_key, image_id);
+CREATE INDEX IF NOT EXISTS idx_resized_images_image_key ON resized_images (image_key);
+CREATE INDEX IF NOT EXISTS idx_original_images_parent_directory ON original_images (parent_directory_id);
+CREATE INDEX IF NOT EXISTS idx_directories_parent_key ON directories (parent_directory_id, directory_key);
@@ -0,0 +1,13 @@
+-- Adds content hashes used to deduplicate identical uploads.
+-- Safe to run more than once; run it after db-migrate-binary.sql so every payload is in the data column.
+
+ALTER TABLE original_images ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
+
+-- the application hashes the raw image bytes with SHA-256 and stores the lowercase hex digest
+UPDATE original_images
+SET content_hash = encode(sha256(data), 'hex')
+WHERE content_hash IS NULL
+  AND data IS NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_original_images_content_hash ON original_images (content_hash);
+CREATE INDEX IF NOT EXISTS idx_resized_images_original_image ON resized_images (original_image);
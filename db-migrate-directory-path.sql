@@ -0,0 +1,61 @@
+-- Adds the materialised directory path used for single-query ancestor, descendant and subtree lookups.
+-- Safe to run more than once; existing directories get their path computed once at the end.
+
+ALTER TABLE directories ADD COLUMN IF NOT EXISTS path VARCHAR(1024) COLLATE "C";
+CREATE INDEX IF NOT EXISTS idx_directories_path ON directories (path);
+
+-- Materialised path of directory ids from the root, e.g. '/1/5/9/'. Maintained by the triggers below
+-- on insert and move; deletes need no upkeep because subtrees cascade. A subtree of path p is the
+-- range [p, p || '~'), since '~' sorts after every digit and '/' in the C collation.
+CREATE OR REPLACE FUNCTION directories_set_path() RETURNS trigger AS $$
+DECLARE
+    parent_path VARCHAR;
+BEGIN
+    IF NEW.parent_directory_id IS NULL THEN
+        NEW.path := '/' || NEW.directory_id || '/';
+    ELSE
+        SELECT path INTO parent_path FROM directories WHERE directory_id = NEW.parent_directory_id;
+        IF TG_OP = 'UPDATE' AND starts_with(parent_path, OLD.path) THEN
+            RAISE EXCEPTION 'Cannot move directory % into its own subtree', OLD.directory_key;
+        END IF;
+        NEW.path := parent_path || NEW.directory_id || '/';
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION directories_move_subtree() RETURNS trigger AS $$
+BEGIN
+    UPDATE directories
+    SET path = NEW.path || substr(path, length(OLD.path) + 1)
+    WHERE path > OLD.path AND path < OLD.path || '~';
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE TRIGGER trg_directories_path_insert
+    BEFORE INSERT ON directories
+    FOR EACH ROW EXECUTE FUNCTION directories_set_path();
+
+CREATE OR REPLACE TRIGGER trg_directories_path_move
+    BEFORE UPDATE OF parent_directory_id ON directories
+    FOR EACH ROW WHEN (OLD.parent_directory_id IS DISTINCT FROM NEW.parent_directory_id)
+    EXECUTE FUNCTION directories_set_path();
+
+CREATE OR REPLACE TRIGGER trg_directories_subtree_move
+    AFTER UPDATE OF parent_directory_id ON directories
+    FOR EACH ROW WHEN (OLD.path IS DISTINCT FROM NEW.path)
+    EXECUTE FUNCTION directories_move_subtree();
+
+WITH RECURSIVE tree AS (
+    SELECT directory_id, '/' || directory_id || '/' AS path
+    FROM directories
+    WHERE parent_directory_id IS NULL
+    UNION ALL
+    SELECT d.directory_id, t.path || d.directory_id || '/'
+    FROM directories d
+    JOIN tree t ON d.parent_directory_id = t.directory_id
+)
+UPDATE directories d SET path = tree.path
+FROM tree
+WHERE d.directory_id = tree.directory_id AND d.path IS DISTINCT FROM tree.path;
@@ -0,0 +1,5 @@
+-- Index backing the directory key lookups of the combined directory view
+-- (the directory itself, its breadcrumb and the subdirectory and image pages).
+-- Safe to run more than once.
+
+CREATE INDEX IF NOT EXISTS idx_directories_key ON directories (directory_key);
@@ -0,0 +1,6 @@
+-- Stores the SHA-256 of each resized payload so conditional GETs are answered from metadata alone.
+-- Safe to run more than once; rows stored before this migration keep a NULL hash and get their
+-- ETag computed from the bytes as before.
+
+ALTER TABLE resized_images ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
+CREATE INDEX IF NOT EXISTS idx_original_images_image_key ON original_images (image_key);
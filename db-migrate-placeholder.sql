@@ -0,0 +1,4 @@
+-- Adds the BlurHash placeholder computed for each original at ingest.
+-- Safe to run more than once; rows stored before this migration keep a NULL placeholder.
+
+ALTER TABLE original_images ADD COLUMN IF NOT EXISTS placeholder VARCHAR(64);
@@ -0,0 +1,11 @@
+-- Lets duplicate uploads share resized payloads by content hash instead of copying the bytes.
+-- Safe to run more than once; run it after db-migrate-etags.sql.
+
+-- the application hashes the encoded variant bytes with SHA-256 and stores the lowercase hex digest
+UPDATE resized_images
+SET content_hash = encode(sha256(COALESCE(data, decode(base64, 'base64'))), 'hex')
+WHERE content_hash IS NULL
+  AND width <> 0
+  AND (data IS NOT NULL OR base64 IS NOT NULL);
+
+CREATE INDEX IF NOT EXISTS idx_resized_images_content_hash ON resized_images (content_hash);
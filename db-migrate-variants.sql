@@ -0,0 +1,18 @@
+-- Adds the store for on-demand variants served by GET /images/{imageKey}/variants.
+-- Safe to run more than once.
+
+CREATE TABLE IF NOT EXISTS image_variants
+(
+    variant_id     SERIAL PRIMARY KEY,
+    original_image BIGINT NOT NULL,
+    width          INTEGER NOT NULL,
+    height         INTEGER NOT NULL,
+    fit_mode       VARCHAR(16) NOT NULL,
+    data           BYTEA,
+    mime_type      VARCHAR(64),
+
+    CONSTRAINT fk_variant_original_image FOREIGN KEY (original_image)
+        REFERENCES original_images (image_id)
+        ON DELETE CASCADE,
+    CONSTRAINT uq_image_variants_size UNIQUE (original_image, width, height, fit_mode)
+);
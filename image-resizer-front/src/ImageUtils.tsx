@@ -108,3 +108,73 @@ const updateDirectoryCounts = (directory: Directory): void => {
   directory.imageCount = imageCount;
   directory.subDirectoriesCount = subDirectoriesCount;
 };
+
+const BLURHASH_CHARACTERS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+const BLURHASH_SIZE = 32;
+
+const decode83 = (value: string): number =>
+  value.split("").reduce((result, char) => result * 83 + BLURHASH_CHARACTERS.indexOf(char), 0);
+
+const srgbToLinear = (value: number): number => {
+  const v = value / 255;
+  return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+};
+
+const linearToSrgb = (value: number): number => {
+  const v = Math.max(0, Math.min(1, value));
+  return v <= 0.0031308 ? Math.round(v * 12.92 * 255) : Math.round((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255);
+};
+
+const signedSquare = (value: number): number => Math.sign(value) * value * value;
+
+// Decodes a BlurHash placeholder into a small data URL shown behind the thumbnail until it loads.
+export const blurHashToDataUrl = (hash?: string | null): string | undefined => {
+  if (!hash || hash.length < 6) return undefined;
+  const sizeFlag = decode83(hash[0]);
+  const componentsX = (sizeFlag % 9) + 1;
+  const componentsY = Math.floor(sizeFlag / 9) + 1;
+  if (hash.length !== 4 + 2 * componentsX * componentsY) return undefined;
+
+  const maximumValue = (decode83(hash[1]) + 1) / 166;
+  const colors: number[][] = [];
+  const dc = decode83(hash.substring(2, 6));
+  colors.push([srgbToLinear(dc >> 16), srgbToLinear((dc >> 8) & 255), srgbToLinear(dc & 255)]);
+  for (let i = 1; i < componentsX * componentsY; i++) {
+    const ac = decode83(hash.substring(4 + i * 2, 6 + i * 2));
+    colors.push([
+      signedSquare((Math.floor(ac / (19 * 19)) - 9) / 9) * maximumValue,
+      signedSquare(((Math.floor(ac / 19) % 19) - 9) / 9) * maximumValue,
+      signedSquare(((ac % 19) - 9) / 9) * maximumValue,
+    ]);
+  }
+
+  const canvas = document.createElement("canvas");
+  canvas.width = BLURHASH_SIZE;
+  canvas.height = BLURHASH_SIZE;
+  const context = canvas.getContext("2d");
+  if (!context) return undefined;
+  const pixels = context.createImageData(BLURHASH_SIZE, BLURHASH_SIZE);
+  for (let y = 0; y < BLURHASH_SIZE; y++) {
+    for (let x = 0; x < BLURHASH_SIZE; x++) {
+      let r = 0;
+      let g = 0;
+      let b = 0;
+      for (let j = 0; j < componentsY; j++) {
+        for (let i = 0; i < componentsX; i++) {
+          const basis = Math.cos((Math.PI * x * i) / BLURHASH_SIZE) * Math.cos((Math.PI * y * j) / BLURHASH_SIZE);
+          const color = colors[i + j * componentsX];
+          r += color[0] * basis;
+          g += color[1] * basis;
+          b += color[2] * basis;
+        }
+      }
+      const offset = 4 * (x + y * BLURHASH_SIZE);
+      pixels.data[offset] = linearToSrgb(r);
+      pixels.data[offset + 1] = linearToSrgb(g);
+      pixels.data[offset + 2] = linearToSrgb(b);
+      pixels.data[offset + 3] = 255;
+    }
+  }
+  context.putImageData(pixels, 0, 0);
+  return canvas.toDataURL();
+};
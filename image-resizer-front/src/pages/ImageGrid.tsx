@@ -1,7 +1,7 @@
 import React, { useState, useEffect, useRef } from "react";
-import { fromEvent, from, mergeMap, tap, finalize, catchError, Observable, EMPTY } from "rxjs";
+import { fromEvent, from, merge, mergeMap, tap, finalize, catchError, Observable, EMPTY } from "rxjs";
 import { map } from "rxjs/operators";
-import { extractZip, Directory, DirKey } from "../ImageUtils.tsx";
+import { extractZip, blurHashToDataUrl, Directory, DirKey } from "../ImageUtils.tsx";
 import Button from "@mui/material/Button";
 import { IconButton } from "@mui/material";
 // import ArrowBackIcon from "@mui/icons-material/ArrowBack";
@@ -14,6 +14,7 @@ type Image = {
   imageKey: string;
   width?: number;
   height?: number;
+  placeholder?: string;
   loaded: boolean;
 };
 
@@ -63,7 +64,6 @@ const ImageGrid: React.FC = () => {
     }
   }, [isBottom]);
 
-  const COMPLETE_REQUEST = "COMPLETE_REQUEST";
   const ERROR = "ERROR";
   const PAGE_SIZE=10;
 
@@ -73,10 +73,35 @@ const ImageGrid: React.FC = () => {
       loadDirectories(sessionOnly, dirKey, imageSize);
       loadPhotos(sessionOnly, dirKey, imageSize);
     }
-  }, [dirKey, page]);
+  }, [dirKey.dirKey, page]);
   useEffect(()=>{
     setPage(0);
-  },[dirKey])
+  },[dirKey.dirKey])
+
+  useEffect(() => {
+    const eventSource = new EventSource(`http://localhost:8080/images/events?dirKey=${dirKey.dirKey}`);
+    const markVariant = (event: MessageEvent, damaged: boolean) => {
+      const variant = JSON.parse(event.data);
+      if (!damaged && variant.size !== imageSize) return;
+      setImages((prevImages) =>
+        prevImages.map((image) =>
+          image.imageKey === variant.imageKey
+            ? {
+                ...image,
+                base64: damaged ? ERROR : `http://localhost:8080/images/${variant.imageKey}/${variant.size}`,
+                width: variant.width,
+                height: variant.height,
+                placeholder: image.placeholder ?? blurHashToDataUrl(variant.placeholder),
+                loaded: true,
+              }
+            : image
+        )
+      );
+    };
+    eventSource.addEventListener("variant-ready", (event) => markVariant(event as MessageEvent, false));
+    eventSource.addEventListener("variant-failed", (event) => markVariant(event as MessageEvent, true));
+    return () => eventSource.close();
+  }, [dirKey.dirKey, imageSize]);
 
   useEffect(() => {
     if (window.performance.navigation.type === 1 && !sessionStorage.getItem('refreshed')) {
@@ -102,6 +127,12 @@ const ImageGrid: React.FC = () => {
 
   }
 
+  const imageEvents = (eventSource: EventSource): Observable<any> =>
+    merge(
+      fromEvent<MessageEvent>(eventSource, "image"),
+      fromEvent<MessageEvent>(eventSource, "image-error")
+    ).pipe(map((event) => JSON.parse(event.data)));
+
   const loadImageByImageKey = (size: String, imageKey: string): Observable<void> => {
     if (imageKey === null) return EMPTY;
     const url = `http://localhost:8080/images/resized/by-image-key?imageKey=${imageKey}&sizeString=${size}&page=${page}`;
@@ -125,35 +156,34 @@ const ImageGrid: React.FC = () => {
 
       return newMap;
     });
-    return fromEvent<MessageEvent>(eventSource, "message").pipe(
-      map((event) => JSON.parse(event.data).body),
+    eventSource.addEventListener("complete", () => eventSource.close());
+    return imageEvents(eventSource).pipe(
       tap((imageData: any) => {
-        if (imageData.name !== "COMPLETE_REQUEST" && imageData.base64 !== "COMPLETE_REQUEST") {
-          const newImage: Image = {
-            base64: `data:image/jpg;base64,${imageData.base64}`,
-            name: imageData.name,
-            imageKey: imageData.imageKey,
-            width: imageData.width,
-            height: imageData.height,
-            loaded: true,
-          };
-
-          setImages((prevImages) => {
-            if (size !== imageSize) return prevImages;
-            const newImages = prevImages.map((image) =>
-              image.imageKey === newImage.imageKey
-                ? { ...image, ...newImage }
-                : image
-            );
-            return newImages;
-          });
+        const newImage: Image = {
+          base64: `data:image/jpg;base64,${imageData.base64}`,
+          name: imageData.name,
+          imageKey: imageData.imageKey,
+          width: imageData.width,
+          height: imageData.height,
+          placeholder: blurHashToDataUrl(imageData.placeholder),
+          loaded: true,
+        };
+
+        setImages((prevImages) => {
+          if (size !== imageSize) return prevImages;
+          const newImages = prevImages.map((image) =>
+            image.imageKey === newImage.imageKey
+              ? { ...image, ...newImage }
+              : image
+          );
+          return newImages;
+        });
 
-          imageSet.add(newImage.imageKey);
+        imageSet.add(newImage.imageKey);
 
-          if (imageSet.size >= 1) {
-            // console.log(imageKey + ": ended imageKey", imageSet);
-            eventSource.close();
-          }
+        if (imageSet.size >= 1) {
+          // console.log(imageKey + ": ended imageKey", imageSet);
+          eventSource.close();
         }
       }),
       catchError((err) => {
@@ -264,45 +294,36 @@ const ImageGrid: React.FC = () => {
     setDirEventSource(eventSource);
     
 
-    const directoryStream$ = fromEvent<MessageEvent>(eventSource, "message").pipe(
-      map((event) => {
-        const parsedData = JSON.parse(event.data);
-        return parsedData.body;
-      })
+    eventSource.addEventListener("complete", () => {
+      console.log("ended all");
+      eventSource.close();
+    });
+
+    const directoryStream$ = fromEvent<MessageEvent>(eventSource, "directory").pipe(
+      map((event) => JSON.parse(event.data))
     );
 
     const subscription = directoryStream$.subscribe({
       next: (dirData: any) => {
-        if (
-          dirData.name === COMPLETE_REQUEST &&
-          dirData.base64 === COMPLETE_REQUEST
-        ) {
-          console.log("ended all");
+        const newDirectory: Directory = {
+          name: dirData.name,
+          dirKey: dirData.directoryKey,
+          imageCount: dirData.imageCount,
+          subDirectoriesCount: dirData.subDirectoriesCount,
+          directories: [], 
+          images: [],
+          hasParent: dirData.directoryKey != "root"
+        };
+
+        setSubDirectories((prev) => [...prev,newDirectory]);
+
+        dirSet.add(newDirectory.dirKey);
+        if (dirSet.size >= dirCount && sessionOnly) {
+          console.log(dirKey.dirKey + ": ended", dirSet);
           eventSource.close();
-        } else if (
-          dirData.name !== COMPLETE_REQUEST &&
-          dirData.base64 !== COMPLETE_REQUEST
-        ) {
-          const newDirectory: Directory = {
-            name: dirData.name,
-            dirKey: dirData.directoryKey,
-            imageCount: dirData.imageCount,
-            subDirectoriesCount: dirData.subDirectoriesCount,
-            directories: [], 
-            images: [],
-            hasParent: dirData.directoryKey != "root"
-          };
-
-          setSubDirectories((prev) => [...prev,newDirectory]);
-
-          dirSet.add(newDirectory.dirKey);
-          if (dirSet.size >= dirCount && sessionOnly) {
-            console.log(dirKey.dirKey + ": ended", dirSet);
-            eventSource.close();
-          }
-          console.log(dirSet, dirCount);
-
         }
+        console.log(dirSet, dirCount);
+
       },
       error: (err) => {
         console.error("Error receiving directory data:", err);
@@ -353,73 +374,60 @@ const ImageGrid: React.FC = () => {
     }
     );
 
-    const imageStream$ = fromEvent<MessageEvent>(eventSource, "message").pipe(
-      map((event) => {
-        const parsedData = JSON.parse(event.data);
-        return parsedData.body;
-      })
-    );
+    eventSource.addEventListener("complete", () => {
+      console.log("ended all");
+      eventSource.close();
+    });
 
-    const subscription = imageStream$.subscribe({
+    const subscription = imageEvents(eventSource).subscribe({
       next: (imageData: any) => {
-        if (
-          imageData.name === COMPLETE_REQUEST &&
-          imageData.base64 === COMPLETE_REQUEST &&
-          !sessionOnly
-        ) {
-          console.log("ended all");
-          eventSource.close();
-        } else if (
-          imageData.name !== COMPLETE_REQUEST &&
-          imageData.base64 !== COMPLETE_REQUEST
-        ) {
-          const newImage: Image = {
-            base64: `data:image/jpg;base64,${imageData.base64}`,
-            name: imageData.name,
-            imageKey: imageData.imageKey,
-            width: imageData.width,
-            height: imageData.height,
-            loaded: true,
-          };
-          // console.log(newImage);
-
-          setImages((prevImages) => {
-            if (size !== imageSize) return prevImages;
-
-            const imageExists = prevImages.some(
-              (image) =>
-                image.imageKey === newImage.imageKey &&
-                image.width === newImage.width &&
-                image.height === newImage.height &&
-                image.loaded === true
+        const newImage: Image = {
+          base64: `data:image/jpg;base64,${imageData.base64}`,
+          name: imageData.name,
+          imageKey: imageData.imageKey,
+          width: imageData.width,
+          height: imageData.height,
+          placeholder: blurHashToDataUrl(imageData.placeholder),
+          loaded: true,
+        };
+        // console.log(newImage);
+
+        setImages((prevImages) => {
+          if (size !== imageSize) return prevImages;
+
+          const imageExists = prevImages.some(
+            (image) =>
+              image.imageKey === newImage.imageKey &&
+              image.width === newImage.width &&
+              image.height === newImage.height &&
+              image.loaded === true
+          );
+
+
+          if (!imageExists) {
+            const newImages = prevImages.map((image) =>
+              image.imageKey === newImage.imageKey
+                ? { ...image, ...newImage }
+                : image
             );
 
+            const isReplaced = newImages.some((image) => image.imageKey === newImage.imageKey);
 
-            if (!imageExists) {
-              const newImages = prevImages.map((image) =>
-                image.imageKey === newImage.imageKey
-                  ? { ...image, ...newImage }
-                  : image
-              );
-
-              const isReplaced = newImages.some((image) => image.imageKey === newImage.imageKey);
-
-              if (!isReplaced) {
-                return [...newImages, newImage];
-              }
-
-              return newImages;
+            if (!isReplaced) {
+              return [...newImages, newImage];
             }
 
-            return prevImages;
-          });
-
-          imageSet.add(newImage.imageKey);
-          console.log("imageCount: ",imageCount)
-          if (imageSet.size >= imageCount) {
-            console.log(dirKey.dirKey + ": ended", imageSet);
-            eventSource.close();
+            return newImages;
           }
+
+          return prevImages;
+        });
+
+        imageSet.add(newImage.imageKey);
+        console.log("imageCount: ",imageCount)
+        if (imageSet.size >= imageCount) {
+          console.log(dirKey.dirKey + ": ended", imageSet);
+          eventSource.close();
         }
       },
       error: (err) => {
@@ -509,6 +517,7 @@ const ImageGrid: React.FC = () => {
         loadedFile.images.forEach((image) => {
           setImages((prev) => [...prev,image])
         })
+        setSubDirectories((prev) => [...prev, ...loadedFile.directories]);
 
         setDirKey((prev) => ({
           ...prev,
@@ -598,9 +607,11 @@ const ImageGrid: React.FC = () => {
       if (response.ok) {
         console.log('Directory deleted successfully');
 
+        setSubDirectories((prev) => prev.filter((directory) => directory.dirKey !== dirKey));
+
         setDirKey((prev) => ({
           ...prev,
-          dirCount: prev.imageCount - 1,
+          dirCount: prev.dirCount - 1,
         }));
       } else {
         console.error('Failed to delete directory');
@@ -779,6 +790,8 @@ const ImageGrid: React.FC = () => {
                   style={{
                     width: `${image.width}px`,
                     height: `${image.height}px`,
+                    backgroundImage: image.placeholder ? `url(${image.placeholder})` : undefined,
+                    backgroundSize: "cover",
                   }}
                   onClick={() => handleMouseEnter(image)}
                 />
@@ -791,6 +804,8 @@ const ImageGrid: React.FC = () => {
                     style={{
                       width: `${imageSize === "small" ? 100 : imageSize === "medium" ? 200 : 300}px`,
                       height: `${imageSize === "small" ? 100 : imageSize === "medium" ? 200 : 300}px`,
+                      backgroundImage: image.placeholder ? `url(${image.placeholder})` : undefined,
+                      backgroundSize: "cover",
                     }}
                   >
                     <div
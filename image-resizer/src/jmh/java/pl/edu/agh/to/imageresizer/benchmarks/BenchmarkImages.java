@@ -0,0 +1,50 @@
+package pl.edu.agh.to.imageresizer.benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Builds a photo-like test image from low-frequency colour waves plus some noise,
+     * so that codecs have realistic work to do.
+     */
+    static byte[] encoded(String dimensions, String formatName) {
+        String[] parts = dimensions.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        long seed = 42;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                int noise = (int) (seed >>> 60);
+                int red = clamp(127.5 + 120 * Math.sin(x / 97.0) + noise);
+                int green = clamp(127.5 + 120 * Math.cos(y / 131.0) + noise);
+                int blue = clamp(127.5 + 120 * Math.sin((x + y) / 173.0) + noise);
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ImageIO.write(image, formatName, outputStream);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String mimeType(String formatName) {
+        return "image/" + formatName;
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,53 @@
+package pl.edu.agh.to.imageresizer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pl.edu.agh.to.imageresizer.services.ImageEncoding;
+import pl.edu.agh.to.imageresizer.services.ImageHeader;
+import pl.edu.agh.to.imageresizer.services.ImageProbe;
+
+import java.io.IOException;
+
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+    @Param({"256x256", "1920x1080", "6000x4000"})
+    public String dimensions;
+
+    @Param({"jpeg", "png"})
+    public String format;
+
+    private byte[] imageBytes;
+    private String dataUrl;
+
+    @Setup
+    public void setUp() {
+        imageBytes = BenchmarkImages.encoded(dimensions, format);
+        dataUrl = ImageEncoding.toDataUrl(BenchmarkImages.mimeType(format), imageBytes);
+    }
+
+    @Benchmark
+    public byte[] base64Decode() {
+        return ImageEncoding.decodeDataUrl(dataUrl);
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return ImageEncoding.toDataUrl(BenchmarkImages.mimeType(format), imageBytes);
+    }
+
+    @Benchmark
+    public String contentHash() {
+        return ImageEncoding.contentHash(imageBytes);
+    }
+
+    /**
+     * Reading dimensions from the header only, which replaced decoding the whole image to get them.
+     */
+    @Benchmark
+    public ImageHeader readDimensions() throws IOException {
+        return ImageProbe.readHeader(imageBytes);
+    }
+}
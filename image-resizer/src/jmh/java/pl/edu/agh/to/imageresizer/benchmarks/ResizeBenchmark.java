@@ -0,0 +1,78 @@
+package pl.edu.agh.to.imageresizer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import pl.edu.agh.to.imageresizer.model.ImageSize;
+import pl.edu.agh.to.imageresizer.model.ResizeMode;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.services.DecodeAdmission;
+import pl.edu.agh.to.imageresizer.services.DecodedImage;
+import pl.edu.agh.to.imageresizer.services.ImageProbe;
+import pl.edu.agh.to.imageresizer.services.ImageResizer;
+import reactor.core.publisher.Flux;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class ResizeBenchmark {
+    @Param({"256x256", "1920x1080", "6000x4000"})
+    public String dimensions;
+
+    @Param({"jpeg", "png"})
+    public String format;
+
+    @Param({"DIRECT", "CASCADE"})
+    public ResizeMode resizeMode;
+
+    private ImageResizer imageResizer;
+    private ImageDto imageDto;
+    private byte[] imageBytes;
+    private String mimeType;
+    private DecodedImage decodedImage;
+
+    @Setup
+    public void setUp() {
+        imageResizer = new ImageResizer(resizeMode, new DecodeAdmission(50_000_000L, 512L * 1024 * 1024));
+        imageBytes = BenchmarkImages.encoded(dimensions, format);
+        mimeType = BenchmarkImages.mimeType(format);
+        imageDto = new ImageDto("benchmark", "benchmark." + format, null, 0, 0);
+        decodedImage = imageResizer.decode(imageBytes, mimeType).block();
+    }
+
+    /**
+     * The upload path: one decode, then every standard size.
+     */
+    @Benchmark
+    public List<ResizedImage> decodeAndResizeAllSizes() {
+        return imageResizer.decode(imageBytes, mimeType)
+                .flatMapMany(decoded -> imageResizer.resize(decoded, imageDto, "benchmark", Flux.just(ImageSize.values())))
+                .collectList()
+                .block();
+    }
+
+    /**
+     * Scaling, encoding and the {@link ImageDto} to {@link ResizedImage} mapping, with decoding left out.
+     */
+    @Benchmark
+    public List<ResizedImage> resizeDecodedImage() {
+        return imageResizer.resize(decodedImage, imageDto, "benchmark", Flux.just(ImageSize.values()))
+                .collectList()
+                .block();
+    }
+
+    @Benchmark
+    public DecodedImage decodeForStandardSizes() {
+        return imageResizer.decode(imageBytes, mimeType).block();
+    }
+
+    @Benchmark
+    public BufferedImage decodeFullResolution() throws IOException {
+        return ImageProbe.read(imageBytes);
+    }
+}
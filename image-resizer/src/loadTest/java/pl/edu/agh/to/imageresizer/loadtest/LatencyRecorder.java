@@ -0,0 +1,40 @@
+package pl.edu.agh.to.imageresizer.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+class LatencyRecorder {
+    private final List<Long> samples = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong failures = new AtomicLong();
+
+    void record(long nanos) {
+        samples.add(nanos);
+    }
+
+    void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    LatencySummary summary() {
+        List<Long> sorted;
+        synchronized (samples) {
+            sorted = new ArrayList<>(samples);
+        }
+        Collections.sort(sorted);
+        return new LatencySummary(sorted.size(), failures.get(), millis(sorted, 0.50), millis(sorted, 0.90),
+                millis(sorted, 0.99), sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1) / 1_000_000.0);
+    }
+
+    private static double millis(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1_000_000.0;
+    }
+
+    record LatencySummary(int count, long failures, double p50Ms, double p90Ms, double p99Ms, double maxMs) {
+    }
+}
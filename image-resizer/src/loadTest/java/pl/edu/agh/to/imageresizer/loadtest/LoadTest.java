@@ -0,0 +1,319 @@
+package pl.edu.agh.to.imageresizer.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import pl.edu.agh.to.imageresizer.ImageResizerApplication;
+import pl.edu.agh.to.imageresizer.dto.DirectoryDto;
+import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import pl.edu.agh.to.imageresizer.loadtest.LatencyRecorder.LatencySummary;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts the application against an embedded Postgres, drives the upload and listing endpoints over HTTP
+ * and writes latency, throughput and heap figures to {@code build/load-test}.
+ * Run with {@code ./gradlew loadTest}.
+ */
+public final class LoadTest {
+    private static final Duration VISIBLE_TIMEOUT = Duration.ofMinutes(2);
+    private static final long POLL_INTERVAL_MS = 20;
+    private static final int MAX_RETRIES = 30;
+    private static final String COMPLETE_EVENT = "event:complete";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final LoadTestConfig config;
+    private final String baseUrl;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final List<byte[]> imagePool = new ArrayList<>();
+    private final AtomicLong uniqueSuffix = new AtomicLong();
+    private final List<String> directoryKeys = new ArrayList<>();
+
+    private LoadTest(LoadTestConfig config, int port) {
+        this.config = config;
+        this.baseUrl = "http://localhost:" + port + "/images";
+        config.imageMix().forEach((dimensions, weight) -> {
+            byte[] image = encodedImage(dimensions, config.format());
+            for (int i = 0; i < weight; i++) {
+                imagePool.add(image);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        try (EmbeddedPostgres postgres = EmbeddedPostgres.builder().start()) {
+            initSchema(postgres, config.schema());
+            ConfigurableApplicationContext application = startApplication(postgres.getPort());
+            try {
+                int port = Integer.parseInt(application.getEnvironment().getProperty("local.server.port"));
+                new LoadTest(config, port).run();
+            } finally {
+                application.close();
+            }
+        }
+    }
+
+    private static void initSchema(EmbeddedPostgres postgres, Path schema) throws Exception {
+        try (Connection connection = postgres.getPostgresDatabase().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(Files.readString(schema));
+        }
+    }
+
+    private static ConfigurableApplicationContext startApplication(int databasePort) {
+        return new SpringApplicationBuilder(ImageResizerApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.r2dbc.url=r2dbc:postgresql://localhost:" + databasePort + "/postgres",
+                        "spring.r2dbc.username=postgres",
+                        "spring.r2dbc.password=",
+                        "image-resizer.backfill.on-startup=false",
+                        "logging.level.io.r2dbc=WARN",
+                        "logging.level.io.r2dbc.postgresql=WARN",
+                        "logging.level.org.springframework.r2dbc=WARN",
+                        "logging.level.pl.edu.agh.to.imageresizer=WARN")
+                .run();
+    }
+
+    private void run() throws Exception {
+        String startedAt = LocalDateTime.now().toString();
+        HeapSampler heapSampler = new HeapSampler();
+        Map<String, PhaseResult> phases = new LinkedHashMap<>();
+        phases.put("upload", runPhase(config.uploadRequests(), config.imagesPerUpload(), this::uploadImages));
+        phases.put("upload-dir", runPhase(config.directoryUploads(), config.imagesPerDirectory(), this::uploadDirectory));
+        phases.put("listing", runPhase(config.listingRequests(), 0, this::listImages));
+        long peakHeapBytes = heapSampler.stop();
+        writeReport(new LoadTestReport(startedAt, config.concurrency(), config.format(),
+                config.imageMix(), phases, peakHeapBytes));
+    }
+
+    private PhaseResult runPhase(int requests, int imagesPerRequest, Request request) throws InterruptedException {
+        LatencyRecorder requestLatency = new LatencyRecorder();
+        LatencyRecorder visibleLatency = new LatencyRecorder();
+        AtomicInteger visibleImages = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(config.concurrency());
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int index = i;
+            executor.submit(() -> {
+                try {
+                    visibleImages.addAndGet(request.send(index, imagesPerRequest, requestLatency, visibleLatency));
+                } catch (Exception e) {
+                    requestLatency.recordFailure();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        return new PhaseResult(requests, visibleImages.get(), seconds, visibleImages.get() / seconds,
+                requests / seconds, requestLatency.summary(), visibleLatency.summary());
+    }
+
+    private int uploadImages(int index, int imageCount, LatencyRecorder requestLatency, LatencyRecorder visibleLatency) throws Exception {
+        List<ImageDto> images = newImages(imageCount);
+        long start = System.nanoTime();
+        HttpResponse<String> response = postWithRetry("/upload", OBJECT_MAPPER.writeValueAsString(images));
+        requestLatency.record(System.nanoTime() - start);
+        return response.statusCode() == 200 ? awaitVisible(images, start, visibleLatency) : 0;
+    }
+
+    private int uploadDirectory(int index, int imageCount, LatencyRecorder requestLatency, LatencyRecorder visibleLatency) throws Exception {
+        String directoryKey = "load-test-" + UUID.randomUUID();
+        List<ImageDto> images = newImages(imageCount);
+        DirectoryDto directory = new DirectoryDto(directoryKey, directoryKey, images, List.of(), 0, images.size());
+        long start = System.nanoTime();
+        HttpResponse<String> response = postWithRetry("/upload/dir?directoryKey=" + directoryKey, OBJECT_MAPPER.writeValueAsString(directory));
+        requestLatency.record(System.nanoTime() - start);
+        if (response.statusCode() != 200) {
+            return 0;
+        }
+        synchronized (directoryKeys) {
+            directoryKeys.add(directoryKey);
+        }
+        return awaitVisible(images, start, visibleLatency);
+    }
+
+    private int listImages(int index, int imageCount, LatencyRecorder requestLatency, LatencyRecorder visibleLatency) throws Exception {
+        String path = "/resized/all?sizeString=small&cursor=";
+        synchronized (directoryKeys) {
+            if (index % 2 == 1 && !directoryKeys.isEmpty()) {
+                path = "/resized/by-directory?sizeString=small&cursor=&dirKey=" + directoryKeys.get(index % directoryKeys.size());
+            }
+        }
+        long start = System.nanoTime();
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200 || !response.body().contains(COMPLETE_EVENT)) {
+            requestLatency.recordFailure();
+            return 0;
+        }
+        requestLatency.record(System.nanoTime() - start);
+        return 0;
+    }
+
+    private HttpResponse<String> postWithRetry(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        for (int retry = 0; response.statusCode() == 503 && retry < MAX_RETRIES; retry++) {
+            long retryAfterSeconds = response.headers().firstValueAsLong("Retry-After").orElse(1);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(retryAfterSeconds));
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+        return response;
+    }
+
+    private int awaitVisible(List<ImageDto> images, long start, LatencyRecorder visibleLatency) throws Exception {
+        int visible = 0;
+        for (ImageDto image : images) {
+            if (pollUntilVisible(image.imageKey(), start)) {
+                visibleLatency.record(System.nanoTime() - start);
+                visible++;
+            } else {
+                visibleLatency.recordFailure();
+            }
+        }
+        return visible;
+    }
+
+    private boolean pollUntilVisible(String imageKey, long start) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + imageKey + "/small")).GET().build();
+        while (System.nanoTime() - start < VISIBLE_TIMEOUT.toNanos()) {
+            if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                return true;
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+        return false;
+    }
+
+    /**
+     * Every image gets a unique trailer after the end of the encoded data, which decoders ignore,
+     * so deduplication by content hash does not turn the run into a copy benchmark.
+     */
+    private List<ImageDto> newImages(int count) {
+        List<ImageDto> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long suffix = uniqueSuffix.incrementAndGet();
+            byte[] base = imagePool.get((int) (suffix % imagePool.size()));
+            byte[] unique = ByteBuffer.allocate(base.length + Long.BYTES).put(base).putLong(suffix).array();
+            String dataUrl = "data:image/" + config.format() + ";base64," + Base64.getEncoder().encodeToString(unique);
+            images.add(new ImageDto("load-" + UUID.randomUUID(), "load-" + suffix + "." + config.format(), dataUrl, 0, 0));
+        }
+        return images;
+    }
+
+    private static byte[] encodedImage(String dimensions, String format) {
+        String[] parts = dimensions.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (int) (127.5 + 127.5 * Math.sin(x / 97.0));
+                int green = (int) (127.5 + 127.5 * Math.cos(y / 131.0));
+                int blue = (x * 31 + y * 17) & 0xff;
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ImageIO.write(image, format, outputStream);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeReport(LoadTestReport report) throws IOException {
+        Files.createDirectories(config.outputDirectory());
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        Path reportFile = config.outputDirectory().resolve("load-test-" + timestamp + ".json");
+        OBJECT_MAPPER.writeValue(reportFile.toFile(), report);
+
+        Path summaryFile = config.outputDirectory().resolve("summary.csv");
+        if (Files.notExists(summaryFile)) {
+            Files.writeString(summaryFile, "timestamp,phase,concurrency,images,images_per_s,request_p50_ms,request_p99_ms,"
+                    + "visible_p50_ms,visible_p99_ms,failures,peak_heap_mb\n");
+        }
+        StringBuilder lines = new StringBuilder();
+        report.phases().forEach((phase, result) -> lines.append(String.format(Locale.ROOT,
+                "%s,%s,%d,%d,%.2f,%.1f,%.1f,%.1f,%.1f,%d,%d%n", timestamp, phase, report.concurrency(), result.images(),
+                result.imagesPerSecond(), result.requestLatency().p50Ms(), result.requestLatency().p99Ms(),
+                result.visibleLatency().p50Ms(), result.visibleLatency().p99Ms(),
+                result.requestLatency().failures() + result.visibleLatency().failures(), report.peakHeapBytes() / (1024 * 1024))));
+        Files.writeString(summaryFile, lines, StandardOpenOption.APPEND);
+        System.out.println(OBJECT_MAPPER.writeValueAsString(report));
+        System.out.println("Report written to " + reportFile.toAbsolutePath());
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        int send(int index, int imageCount, LatencyRecorder requestLatency, LatencyRecorder visibleLatency) throws Exception;
+    }
+
+    record PhaseResult(int requests, int images, double seconds, double imagesPerSecond, double requestsPerSecond,
+                       LatencySummary requestLatency, LatencySummary visibleLatency) {
+    }
+
+    record LoadTestReport(String startedAt, int concurrency, String format, Map<String, Integer> imageMix,
+                          Map<String, PhaseResult> phases, long peakHeapBytes) {
+    }
+
+    /**
+     * Samples used heap of the whole JVM, which holds both the application and the load generator.
+     */
+    private static final class HeapSampler {
+        private final AtomicLong peak = new AtomicLong();
+        private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+
+        private HeapSampler() {
+            sampler.scheduleAtFixedRate(() -> peak.accumulateAndGet(
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max), 0, 50, TimeUnit.MILLISECONDS);
+        }
+
+        private long stop() {
+            sampler.shutdownNow();
+            return peak.get();
+        }
+    }
+}
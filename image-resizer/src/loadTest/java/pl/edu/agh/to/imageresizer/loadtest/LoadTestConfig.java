@@ -0,0 +1,39 @@
+package pl.edu.agh.to.imageresizer.loadtest;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Load test settings, read from {@code loadtest.*} system properties (passed as {@code -Ploadtest.*} to Gradle).
+ */
+record LoadTestConfig(int concurrency, int uploadRequests, int imagesPerUpload, int directoryUploads, int imagesPerDirectory,
+                      int listingRequests, String format, Map<String, Integer> imageMix, Path schema, Path outputDirectory) {
+
+    static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(
+                Integer.getInteger("loadtest.concurrency", 8),
+                Integer.getInteger("loadtest.uploads", 100),
+                Integer.getInteger("loadtest.images-per-upload", 4),
+                Integer.getInteger("loadtest.directory-uploads", 10),
+                Integer.getInteger("loadtest.images-per-directory", 16),
+                Integer.getInteger("loadtest.listings", 200),
+                System.getProperty("loadtest.format", "jpeg"),
+                parseMix(System.getProperty("loadtest.mix", "640x480:60,1920x1080:30,4000x3000:10")),
+                Path.of(System.getProperty("loadtest.schema", "../db-init.sql")),
+                Path.of(System.getProperty("loadtest.output", "build/load-test"))
+        );
+    }
+
+    /**
+     * Parses {@code WIDTHxHEIGHT:WEIGHT} pairs separated by commas.
+     */
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            weights.put(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+        }
+        return weights;
+    }
+}
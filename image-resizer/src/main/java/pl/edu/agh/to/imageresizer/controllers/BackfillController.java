@@ -0,0 +1,32 @@
+package pl.edu.agh.to.imageresizer.controllers;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pl.edu.agh.to.imageresizer.dto.BackfillStatus;
+import pl.edu.agh.to.imageresizer.services.BackfillService;
+
+@RestController
+@RequestMapping("/images/backfill")
+public class BackfillController {
+    private final BackfillService backfillService;
+
+    public BackfillController(BackfillService backfillService) {
+        this.backfillService = backfillService;
+    }
+
+    @PostMapping(value = "/start", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BackfillStatus> startBackfill() {
+        HttpStatus status = backfillService.start() ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT;
+        return ResponseEntity.status(status).body(backfillService.getStatus());
+    }
+
+    @GetMapping(value = "/status", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BackfillStatus> getBackfillStatus() {
+        return ResponseEntity.ok(backfillService.getStatus());
+    }
+}
@@ -1,35 +1,79 @@
 package pl.edu.agh.to.imageresizer.controllers;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 import pl.edu.agh.to.imageresizer.dto.DirectoryDto;
 import pl.edu.agh.to.imageresizer.dto.DirectoryMetadata;
+import pl.edu.agh.to.imageresizer.dto.DirectoryView;
+import pl.edu.agh.to.imageresizer.dto.ImageContent;
 import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import pl.edu.agh.to.imageresizer.dto.ImageReference;
+import pl.edu.agh.to.imageresizer.dto.SpriteSheet;
+import pl.edu.agh.to.imageresizer.dto.StreamComplete;
+import pl.edu.agh.to.imageresizer.dto.SubtreeStats;
+import pl.edu.agh.to.imageresizer.model.FitMode;
 import pl.edu.agh.to.imageresizer.model.ImageSize;
 import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.model.VariantSize;
+import pl.edu.agh.to.imageresizer.services.ImageEncoding;
 import pl.edu.agh.to.imageresizer.services.ImageService;
+import pl.edu.agh.to.imageresizer.services.ImageStreamReader;
+import pl.edu.agh.to.imageresizer.services.ImageVariantService;
+import pl.edu.agh.to.imageresizer.services.PageCursor;
+import pl.edu.agh.to.imageresizer.services.Sprite;
+import pl.edu.agh.to.imageresizer.services.SpriteService;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static pl.edu.agh.to.imageresizer.services.ImageService.ERROR;
+import static pl.edu.agh.to.imageresizer.services.ImageService.ERROR_WIDTH_AND_HEIGHT;
+import static pl.edu.agh.to.imageresizer.services.ImageService.ORIGINAL_SIZE;
 
 @RestController
 @RequestMapping("/images")
 public class ImageController {
     private static final Logger logger = LoggerFactory.getLogger(ImageController.class);
     private final ImageService imageService;
-    private final String COMPLETE_REQUEST = "COMPLETE_REQUEST";
+    private final ImageVariantService imageVariantService;
+    private final SpriteService spriteService;
+    private final ImageStreamReader imageStreamReader;
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
+    private static final String IMAGE_EVENT = "image";
+    private static final String IMAGE_ERROR_EVENT = "image-error";
+    private static final String DIRECTORY_EVENT = "directory";
+    private static final String COMPLETE_EVENT = "complete";
+    private static final String VARIANT_READY_EVENT = "variant-ready";
+    private static final String VARIANT_FAILED_EVENT = "variant-failed";
+    private static final Duration EVENTS_KEEPALIVE = Duration.ofSeconds(15);
+    private static final String RETRY_AFTER_SECONDS = "2";
+    private static final CacheControl IMAGE_CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(365)).cachePublic();
 
-    public ImageController(ImageService imageService) {
+    public ImageController(ImageService imageService, ImageVariantService imageVariantService, SpriteService spriteService,
+                           ImageStreamReader imageStreamReader) {
         this.imageService = imageService;
+        this.imageVariantService = imageVariantService;
+        this.spriteService = spriteService;
+        this.imageStreamReader = imageStreamReader;
     }
 
     @GetMapping("/health")
@@ -43,7 +87,7 @@ public class ImageController {
                 .map(originalImage -> new ImageDto(
                         null,
                         originalImage.getName(),
-                        originalImage.getBase64(),
+                        ImageEncoding.originalBase64(originalImage),
                         originalImage.getWidth(),
                         originalImage.getHeight()
                 ))
@@ -51,22 +95,39 @@ public class ImageController {
     }
 
     @GetMapping(value = "/resized/by-session", params = {"sessionKey", "sizeString", "page"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ResponseEntity<ImageDto>> getImagesBySessionKey(@RequestParam String sessionKey, @RequestParam String sizeString, @RequestParam int page) {
-        return imageService.getResizedImagesForSessionKey(sessionKey, ImageSize.valueOf(sizeString.toUpperCase()),page)
-                .map(this::convertToImageDto)
-                .doOnNext(image -> logger.info(image.toString()))
-                .concatWith(Flux.just(new ImageDto(COMPLETE_REQUEST, COMPLETE_REQUEST, COMPLETE_REQUEST, 0, 0)))
-                .map(this::getImageDtoResponseEntity);
+    public Flux<ServerSentEvent<Object>> getImagesBySessionKey(@RequestParam String sessionKey, @RequestParam String sizeString, @RequestParam int page) {
+        return toImageEvents(imageService.getResizedImagesForSessionKey(sessionKey, ImageSize.valueOf(sizeString.toUpperCase()), page), null);
+    }
+
+    @GetMapping(value = "/resized/by-session", params = {"sessionKey", "sizeString", "cursor", "!page"},
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<?> getImagesBySessionKey(@RequestParam String sessionKey, @RequestParam String sizeString, @RequestParam String cursor,
+                                         @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId,
+                                         @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return acceptsNdjson(accept) ? listImagesBySessionKey(sessionKey, sizeString, cursor) : getImagesBySessionKey(sessionKey, sizeString, cursor, lastEventId);
+    }
+
+    public Flux<ServerSentEvent<Object>> getImagesBySessionKey(String sessionKey, String sizeString, String cursor, String lastEventId) {
+        String from = resumeFrom(cursor, lastEventId);
+        return toImageEvents(imageService.getResizedImagesForSessionKeyAfter(sessionKey, ImageSize.valueOf(sizeString.toUpperCase()), imageIdCursor(from)), from);
+    }
+
+    @GetMapping(value = "/resized/by-directory", params = {"dirKey", "sizeString", "cursor", "!page"},
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<?> getImagesByDirKey(@RequestParam String dirKey, @RequestParam String sizeString, @RequestParam String cursor,
+                                     @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId,
+                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return acceptsNdjson(accept) ? listImagesByDirKey(dirKey, sizeString, cursor) : getImagesByDirKey(dirKey, sizeString, cursor, lastEventId);
+    }
+
+    public Flux<ServerSentEvent<Object>> getImagesByDirKey(String dirKey, String sizeString, String cursor, String lastEventId) {
+        String from = resumeFrom(cursor, lastEventId);
+        return toImageEvents(imageService.getResizedImagesByDirKeyAfter(dirKey, ImageSize.valueOf(sizeString.toUpperCase()), imageIdCursor(from)), from);
     }
 
     @GetMapping(value = "/resized/by-directory", params = {"dirKey", "sizeString", "page"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ResponseEntity<ImageDto>> getImagesByDirKey(@RequestParam String dirKey, @RequestParam String sizeString, @RequestParam int page) {
-        return imageService.getResizedImagesByDirKey(dirKey, ImageSize.valueOf(sizeString.toUpperCase()),page)
-                .map(this::convertToImageDto)
-                .doOnNext(image -> logger.info(image.toString()))
-                .concatWith(Flux.just(new ImageDto(COMPLETE_REQUEST, COMPLETE_REQUEST, COMPLETE_REQUEST, 0, 0)))
-                .map(this::getImageDtoResponseEntity)
-                .doOnNext(response -> logger.info("ResponseEntity: " + response));
+    public Flux<ServerSentEvent<Object>> getImagesByDirKey(@RequestParam String dirKey, @RequestParam String sizeString, @RequestParam int page) {
+        return toImageEvents(imageService.getResizedImagesByDirKey(dirKey, ImageSize.valueOf(sizeString.toUpperCase()), page), null);
     }
 
     @GetMapping(value = "/parent", params = {"dirKey"}, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -83,18 +144,61 @@ public class ImageController {
     }
 
     @GetMapping(value = "/directories/by-parent", params = {"dirKey", "page"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ResponseEntity<DirectoryMetadata>> getDirectoriesByParent(@RequestParam String dirKey, @RequestParam int page) {
-        return imageService.getDirectories(dirKey, page)
-                .concatWith(Flux.just(new DirectoryMetadata(COMPLETE_REQUEST, COMPLETE_REQUEST, 0, 0)))
-                .doOnNext(image -> logger.info(image.toString()))
-                .map(element -> ResponseEntity.ok().body(element));
+    public Flux<ServerSentEvent<Object>> getDirectoriesByParent(@RequestParam String dirKey, @RequestParam int page) {
+        return toDirectoryEvents(imageService.getDirectories(dirKey, page), null);
+    }
+
+    @GetMapping(value = "/directories/by-parent", params = {"dirKey", "cursor", "!page"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> getDirectoriesByParent(@RequestParam String dirKey, @RequestParam String cursor,
+                                                                @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        String from = resumeFrom(cursor, lastEventId);
+        return toDirectoryEvents(imageService.getDirectoriesAfter(dirKey, decodeCursor(from, PageCursor::directoryKey)), from);
     }
+
     @GetMapping(value = "/directories/by-parent", params = {"dirKey"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ResponseEntity<DirectoryMetadata>> getDirectoriesByParent(@RequestParam String dirKey) {
-        return imageService.getDirectories(dirKey)
-                .concatWith(Flux.just(new DirectoryMetadata(COMPLETE_REQUEST, COMPLETE_REQUEST, 0, 0)))
-                .doOnNext(image -> logger.info(image.toString()))
-                .map(element -> ResponseEntity.ok().body(element));
+    public Flux<ServerSentEvent<Object>> getDirectoriesByParent(@RequestParam String dirKey) {
+        return toDirectoryEvents(imageService.getDirectories(dirKey), null);
+    }
+
+    @GetMapping(value = "/directories/view", params = {"dirKey", "sizeString"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<DirectoryView>> getDirectoryView(@RequestParam String dirKey, @RequestParam String sizeString,
+                                                                @RequestParam(required = false) String directoriesCursor,
+                                                                @RequestParam(required = false) String imagesCursor) {
+        ImageSize size = ImageSize.valueOf(sizeString.toUpperCase());
+        return imageService.getDirectoryListing(dirKey, size, decodeCursor(directoriesCursor, PageCursor::directoryKey), imageIdCursor(imagesCursor))
+                .map(listing -> {
+                    List<DirectoryMetadata> path = listing.path();
+                    List<DirectoryMetadata> directories = listing.directories();
+                    List<ImageReference> images = listing.images().stream()
+                            .map(image -> toImageReference(image, size))
+                            .toList();
+                    String nextDirectories = listing.moreDirectories()
+                            ? PageCursor.ofDirectoryKey(directories.get(directories.size() - 1).directoryKey()) : null;
+                    String nextImages = listing.moreImages() ? images.get(images.size() - 1).cursor() : null;
+                    return ResponseEntity.ok(new DirectoryView(path.get(path.size() - 1), path.subList(0, path.size() - 1),
+                            directories, nextDirectories, images, nextImages));
+                })
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping(value = "/directories/by-ancestor", params = {"dirKey"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> getDirectoriesByAncestor(@RequestParam String dirKey) {
+        return toDirectoryEvents(imageService.getDescendants(dirKey), null);
+    }
+
+    @GetMapping(value = "/directories/subtree", params = {"dirKey"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<SubtreeStats>> getSubtreeStats(@RequestParam String dirKey) {
+        return imageService.getSubtreeStats(dirKey)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping(value = "/directories/move", params = {"dirKey", "parentDirKey"})
+    public Mono<ResponseEntity<Void>> moveDirectory(@RequestParam String dirKey, @RequestParam String parentDirKey) {
+        return imageService.moveDirectory(dirKey, parentDirKey)
+                .map(moved -> ResponseEntity.ok().<Void>build())
+                .defaultIfEmpty(ResponseEntity.notFound().build())
+                .onErrorMap(IllegalArgumentException.class, e -> new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e));
     }
 
     @DeleteMapping(value = "/directories/delete", params = {"dirKey"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
@@ -112,34 +216,83 @@ public class ImageController {
     }
 
     @GetMapping(value = "/resized/all", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ResponseEntity<ImageDto>> getAllImages(@RequestParam String sizeString, @RequestParam int page) {
+    public Flux<ServerSentEvent<Object>> getAllImages(@RequestParam String sizeString, @RequestParam int page) {
         ImageSize size = ImageSize.valueOf(sizeString.toUpperCase());
         logger.info("Getting all images in size: {}", size);
-        return imageService.getAllResizedImages(size, page)
-                .map(this::convertToImageDto)
-                .doOnNext(image -> logger.info(image.toString()))
-                .concatWith(Flux.just(new ImageDto(COMPLETE_REQUEST, COMPLETE_REQUEST, COMPLETE_REQUEST, 0, 0))
-                        .delayElements(java.time.Duration.ofMillis(500)))
-                .map(this::getImageDtoResponseEntity);
+        return toImageEvents(imageService.getAllResizedImages(size, page), null);
+    }
+
+    @GetMapping(value = "/resized/all", params = {"sizeString", "cursor", "!page"},
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<?> getAllImages(@RequestParam String sizeString, @RequestParam String cursor,
+                                @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId,
+                                @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return acceptsNdjson(accept) ? listAllImages(sizeString, cursor) : getAllImages(sizeString, cursor, lastEventId);
+    }
+
+    public Flux<ServerSentEvent<Object>> getAllImages(String sizeString, String cursor, String lastEventId) {
+        String from = resumeFrom(cursor, lastEventId);
+        return toImageEvents(imageService.getAllResizedImagesAfter(ImageSize.valueOf(sizeString.toUpperCase()), imageIdCursor(from)), from);
+    }
+
+    @GetMapping(value = "/resized/by-image-key", params = {"imageKey", "sizeString", "cursor", "!page"},
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<?> getImageByImageKey(@RequestParam String imageKey, @RequestParam String sizeString, @RequestParam String cursor,
+                                      @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId,
+                                      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return acceptsNdjson(accept) ? listImagesByImageKey(imageKey, sizeString, cursor) : getImageByImageKey(imageKey, sizeString, cursor, lastEventId);
+    }
+
+    public Flux<ServerSentEvent<Object>> getImageByImageKey(String imageKey, String sizeString, String cursor, String lastEventId) {
+        String from = resumeFrom(cursor, lastEventId);
+        return toImageEvents(imageService.getResizedImagesByImageKeyAfter(imageKey, ImageSize.valueOf(sizeString.toUpperCase()), imageIdCursor(from)), from);
     }
 
     @GetMapping(value = "/resized/by-image-key", params = {"imageKey", "sizeString", "page"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ResponseEntity<ImageDto>> getImageByImageKey(@RequestParam String imageKey, @RequestParam String sizeString, @RequestParam int page) {
-        return imageService.getResizedImagesByImageKey(imageKey, ImageSize.valueOf(sizeString.toUpperCase()),page)
-                .map(this::convertToImageDto)
-                .doOnNext(image -> logger.info(image.toString()))
-                .concatWith(Flux.just(new ImageDto(COMPLETE_REQUEST, COMPLETE_REQUEST, COMPLETE_REQUEST, 0, 0))
-                        .delayElements(java.time.Duration.ofMillis(500)))
-                .map(this::getImageDtoResponseEntity);
+    public Flux<ServerSentEvent<Object>> getImageByImageKey(@RequestParam String imageKey, @RequestParam String sizeString, @RequestParam int page) {
+        return toImageEvents(imageService.getResizedImagesByImageKey(imageKey, ImageSize.valueOf(sizeString.toUpperCase()), page), null);
+    }
+
+    public Flux<ImageReference> listAllImages(String sizeString, String cursor) {
+        ImageSize size = ImageSize.valueOf(sizeString.toUpperCase());
+        return toImageReferences(imageService.getAllImageMetadataAfter(size, imageIdCursor(cursor)), size);
+    }
+
+    public Flux<ImageReference> listImagesBySessionKey(String sessionKey, String sizeString, String cursor) {
+        ImageSize size = ImageSize.valueOf(sizeString.toUpperCase());
+        return toImageReferences(imageService.getImageMetadataForSessionKeyAfter(sessionKey, size, imageIdCursor(cursor)), size);
+    }
+
+    public Flux<ImageReference> listImagesByDirKey(String dirKey, String sizeString, String cursor) {
+        ImageSize size = ImageSize.valueOf(sizeString.toUpperCase());
+        return toImageReferences(imageService.getImageMetadataByDirKeyAfter(dirKey, size, imageIdCursor(cursor)), size);
+    }
+
+    public Flux<ImageReference> listImagesByImageKey(String imageKey, String sizeString, String cursor) {
+        ImageSize size = ImageSize.valueOf(sizeString.toUpperCase());
+        return toImageReferences(imageService.getImageMetadataByImageKeyAfter(imageKey, size, imageIdCursor(cursor)), size);
+    }
+
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> getImageEvents(@RequestParam String dirKey) {
+        Flux<ServerSentEvent<Object>> events = imageService.getVariantReadyEvents(dirKey)
+                .map(event -> ServerSentEvent.<Object>builder(event)
+                        .event(event.damaged() ? VARIANT_FAILED_EVENT : VARIANT_READY_EVENT)
+                        .build())
+                .onErrorMap(NoSuchElementException.class, e -> new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage(), e));
+        Flux<ServerSentEvent<Object>> keepalive = Flux.interval(EVENTS_KEEPALIVE)
+                .map(tick -> ServerSentEvent.<Object>builder().comment("keepalive").build());
+        return Flux.merge(events, keepalive);
     }
 
     @PostMapping(value = "/upload", produces = MediaType.APPLICATION_JSON_VALUE)
     public Mono<ResponseEntity<String>> uploadImages(@RequestBody List<ImageDto> images, HttpSession httpSession) {
         String sessionKey = httpSession.getId();
-        Flux.fromIterable(images)
-                .flatMap(image -> imageService.resizeAndSaveOriginalImage(image, sessionKey, null))
+        if (imageService.isResizeQueueSaturated()) {
+            return Mono.just(getServiceUnavailableResponse());
+        }
+        imageService.resizeAndSaveOriginalImages(Flux.fromIterable(images), sessionKey, null)
                 .doOnError(e -> logger.error("Error during image processing", e))
-                .subscribeOn(Schedulers.boundedElastic())
                 .subscribe();
 
         return Mono.just(ResponseEntity.status(HttpStatus.OK).body(sessionKey));
@@ -148,25 +301,221 @@ public class ImageController {
     @PostMapping(value = "/upload/dir", params = {"directoryKey"}, produces = MediaType.APPLICATION_JSON_VALUE)
     public Mono<ResponseEntity<String>> uploadDirectory(@RequestBody DirectoryDto directory,@RequestParam String directoryKey, HttpSession httpSession) {
         String sessionKey = httpSession.getId();
+        if (imageService.isResizeQueueSaturated()) {
+            return Mono.just(getServiceUnavailableResponse());
+        }
         Flux.just(directory)
                 .flatMap(image -> imageService.saveOrUpdateDirectory(directory, sessionKey, directoryKey ))
                 .doOnError(e -> logger.error("Error during image processing", e))
-                .subscribeOn(Schedulers.boundedElastic())
                 .subscribe();
 
         return Mono.just(ResponseEntity.status(HttpStatus.OK).body(sessionKey));
     }
 
+    @PostMapping(value = "/upload/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<String>> uploadImageStream(@RequestParam(required = false) String directoryKey,
+                                                          HttpServletRequest request, HttpSession httpSession) throws IOException {
+        String sessionKey = httpSession.getId();
+        if (imageService.isResizeQueueSaturated()) {
+            return Mono.just(getServiceUnavailableResponse());
+        }
+        return imageService.resizeAndSaveImageStream(imageStreamReader.readNdjson(request.getInputStream()), sessionKey, directoryKey)
+                .doOnNext(count -> logger.info("Processed {} images from upload stream", count))
+                .map(count -> ResponseEntity.status(HttpStatus.OK).body(sessionKey))
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().body(e.getMessage())));
+    }
+
+    @GetMapping(value = "/{imageKey}/{size}")
+    public Mono<ResponseEntity<byte[]>> getImageContent(@PathVariable String imageKey, @PathVariable String size,
+                                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (!ORIGINAL_SIZE.equalsIgnoreCase(size)) {
+            try {
+                ImageSize.valueOf(size.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown image size " + size, e);
+            }
+        }
+        if (ifNoneMatch == null) {
+            return toContentResponse(imageService.getImageContent(imageKey, size), null);
+        }
+        return imageService.getImageETag(imageKey, size)
+                .filter(etag -> matchesETag(ifNoneMatch, etag))
+                .map(etag -> ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .cacheControl(IMAGE_CACHE_CONTROL)
+                        .<byte[]>build())
+                .switchIfEmpty(Mono.defer(() -> toContentResponse(imageService.getImageContent(imageKey, size), ifNoneMatch)));
+    }
+
+    @GetMapping(value = "/{imageKey}/variants")
+    public Mono<ResponseEntity<byte[]>> getImageVariant(@PathVariable String imageKey, @RequestParam int width, @RequestParam int height,
+                                                        @RequestParam(defaultValue = "fit") String fit,
+                                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        VariantSize variantSize;
+        try {
+            variantSize = VariantSize.bucketed(width, height, FitMode.valueOf(fit.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        return toContentResponse(imageVariantService.getVariant(imageKey, variantSize), ifNoneMatch);
+    }
+
+    @GetMapping(value = "/sprites/by-directory", params = {"dirKey", "sizeString", "page"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<SpriteSheet>> getDirectorySprite(@RequestParam String dirKey, @RequestParam String sizeString, @RequestParam int page) {
+        return spriteService.getDirectorySprite(dirKey, ImageSize.valueOf(sizeString.toUpperCase()), page)
+                .map(sprite -> ResponseEntity.ok(new SpriteSheet(UriComponentsBuilder.fromPath("/images/sprites/by-directory/image")
+                        .queryParam("dirKey", dirKey)
+                        .queryParam("sizeString", sizeString)
+                        .queryParam("page", page)
+                        .queryParam("v", spriteVersion(sprite.image()))
+                        .encode()
+                        .toUriString(),
+                        sprite.width(), sprite.height(), sprite.tiles())))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping(value = "/sprites/by-directory/image", params = {"dirKey", "sizeString", "page"})
+    public Mono<ResponseEntity<byte[]>> getDirectorySpriteImage(@RequestParam String dirKey, @RequestParam String sizeString, @RequestParam int page,
+                                                                @RequestParam(value = "v", required = false) String version,
+                                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return spriteService.getDirectorySprite(dirKey, ImageSize.valueOf(sizeString.toUpperCase()), page)
+                .map(Sprite::image)
+                .map(content -> {
+                    if (version == null) {
+                        return toContentResponse(content, ifNoneMatch, CacheControl.noCache());
+                    }
+                    if (!version.equals(spriteVersion(content))) {
+                        return ResponseEntity.status(HttpStatus.CONFLICT)
+                                .cacheControl(CacheControl.noStore())
+                                .<byte[]>build();
+                    }
+                    return toContentResponse(content, ifNoneMatch, IMAGE_CACHE_CONTROL);
+                })
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    private String spriteVersion(ImageContent content) {
+        return content.etag().replace("\"", "");
+    }
+
+    private Mono<ResponseEntity<byte[]>> toContentResponse(Mono<ImageContent> imageContent, String ifNoneMatch) {
+        return imageContent
+                .map(content -> toContentResponse(content, ifNoneMatch, IMAGE_CACHE_CONTROL))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    private ResponseEntity<byte[]> toContentResponse(ImageContent content, String ifNoneMatch, CacheControl cacheControl) {
+        return matchesETag(ifNoneMatch, content.etag()) ?
+                ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(content.etag())
+                        .cacheControl(cacheControl)
+                        .<byte[]>build()
+                : ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType(content.mimeType()))
+                        .eTag(content.etag())
+                        .cacheControl(cacheControl)
+                        .body(content.data());
+    }
+
+    private boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private ImageDto convertToImageDto(ResizedImage resizedImage) {
         return new ImageDto(
                 resizedImage.getImageKey(),
                 resizedImage.getName(),
-                resizedImage.getBase64(),
+                ImageEncoding.resizedBase64(resizedImage),
                 resizedImage.getWidth(),
-                resizedImage.getHeight()
+                resizedImage.getHeight(),
+                resizedImage.getPlaceholder()
         );
     }
 
+    private Flux<ImageReference> toImageReferences(Flux<ImageMetadata> images, ImageSize size) {
+        return images.map(image -> toImageReference(image, size));
+    }
+
+    private ImageReference toImageReference(ImageMetadata image, ImageSize size) {
+        boolean damaged = image.width() == ERROR_WIDTH_AND_HEIGHT;
+        return new ImageReference(image.imageKey(), image.name(), image.width(), image.height(), damaged, image.placeholder(),
+                damaged ? null : "/images/" + image.imageKey() + "/" + size.name().toLowerCase(),
+                PageCursor.ofImageId(image.imageId()));
+    }
+
+    private Flux<ServerSentEvent<Object>> toImageEvents(Flux<ResizedImage> images, String cursor) {
+        return toEvents(images.map(image -> {
+            ImageDto imageDto = convertToImageDto(image);
+            return ServerSentEvent.<Object>builder(imageDto)
+                    .event(imageDto.base64().equals(ERROR) ? IMAGE_ERROR_EVENT : IMAGE_EVENT)
+                    .id(imageService.cursorOf(image))
+                    .build();
+        }), cursor);
+    }
+
+    private Flux<ServerSentEvent<Object>> toDirectoryEvents(Flux<DirectoryMetadata> directories, String cursor) {
+        return toEvents(directories.map(directory -> ServerSentEvent.<Object>builder(directory)
+                .event(DIRECTORY_EVENT)
+                .id(PageCursor.ofDirectoryKey(directory.directoryKey()))
+                .build()), cursor);
+    }
+
+    private Flux<ServerSentEvent<Object>> toEvents(Flux<ServerSentEvent<Object>> events, String cursor) {
+        return Flux.defer(() -> {
+            AtomicReference<String> lastCursor = new AtomicReference<>(cursor);
+            AtomicLong count = new AtomicLong();
+            return events
+                    .doOnNext(event -> {
+                        lastCursor.set(event.id());
+                        count.incrementAndGet();
+                    })
+                    .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Object>builder(new StreamComplete(lastCursor.get(), count.get()))
+                            .event(COMPLETE_EVENT)
+                            .id(lastCursor.get())
+                            .build()));
+        });
+    }
+
+    private boolean acceptsNdjson(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return false;
+        }
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        return mediaTypes.stream().anyMatch(MediaType.APPLICATION_NDJSON::equalsTypeAndSubtype)
+                && mediaTypes.stream().noneMatch(MediaType.TEXT_EVENT_STREAM::equalsTypeAndSubtype);
+    }
+
+    private String resumeFrom(String cursor, String lastEventId) {
+        return lastEventId == null || lastEventId.isBlank() ? cursor : lastEventId;
+    }
+
+    private long imageIdCursor(String cursor) {
+        return decodeCursor(cursor, PageCursor::imageId);
+    }
+
+    private <T> T decodeCursor(String cursor, Function<String, T> decoder) {
+        try {
+            return decoder.apply(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor", e);
+        }
+    }
+
+    private ResponseEntity<String> getServiceUnavailableResponse() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body("Resize queue is full, retry later");
+    }
+
     private ResponseEntity<ImageDto> getImageDtoResponseEntity(ImageDto element) {
         return element.base64().equals(ERROR) ?
                 ResponseEntity.status(HttpStatus.NOT_FOUND).body(element)
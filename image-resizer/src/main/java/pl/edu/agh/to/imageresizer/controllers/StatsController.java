@@ -0,0 +1,69 @@
+package pl.edu.agh.to.imageresizer.controllers;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pl.edu.agh.to.imageresizer.dto.CacheStats;
+import pl.edu.agh.to.imageresizer.dto.DecodeAdmissionStats;
+import pl.edu.agh.to.imageresizer.dto.DeduplicationStats;
+import pl.edu.agh.to.imageresizer.dto.ResizeExecutorStats;
+import pl.edu.agh.to.imageresizer.services.DecodeAdmission;
+import pl.edu.agh.to.imageresizer.services.DeduplicationMetrics;
+import pl.edu.agh.to.imageresizer.services.ImageVariantService;
+import pl.edu.agh.to.imageresizer.services.ListingCache;
+import pl.edu.agh.to.imageresizer.services.ResizeExecutor;
+import pl.edu.agh.to.imageresizer.services.SpriteService;
+
+@RestController
+@RequestMapping("/images/stats")
+public class StatsController {
+    private final ResizeExecutor resizeExecutor;
+    private final DeduplicationMetrics deduplicationMetrics;
+    private final ImageVariantService imageVariantService;
+    private final ListingCache listingCache;
+    private final DecodeAdmission decodeAdmission;
+    private final SpriteService spriteService;
+
+    public StatsController(ResizeExecutor resizeExecutor, DeduplicationMetrics deduplicationMetrics,
+                           ImageVariantService imageVariantService, ListingCache listingCache,
+                           DecodeAdmission decodeAdmission, SpriteService spriteService) {
+        this.resizeExecutor = resizeExecutor;
+        this.deduplicationMetrics = deduplicationMetrics;
+        this.imageVariantService = imageVariantService;
+        this.listingCache = listingCache;
+        this.decodeAdmission = decodeAdmission;
+        this.spriteService = spriteService;
+    }
+
+    @GetMapping(value = "/resize", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ResizeExecutorStats> getResizeStats() {
+        return ResponseEntity.ok(resizeExecutor.getStats());
+    }
+
+    @GetMapping(value = "/dedup", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DeduplicationStats> getDeduplicationStats() {
+        return ResponseEntity.ok(deduplicationMetrics.getStats());
+    }
+
+    @GetMapping(value = "/variants", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CacheStats> getVariantCacheStats() {
+        return ResponseEntity.ok(imageVariantService.getCacheStats());
+    }
+
+    @GetMapping(value = "/listings", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CacheStats> getListingCacheStats() {
+        return ResponseEntity.ok(listingCache.getStats());
+    }
+
+    @GetMapping(value = "/sprites", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CacheStats> getSpriteCacheStats() {
+        return ResponseEntity.ok(spriteService.getCacheStats());
+    }
+
+    @GetMapping(value = "/decode", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DecodeAdmissionStats> getDecodeAdmissionStats() {
+        return ResponseEntity.ok(decodeAdmission.getStats());
+    }
+}
@@ -0,0 +1,9 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+import pl.edu.agh.to.imageresizer.model.BackfillState;
+
+import java.time.Instant;
+
+public record BackfillStatus(BackfillState state, long lastImageId, long processedImages, long createdVariants,
+                             long failedImages, double imagesPerSecond, Instant startedAt, Instant finishedAt) {
+}
@@ -0,0 +1,4 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record CacheStats(int entries, long bytes, long maxBytes, long hits, long misses, long evictions, double hitRate) {
+}
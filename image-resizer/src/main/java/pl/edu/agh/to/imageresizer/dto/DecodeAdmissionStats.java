@@ -0,0 +1,5 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record DecodeAdmissionStats(long maxPixels, long memoryBudgetBytes, long availableBytes,
+                                   long admitted, long deferred, long rejected) {
+}
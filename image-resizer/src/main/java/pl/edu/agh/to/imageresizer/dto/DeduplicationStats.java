@@ -0,0 +1,5 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record DeduplicationStats(long lookups, long hits, long misses, double hitRate, long bytesSaved,
+                                 long variantsReused) {
+}
@@ -0,0 +1,8 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+import java.util.List;
+
+public record DirectoryView(DirectoryMetadata directory, List<DirectoryMetadata> breadcrumb,
+                            List<DirectoryMetadata> directories, String directoriesCursor,
+                            List<ImageReference> images, String imagesCursor) {
+}
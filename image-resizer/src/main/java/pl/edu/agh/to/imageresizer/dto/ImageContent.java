@@ -0,0 +1,4 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record ImageContent(byte[] data, String mimeType, String etag) {
+}
@@ -5,5 +5,10 @@ public record ImageDto (
     String name,
     String base64,
     int width,
-    int height
-) {}
+    int height,
+    String placeholder
+) {
+    public ImageDto(String imageKey, String name, String base64, int width, int height) {
+        this(imageKey, name, base64, width, height, null);
+    }
+}
@@ -0,0 +1,5 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record ImageMetadata(long imageId, String imageKey, String name, String sessionKey, String mimeType,
+                            int width, int height, Long parentDirectoryId, String placeholder) {
+}
@@ -0,0 +1,4 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record ImageReference(String imageKey, String name, int width, int height, boolean damaged, String placeholder, String url, String cursor) {
+}
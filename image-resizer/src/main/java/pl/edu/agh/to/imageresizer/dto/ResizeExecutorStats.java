@@ -0,0 +1,5 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record ResizeExecutorStats(int poolSize, int activeThreads, int queueDepth, int queueCapacity,
+                                  long completedTasks, long rejectedTasks) {
+}
@@ -0,0 +1,6 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+import java.util.List;
+
+public record SpriteSheet(String imageUrl, int width, int height, List<SpriteTile> tiles) {
+}
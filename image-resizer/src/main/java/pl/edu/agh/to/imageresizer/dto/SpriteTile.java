@@ -0,0 +1,4 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record SpriteTile(String imageKey, String name, int x, int y, int width, int height, boolean damaged) {
+}
@@ -0,0 +1,4 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record StreamComplete(String cursor, long count) {
+}
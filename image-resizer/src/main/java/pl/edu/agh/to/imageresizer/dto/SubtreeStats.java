@@ -0,0 +1,4 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record SubtreeStats(String directoryKey, long directoryCount, long imageCount) {
+}
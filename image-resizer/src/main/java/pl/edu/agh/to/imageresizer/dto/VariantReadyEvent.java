@@ -0,0 +1,5 @@
+package pl.edu.agh.to.imageresizer.dto;
+
+public record VariantReadyEvent(String imageKey, String name, String sessionKey, Long directoryId,
+                                String size, int width, int height, boolean damaged, String placeholder) {
+}
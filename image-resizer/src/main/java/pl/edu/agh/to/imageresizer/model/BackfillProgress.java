@@ -0,0 +1,20 @@
+package pl.edu.agh.to.imageresizer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "backfill_progress")
+public class BackfillProgress {
+    @Id
+    private String jobName;
+    private long lastImageId;
+    private LocalDateTime updatedAt;
+}
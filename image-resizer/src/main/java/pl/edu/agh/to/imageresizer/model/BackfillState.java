@@ -0,0 +1,8 @@
+package pl.edu.agh.to.imageresizer.model;
+
+public enum BackfillState {
+    IDLE,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
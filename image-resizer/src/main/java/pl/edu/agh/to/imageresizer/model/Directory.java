@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
 import org.springframework.data.relational.core.mapping.Table;
 
 @Data
@@ -18,6 +19,8 @@ public class Directory {
     private String directoryKey;
     private int subDirectoriesCount;
     private int imageCount;
+    @ReadOnlyProperty
+    private String path;
 
     public Directory(String name, Long parentDirectoryId, String directoryKey, int subDirectoriesCount, int imageCount) {
         this.name = name;
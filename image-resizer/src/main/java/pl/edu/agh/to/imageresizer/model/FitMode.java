@@ -0,0 +1,7 @@
+package pl.edu.agh.to.imageresizer.model;
+
+public enum FitMode {
+    FIT,
+    FILL,
+    STRETCH
+}
@@ -0,0 +1,24 @@
+package pl.edu.agh.to.imageresizer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "image_variants")
+public class ImageVariant {
+    @Id
+    private long variantId;
+    @Column("original_image")
+    private long originalImageId;
+    private int width;
+    private int height;
+    private String fitMode;
+    private byte[] data;
+    private String mimeType;
+}
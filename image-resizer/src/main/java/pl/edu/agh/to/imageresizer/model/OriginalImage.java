@@ -15,13 +15,17 @@ public class OriginalImage {
     private long imageId;
     private String name;
     private String base64;
+    private byte[] data;
+    private String mimeType;
+    private String contentHash;
     private String sessionKey;
     private String imageKey;
     private int width;
     private int height;
-    private long parentDirectoryId;
+    private Long parentDirectoryId;
+    private String placeholder;
 
-    public OriginalImage(String name, String base64, String sessionKey, String imageKey, int width, int height, long parentDirectory) {
+    public OriginalImage(String name, String base64, String sessionKey, String imageKey, int width, int height, Long parentDirectory) {
         this.name = name;
         this.base64 = base64;
         this.width = width;
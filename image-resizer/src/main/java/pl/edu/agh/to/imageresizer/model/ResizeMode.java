@@ -0,0 +1,6 @@
+package pl.edu.agh.to.imageresizer.model;
+
+public enum ResizeMode {
+    DIRECT,
+    CASCADE
+}
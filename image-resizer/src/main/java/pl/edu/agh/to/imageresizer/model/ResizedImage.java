@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 
@@ -20,9 +21,14 @@ public class ResizedImage {
     private String imageKey;
     private String name;
     private String base64;
+    private byte[] data;
+    private String mimeType;
     private String sessionKey;
     private int width;
     private int height;
+    private String contentHash;
+    @ReadOnlyProperty
+    private String placeholder;
 
     public ResizedImage(String imageKey, String name, String base64, String sessionKey, Integer width, Integer height) {
         this.imageKey = imageKey;
@@ -0,0 +1,28 @@
+package pl.edu.agh.to.imageresizer.model;
+
+import java.util.Arrays;
+
+/**
+ * Target box of an on-demand variant. Requested dimensions are rounded up to the nearest bucket
+ * so that close sizes share one stored variant.
+ */
+public record VariantSize(int width, int height, FitMode fitMode) {
+    private static final int[] BUCKETS = {16, 32, 48, 64, 96, 128, 160, 200, 256, 320, 400, 480, 512,
+            640, 800, 960, 1024, 1280, 1600, 1920, 2048};
+    public static final int MAX_DIMENSION = BUCKETS[BUCKETS.length - 1];
+
+    public static VariantSize bucketed(int width, int height, FitMode fitMode) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        if (width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new IllegalArgumentException("Width and height must not exceed " + MAX_DIMENSION);
+        }
+        return new VariantSize(bucket(width), bucket(height), fitMode);
+    }
+
+    private static int bucket(int dimension) {
+        int index = Arrays.binarySearch(BUCKETS, dimension);
+        return BUCKETS[index >= 0 ? index : -index - 1];
+    }
+}
@@ -0,0 +1,16 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import pl.edu.agh.to.imageresizer.model.BackfillProgress;
+import reactor.core.publisher.Mono;
+
+public interface BackfillProgressRepository extends ReactiveCrudRepository<BackfillProgress, String> {
+
+    @Modifying
+    @Query("INSERT INTO backfill_progress (job_name, last_image_id, updated_at) " +
+            "VALUES (:jobName, :lastImageId, now()) " +
+            "ON CONFLICT (job_name) DO UPDATE SET last_image_id = EXCLUDED.last_image_id, updated_at = EXCLUDED.updated_at")
+    Mono<Integer> saveProgress(String jobName, long lastImageId);
+}
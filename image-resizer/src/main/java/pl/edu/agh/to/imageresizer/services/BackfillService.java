@@ -0,0 +1,184 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import pl.edu.agh.to.imageresizer.dto.BackfillStatus;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import pl.edu.agh.to.imageresizer.model.BackfillProgress;
+import pl.edu.agh.to.imageresizer.model.BackfillState;
+import pl.edu.agh.to.imageresizer.model.ImageSize;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Creates resized variants that are missing for already stored originals.
+ * Originals are walked in {@code image_id} order and the last finished id is persisted after every page,
+ * so a restarted backfill continues where the previous one stopped.
+ */
+@Service
+public class BackfillService {
+    static final String JOB_NAME = "resized-images";
+    private static final Integer[] WIDTHS = Arrays.stream(ImageSize.values()).map(ImageSize::getWidth).toArray(Integer[]::new);
+    private static final Integer[] HEIGHTS = Arrays.stream(ImageSize.values()).map(ImageSize::getHeight).toArray(Integer[]::new);
+    private final Logger logger = LoggerFactory.getLogger(BackfillService.class);
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final BackfillProgressRepository backfillProgressRepository;
+    private final DirectoryRepository directoryRepository;
+    private final ImageService imageService;
+    private final ListingCache listingCache;
+    private final int concurrency;
+    private final int pageSize;
+    private final boolean runOnStartup;
+    private final AtomicReference<BackfillState> state = new AtomicReference<>(BackfillState.IDLE);
+    private final AtomicLong lastImageId = new AtomicLong();
+    private final AtomicLong processedImages = new AtomicLong();
+    private final AtomicLong createdVariants = new AtomicLong();
+    private final AtomicLong failedImages = new AtomicLong();
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    public BackfillService(ImageMetadataRepository imageMetadataRepository,
+                           BackfillProgressRepository backfillProgressRepository,
+                           DirectoryRepository directoryRepository,
+                           ImageService imageService,
+                           ListingCache listingCache,
+                           @Value("${image-resizer.backfill.concurrency:2}") int concurrency,
+                           @Value("${image-resizer.backfill.page-size:50}") int pageSize,
+                           @Value("${image-resizer.backfill.on-startup:true}") boolean runOnStartup) {
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.backfillProgressRepository = backfillProgressRepository;
+        this.directoryRepository = directoryRepository;
+        this.imageService = imageService;
+        this.listingCache = listingCache;
+        this.concurrency = Math.max(1, concurrency);
+        this.pageSize = Math.max(1, pageSize);
+        this.runOnStartup = runOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOnApplicationReady() {
+        if (runOnStartup && !imageService.isLazyResizing()) {
+            start();
+        }
+    }
+
+    public boolean start() {
+        BackfillState previous = state.get();
+        if (previous == BackfillState.RUNNING || !state.compareAndSet(previous, BackfillState.RUNNING)) {
+            return false;
+        }
+        processedImages.set(0);
+        createdVariants.set(0);
+        failedImages.set(0);
+        startedAt = Instant.now();
+        finishedAt = null;
+        run().subscribe(
+                unused -> {
+                },
+                error -> {
+                    logger.error("Backfill failed after image {}", lastImageId.get(), error);
+                    finish(BackfillState.FAILED);
+                },
+                () -> {
+                    logger.info("Backfill completed: {} images, {} variants created, {} failed",
+                            processedImages.get(), createdVariants.get(), failedImages.get());
+                    finish(BackfillState.COMPLETED);
+                });
+        return true;
+    }
+
+    Mono<Void> run() {
+        return backfillProgressRepository.findById(JOB_NAME)
+                .map(BackfillProgress::getLastImageId)
+                .defaultIfEmpty(0L)
+                .doOnNext(lastImageId::set)
+                .flatMapMany(afterImageId -> processPage(afterImageId).expand(this::processPage))
+                .then(Mono.defer(() -> backfillProgressRepository.saveProgress(JOB_NAME, 0L)))
+                .then();
+    }
+
+    private Mono<Long> processPage(long afterImageId) {
+        return imageMetadataRepository.findOriginalsMissingSizesAfter(afterImageId, WIDTHS, HEIGHTS, pageSize)
+                .flatMap(image -> imageService.resizeMissingSizes(image.imageId())
+                        .doOnNext(created -> {
+                            createdVariants.addAndGet(created);
+                            processedImages.incrementAndGet();
+                        })
+                        .onErrorResume(e -> {
+                            logger.warn("Backfill of image {} failed", image.imageId(), e);
+                            failedImages.incrementAndGet();
+                            return Mono.empty();
+                        })
+                        .thenReturn(image), concurrency)
+                .collectList()
+                .filter(page -> !page.isEmpty())
+                .flatMap(page -> {
+                    long pageLastImageId = page.stream().mapToLong(ImageMetadata::imageId).max().getAsLong();
+                    return backfillProgressRepository.saveProgress(JOB_NAME, pageLastImageId)
+                            .then(invalidateDirectoriesOf(page))
+                            .doOnSuccess(unused -> {
+                                lastImageId.set(pageLastImageId);
+                                logger.info("Backfill reached image {} ({} images, {} images/s)",
+                                        pageLastImageId, processedImages.get(), imagesPerSecond());
+                            })
+                            .thenReturn(pageLastImageId);
+                });
+    }
+
+    /**
+     * Drops the cached listings of the directories holding the page's images. Listings by image key are
+     * already dropped by {@link ImageService#resizeMissingSizes}.
+     */
+    private Mono<Void> invalidateDirectoriesOf(List<ImageMetadata> page) {
+        List<Long> directoryIds = page.stream()
+                .map(ImageMetadata::parentDirectoryId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (directoryIds.isEmpty()) {
+            return Mono.empty();
+        }
+        return directoryRepository.findAllById(directoryIds)
+                .doOnNext(directory -> listingCache.invalidateDirectory(directory.getDirectoryKey()))
+                .then();
+    }
+
+    private void finish(BackfillState finalState) {
+        finishedAt = Instant.now();
+        state.set(finalState);
+    }
+
+    private double imagesPerSecond() {
+        Instant start = startedAt;
+        if (start == null) {
+            return 0.0;
+        }
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(1, Duration.between(start, end).toMillis());
+        return processedImages.get() * 1000.0 / millis;
+    }
+
+    public BackfillStatus getStatus() {
+        return new BackfillStatus(
+                state.get(),
+                lastImageId.get(),
+                processedImages.get(),
+                createdVariants.get(),
+                failedImages.get(),
+                imagesPerSecond(),
+                startedAt,
+                finishedAt
+        );
+    }
+}
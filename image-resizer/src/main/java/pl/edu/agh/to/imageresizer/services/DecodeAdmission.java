@@ -0,0 +1,78 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pl.edu.agh.to.imageresizer.dto.DecodeAdmissionStats;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the pixel memory of decodes running at the same time. The cost of a decode is estimated from the
+ * image header, so oversized images are rejected and the rest wait for budget before any pixels are allocated.
+ * Decodes run on resize threads, so waiting for budget blocks a resize thread and not a request thread.
+ */
+@Component
+public class DecodeAdmission {
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int BYTES_PER_PERMIT = 1024;
+    private final long maxPixels;
+    private final int budgetPermits;
+    private final Semaphore permits;
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Autowired
+    public DecodeAdmission(@Value("${image-resizer.decode.max-pixels:50000000}") long maxPixels,
+                           @Value("${image-resizer.decode.memory-budget-bytes:536870912}") long memoryBudgetBytes) {
+        this.maxPixels = maxPixels;
+        this.budgetPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudgetBytes / BYTES_PER_PERMIT));
+        this.permits = new Semaphore(budgetPermits, true);
+    }
+
+    public <T> T admit(ImageHeader header, Callable<T> decode) throws Exception {
+        return admit(header, header.pixels(), decode);
+    }
+
+    /**
+     * Admits a decode of {@code header} that holds only {@code decodedPixels} pixels, for example a subsampled one.
+     * The pixel limit still applies to the source.
+     */
+    public <T> T admit(ImageHeader header, long decodedPixels, Callable<T> decode) throws Exception {
+        if (header.pixels() > maxPixels) {
+            rejected.incrementAndGet();
+            throw new IllegalArgumentException("Image is " + header.width() + "x" + header.height()
+                    + ", which exceeds the limit of " + maxPixels + " pixels");
+        }
+        int needed = permitsFor(decodedPixels);
+        if (!permits.tryAcquire(needed)) {
+            deferred.incrementAndGet();
+            permits.acquire(needed);
+        }
+        admitted.incrementAndGet();
+        try {
+            return decode.call();
+        } finally {
+            permits.release(needed);
+        }
+    }
+
+    public DecodeAdmissionStats getStats() {
+        return new DecodeAdmissionStats(
+                maxPixels,
+                (long) budgetPermits * BYTES_PER_PERMIT,
+                (long) permits.availablePermits() * BYTES_PER_PERMIT,
+                admitted.get(),
+                deferred.get(),
+                rejected.get()
+        );
+    }
+
+    private int permitsFor(long pixels) {
+        long bytes = pixels * BYTES_PER_PIXEL;
+        return (int) Math.max(1, Math.min(budgetPermits, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+    }
+}
@@ -0,0 +1,14 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Pixels of a decoded image. {@code width} and {@code height} are the dimensions of the source, which are larger
+ * than the pixels held when the image was decoded with subsampling.
+ */
+public record DecodedImage(BufferedImage image, String formatName, String mimeType, byte[] bytes, int width, int height) {
+
+    public boolean isSubsampled() {
+        return image.getWidth() < width;
+    }
+}
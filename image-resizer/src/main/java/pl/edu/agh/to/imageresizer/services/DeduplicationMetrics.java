@@ -0,0 +1,37 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.stereotype.Component;
+import pl.edu.agh.to.imageresizer.dto.DeduplicationStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class DeduplicationMetrics {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong variantsReused = new AtomicLong();
+
+    public void recordHit(long originalBytes, long reusedVariants) {
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(originalBytes);
+        variantsReused.addAndGet(reusedVariants);
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public DeduplicationStats getStats() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return new DeduplicationStats(
+                lookups,
+                hitCount,
+                lookups - hitCount,
+                lookups == 0 ? 0.0 : (double) hitCount / lookups,
+                bytesSaved.get(),
+                variantsReused.get()
+        );
+    }
+}
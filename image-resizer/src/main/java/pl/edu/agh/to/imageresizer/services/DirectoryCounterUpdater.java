@@ -0,0 +1,117 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects directory counter changes in memory and writes them as SQL deltas
+ * ({@code count = count + delta}) in one statement per flush interval.
+ * Deltas of a failed flush are put back, so no change is lost or applied twice. A running flush is never cancelled:
+ * on shutdown the timer stops, the flush in progress completes and one last flush writes what is left.
+ */
+@Component
+public class DirectoryCounterUpdater implements DisposableBean {
+    private static final Duration SHUTDOWN_FLUSH_TIMEOUT = Duration.ofSeconds(5);
+    private final Logger logger = LoggerFactory.getLogger(DirectoryCounterUpdater.class);
+    private final DirectoryRepository directoryRepository;
+    private final Duration flushInterval;
+    private final Map<Long, CounterDelta> pending = new ConcurrentHashMap<>();
+    private final Sinks.Empty<Void> stopping = Sinks.empty();
+    private Mono<Void> flushing;
+
+    public DirectoryCounterUpdater(DirectoryRepository directoryRepository,
+                                   @Value("${image-resizer.counters.flush-interval-ms:200}") long flushIntervalMillis) {
+        this.directoryRepository = directoryRepository;
+        this.flushInterval = Duration.ofMillis(Math.max(1, flushIntervalMillis));
+    }
+
+    @PostConstruct
+    public void startFlushing() {
+        flushing = Flux.interval(flushInterval)
+                .onBackpressureDrop()
+                .takeUntilOther(stopping.asMono())
+                .concatMap(tick -> flush()
+                        .onErrorResume(e -> {
+                            logger.warn("Flushing directory counters failed, retrying in {}", flushInterval, e);
+                            return Mono.empty();
+                        }))
+                .then()
+                .cache();
+        flushing.subscribe();
+    }
+
+    public void addImages(long directoryId, int images) {
+        add(directoryId, 0, images);
+    }
+
+    public void addSubDirectories(long directoryId, int subDirectories) {
+        add(directoryId, subDirectories, 0);
+    }
+
+    public void add(long directoryId, int subDirectories, int images) {
+        if (subDirectories != 0 || images != 0) {
+            pending.merge(directoryId, new CounterDelta(subDirectories, images), CounterDelta::plus);
+        }
+    }
+
+    public Mono<Void> flush() {
+        return Mono.defer(() -> {
+            Map<Long, CounterDelta> batch = new HashMap<>();
+            for (Long directoryId : pending.keySet()) {
+                CounterDelta delta = pending.remove(directoryId);
+                if (delta != null && !delta.isZero()) {
+                    batch.put(directoryId, delta);
+                }
+            }
+            if (batch.isEmpty()) {
+                return Mono.empty();
+            }
+            Long[] directoryIds = batch.keySet().toArray(Long[]::new);
+            Integer[] subDirectories = new Integer[directoryIds.length];
+            Integer[] images = new Integer[directoryIds.length];
+            for (int i = 0; i < directoryIds.length; i++) {
+                CounterDelta delta = batch.get(directoryIds[i]);
+                subDirectories[i] = delta.subDirectories();
+                images[i] = delta.images();
+            }
+            return directoryRepository.applyCounterDeltas(directoryIds, subDirectories, images)
+                    .doOnError(e -> batch.forEach((directoryId, delta) -> pending.merge(directoryId, delta, CounterDelta::plus)))
+                    .then();
+        });
+    }
+
+    @Override
+    public void destroy() {
+        stopping.tryEmitEmpty();
+        try {
+            if (flushing != null) {
+                flushing.block(SHUTDOWN_FLUSH_TIMEOUT);
+            }
+            flush().block(SHUTDOWN_FLUSH_TIMEOUT);
+        } catch (RuntimeException e) {
+            logger.warn("Could not flush {} pending directory counter changes on shutdown", pending.size(), e);
+        }
+    }
+
+    private record CounterDelta(int subDirectories, int images) {
+        CounterDelta plus(CounterDelta other) {
+            return new CounterDelta(subDirectories + other.subDirectories, images + other.images);
+        }
+
+        boolean isZero() {
+            return subDirectories == 0 && images == 0;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import pl.edu.agh.to.imageresizer.dto.DirectoryMetadata;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+
+import java.util.List;
+
+/**
+ * One page of a directory: the path from the root down to the directory itself, followed by a page of its
+ * subdirectories and a page of its images. The {@code more*} flags tell whether another page follows.
+ */
+public record DirectoryListing(List<DirectoryMetadata> path,
+                               List<DirectoryMetadata> directories, boolean moreDirectories,
+                               List<ImageMetadata> images, boolean moreImages) {
+}
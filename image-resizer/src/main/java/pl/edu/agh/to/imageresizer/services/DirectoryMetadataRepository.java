@@ -3,6 +3,7 @@ package pl.edu.agh.to.imageresizer.services;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import pl.edu.agh.to.imageresizer.dto.DirectoryMetadata;
+import pl.edu.agh.to.imageresizer.dto.SubtreeStats;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -34,11 +35,48 @@ public interface DirectoryMetadataRepository extends ReactiveCrudRepository<Dire
                     "where dp.directory_key=:parentDirectoryKey)"
     )
     Flux<DirectoryMetadata> findAllByParentDirectoryKey(String parentDirectoryKey);
+    @Query(
+            "SELECT * " +
+                    "from directories d " +
+                    "where d.parent_directory_id=(select dp.directory_id " +
+                    "from directories dp " +
+                    "where dp.directory_key=:parentDirectoryKey) " +
+                    "and d.directory_key > :afterDirectoryKey " +
+                    "order by d.directory_key " +
+                    "limit :limit"
+    )
+    Flux<DirectoryMetadata> findAllByParentDirectoryKeyAfter(String parentDirectoryKey, String afterDirectoryKey, int limit);
     @Query(
             "SELECT * " +
                     "from directories d " +
                     "where d.directory_key=:dirKey"
     )
     Mono<DirectoryMetadata> findByDirKey(String dirKey);
+    @Query(
+            "SELECT a.* " +
+                    "from directories d " +
+                    "join directories a " +
+                    "on a.directory_id = ANY (CAST(string_to_array(trim(both '/' from d.path), '/') AS bigint[])) " +
+                    "where d.directory_key=:dirKey " +
+                    "order by length(a.path)"
+    )
+    Flux<DirectoryMetadata> findPathToDirKey(String dirKey);
+    @Query(
+            "SELECT c.* " +
+                    "from directories d " +
+                    "join directories c " +
+                    "on c.path > d.path and c.path < d.path || '~' " +
+                    "where d.directory_key=:dirKey " +
+                    "order by c.path"
+    )
+    Flux<DirectoryMetadata> findDescendants(String dirKey);
+    @Query(
+            "SELECT d.directory_key, count(c.directory_id) - 1 AS directory_count, sum(c.image_count) AS image_count " +
+                    "from directories d " +
+                    "join directories c " +
+                    "on c.path >= d.path and c.path < d.path || '~' " +
+                    "where d.directory_key=:dirKey " +
+                    "group by d.directory_key"
+    )
+    Mono<SubtreeStats> findSubtreeStats(String dirKey);
 }
-
@@ -1,7 +1,10 @@
 package pl.edu.agh.to.imageresizer.services;
 
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import pl.edu.agh.to.imageresizer.model.Directory;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface DirectoryRepository extends ReactiveCrudRepository<Directory, Long> {
@@ -9,4 +12,23 @@ public interface DirectoryRepository extends ReactiveCrudRepository<Directory, L
 
     Mono<Void> deleteByDirectoryKey(String key);
     Mono<Void> deleteAllByParentDirectoryId(Long parentDirectoryId);
+
+    @Modifying
+    @Query("UPDATE directories d " +
+            "SET sub_directories_count = d.sub_directories_count + c.sub_directories, " +
+            "image_count = d.image_count + c.images " +
+            "FROM unnest(CAST(:directoryIds AS bigint[]), CAST(:subDirectories AS int[]), CAST(:images AS int[])) " +
+            "AS c(directory_id, sub_directories, images) " +
+            "WHERE d.directory_id = c.directory_id")
+    Mono<Integer> applyCounterDeltas(Long[] directoryIds, Integer[] subDirectories, Integer[] images);
+
+    @Query("SELECT * FROM directories " +
+            "WHERE directory_key IN (:dirKey, :parentDirKey) " +
+            "ORDER BY directory_id " +
+            "FOR UPDATE")
+    Flux<Directory> lockForMove(String dirKey, String parentDirKey);
+
+    @Modifying
+    @Query("UPDATE directories SET parent_directory_id = :parentDirectoryId WHERE directory_id = :directoryId")
+    Mono<Integer> moveDirectory(long directoryId, long parentDirectoryId);
 }
@@ -0,0 +1,249 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import pl.edu.agh.to.imageresizer.model.Directory;
+import pl.edu.agh.to.imageresizer.model.OriginalImage;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.relational.core.query.Criteria.where;
+import static org.springframework.data.relational.core.query.Query.query;
+
+/**
+ * Bulk reads and multi-row inserts used when a whole directory tree is ingested,
+ * so that a batch of rows costs one statement instead of one per row.
+ */
+@Repository
+public class ImageBatchRepository {
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+    private final DatabaseClient databaseClient;
+    private final R2dbcEntityTemplate entityTemplate;
+    private final TransactionalOperator transactionalOperator;
+    private final int batchSize;
+
+    public ImageBatchRepository(DatabaseClient databaseClient, R2dbcEntityTemplate entityTemplate,
+                                TransactionalOperator transactionalOperator,
+                                @Value("${image-resizer.ingest.batch-size:32}") int batchSize) {
+        this.databaseClient = databaseClient;
+        this.entityTemplate = entityTemplate;
+        this.transactionalOperator = transactionalOperator;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public Mono<Map<String, ImageMetadata>> findPayloadHoldersByContentHash(Collection<String> contentHashes) {
+        if (contentHashes.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return databaseClient.sql("SELECT DISTINCT ON (o.content_hash) o.content_hash, o.image_id, o.image_key, o.name, " +
+                        "o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                        "FROM original_images o " +
+                        "WHERE o.content_hash = ANY(:contentHashes) " +
+                        "AND (o.data IS NOT NULL OR o.base64 IS NOT NULL) " +
+                        "ORDER BY o.content_hash, o.image_id")
+                .bind("contentHashes", contentHashes.toArray(String[]::new))
+                .map((row, metadata) -> Map.entry(
+                        row.get("content_hash", String.class),
+                        new ImageMetadata(
+                                row.get("image_id", Long.class),
+                                row.get("image_key", String.class),
+                                row.get("name", String.class),
+                                row.get("session_key", String.class),
+                                row.get("mime_type", String.class),
+                                row.get("width", Integer.class),
+                                row.get("height", Integer.class),
+                                row.get("parent_directory_id", Long.class),
+                                row.get("placeholder", String.class))))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    public Mono<Map<Long, List<ResizedImage>>> findResizedImagesByOriginalImageIds(Collection<Long> originalImageIds) {
+        if (originalImageIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return entityTemplate.select(ResizedImage.class)
+                .matching(query(where("original_image").in(originalImageIds).and("width").greaterThan(0)))
+                .all()
+                .collectMultimap(ResizedImage::getOriginalImageId)
+                .map(resizedImages -> resizedImages.entrySet().stream()
+                        .collect(Collectors.toMap(Map.Entry::getKey, entry -> List.copyOf(entry.getValue()))));
+    }
+
+    /**
+     * Inserts every directory with an id taken from the table's sequence up front, so each row is matched to its
+     * input without relying on the order of RETURNING rows. The ids are returned in the order of the input.
+     */
+    public Mono<List<Long>> insertDirectories(List<Directory> directories) {
+        return allocateIds("directories", "directory_id", directories.size())
+                .flatMap(ids -> {
+                    for (int i = 0; i < directories.size(); i++) {
+                        directories.get(i).setDirectoryId(ids.get(i));
+                    }
+                    return Flux.fromIterable(directories)
+                            .buffer(MAX_ROWS_PER_STATEMENT)
+                            .concatMap(this::insertDirectoryRows)
+                            .then(Mono.just(ids));
+                })
+                .as(transactionalOperator::transactional);
+    }
+
+    private Mono<Void> insertDirectoryRows(List<Directory> directories) {
+        StringBuilder sql = new StringBuilder("INSERT INTO directories " +
+                "(directory_id, name, parent_directory_id, directory_key, sub_directories_count, image_count) VALUES ");
+        for (int i = 0; i < directories.size(); i++) {
+            sql.append(i == 0 ? "" : ", ")
+                    .append("(:id").append(i)
+                    .append(", :name").append(i)
+                    .append(", :parent").append(i)
+                    .append(", :key").append(i)
+                    .append(", :subDirectories").append(i)
+                    .append(", :images").append(i).append(")");
+        }
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < directories.size(); i++) {
+            Directory directory = directories.get(i);
+            spec = spec.bind("id" + i, directory.getDirectoryId());
+            spec = bind(spec, "name" + i, directory.getName(), String.class);
+            spec = bind(spec, "parent" + i, directory.getParentDirectoryId(), Long.class);
+            spec = bind(spec, "key" + i, directory.getDirectoryKey(), String.class);
+            spec = spec.bind("subDirectories" + i, directory.getSubDirectoriesCount());
+            spec = spec.bind("images" + i, directory.getImageCount());
+        }
+        return spec.then();
+    }
+
+    /**
+     * Inserts the originals of the batch with one statement and all of their resized images with a second one,
+     * both in a single transaction. Original ids are taken from the sequence up front and set on the rows
+     * before inserting, so every image of the batch is stored and matched to its id by position.
+     */
+    public Mono<List<PreparedImage>> insertImages(List<PreparedImage> images) {
+        if (images.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        return allocateIds("original_images", "image_id", images.size())
+                .flatMap(imageIds -> {
+                    List<ResizedImage> resizedImages = new ArrayList<>();
+                    for (int i = 0; i < images.size(); i++) {
+                        PreparedImage image = images.get(i);
+                        long imageId = imageIds.get(i);
+                        image.originalImage().setImageId(imageId);
+                        image.resizedImages().forEach(resizedImage -> resizedImage.setOriginalImageId(imageId));
+                        resizedImages.addAll(image.resizedImages());
+                    }
+                    return insertOriginalRows(images.stream().map(PreparedImage::originalImage).toList())
+                            .then(insertResizedRows(resizedImages));
+                })
+                .thenReturn(images)
+                .as(transactionalOperator::transactional);
+    }
+
+    private Mono<List<Long>> allocateIds(String table, String idColumn, int count) {
+        if (count == 0) {
+            return Mono.just(List.of());
+        }
+        return databaseClient.sql("SELECT nextval(pg_get_serial_sequence(:table, :idColumn)) AS id FROM generate_series(1, :count)")
+                .bind("table", table)
+                .bind("idColumn", idColumn)
+                .bind("count", count)
+                .map((row, metadata) -> row.get("id", Long.class))
+                .all()
+                .collectList();
+    }
+
+    private Mono<Void> insertOriginalRows(List<OriginalImage> originalImages) {
+        StringBuilder sql = new StringBuilder("INSERT INTO original_images " +
+                "(image_id, name, base64, data, mime_type, content_hash, session_key, image_key, width, height, parent_directory_id, placeholder) VALUES ");
+        for (int i = 0; i < originalImages.size(); i++) {
+            sql.append(i == 0 ? "" : ", ")
+                    .append("(:id").append(i)
+                    .append(", :name").append(i)
+                    .append(", :base64").append(i)
+                    .append(", :data").append(i)
+                    .append(", :mimeType").append(i)
+                    .append(", :contentHash").append(i)
+                    .append(", :sessionKey").append(i)
+                    .append(", :imageKey").append(i)
+                    .append(", :width").append(i)
+                    .append(", :height").append(i)
+                    .append(", :parent").append(i)
+                    .append(", :placeholder").append(i).append(")");
+        }
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < originalImages.size(); i++) {
+            OriginalImage image = originalImages.get(i);
+            spec = spec.bind("id" + i, image.getImageId());
+            spec = bind(spec, "name" + i, image.getName(), String.class);
+            spec = bind(spec, "base64" + i, image.getBase64(), String.class);
+            spec = bind(spec, "data" + i, image.getData(), byte[].class);
+            spec = bind(spec, "mimeType" + i, image.getMimeType(), String.class);
+            spec = bind(spec, "contentHash" + i, image.getContentHash(), String.class);
+            spec = bind(spec, "sessionKey" + i, image.getSessionKey(), String.class);
+            spec = bind(spec, "imageKey" + i, image.getImageKey(), String.class);
+            spec = spec.bind("width" + i, image.getWidth());
+            spec = spec.bind("height" + i, image.getHeight());
+            spec = bind(spec, "parent" + i, image.getParentDirectoryId(), Long.class);
+            spec = bind(spec, "placeholder" + i, image.getPlaceholder(), String.class);
+        }
+        return spec.then();
+    }
+
+    private Mono<Void> insertResizedRows(List<ResizedImage> resizedImages) {
+        if (resizedImages.isEmpty()) {
+            return Mono.empty();
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO resized_images " +
+                "(original_image, image_key, name, base64, data, mime_type, session_key, width, height, content_hash) VALUES ");
+        for (int i = 0; i < resizedImages.size(); i++) {
+            sql.append(i == 0 ? "" : ", ")
+                    .append("(:original").append(i)
+                    .append(", :imageKey").append(i)
+                    .append(", :name").append(i)
+                    .append(", :base64").append(i)
+                    .append(", :data").append(i)
+                    .append(", :mimeType").append(i)
+                    .append(", :sessionKey").append(i)
+                    .append(", :width").append(i)
+                    .append(", :height").append(i)
+                    .append(", :contentHash").append(i).append(")");
+        }
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < resizedImages.size(); i++) {
+            ResizedImage image = resizedImages.get(i);
+            spec = spec.bind("original" + i, image.getOriginalImageId());
+            spec = bind(spec, "imageKey" + i, image.getImageKey(), String.class);
+            spec = bind(spec, "name" + i, image.getName(), String.class);
+            spec = bind(spec, "base64" + i, image.getBase64(), String.class);
+            spec = bind(spec, "data" + i, image.getData(), byte[].class);
+            spec = bind(spec, "mimeType" + i, image.getMimeType(), String.class);
+            spec = bind(spec, "sessionKey" + i, image.getSessionKey(), String.class);
+            spec = spec.bind("width" + i, image.getWidth());
+            spec = spec.bind("height" + i, image.getHeight());
+            spec = bind(spec, "contentHash" + i, image.getContentHash(), String.class);
+        }
+        return spec.then();
+    }
+
+    private <T> DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec, String name, T value, Class<T> type) {
+        return value != null ? spec.bind(name, value) : spec.bindNull(name, type);
+    }
+}
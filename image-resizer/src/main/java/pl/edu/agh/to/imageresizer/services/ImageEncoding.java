@@ -0,0 +1,104 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import pl.edu.agh.to.imageresizer.model.OriginalImage;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+public final class ImageEncoding {
+    private static final String DATA_URL_PREFIX = "data:";
+    private static final String BASE64_MARKER = ";base64,";
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private ImageEncoding() {
+    }
+
+    public static String mimeType(String dataUrl) {
+        return dataUrl.split(";")[0].substring(DATA_URL_PREFIX.length());
+    }
+
+    public static String formatName(String mimeType) {
+        return mimeType.split("/")[1];
+    }
+
+    public static byte[] decodeDataUrl(String dataUrl) {
+        return Base64.getDecoder().decode(dataUrl.split(",")[1]);
+    }
+
+    public static String toDataUrl(String mimeType, byte[] data) {
+        return DATA_URL_PREFIX + mimeType + BASE64_MARKER + Base64.getEncoder().encodeToString(data);
+    }
+
+    public static String originalBase64(OriginalImage originalImage) {
+        if (originalImage.getBase64() != null || originalImage.getData() == null) {
+            return originalImage.getBase64();
+        }
+        return toDataUrl(originalImage.getMimeType(), originalImage.getData());
+    }
+
+    public static byte[] originalBytes(OriginalImage originalImage) {
+        if (originalImage.getData() != null) {
+            return originalImage.getData();
+        }
+        return decodeDataUrl(originalImage.getBase64());
+    }
+
+    public static String originalMimeType(OriginalImage originalImage) {
+        if (originalImage.getMimeType() != null) {
+            return originalImage.getMimeType();
+        }
+        return mimeType(originalImage.getBase64());
+    }
+
+    public static byte[] resizedBytes(ResizedImage resizedImage) {
+        if (resizedImage.getData() != null) {
+            return resizedImage.getData();
+        }
+        return Base64.getDecoder().decode(resizedImage.getBase64());
+    }
+
+    public static String resizedMimeType(ResizedImage resizedImage, byte[] data) {
+        if (resizedImage.getMimeType() != null) {
+            return resizedImage.getMimeType();
+        }
+        return guessMimeType(data);
+    }
+
+    public static String guessMimeType(byte[] data) {
+        try {
+            String mimeType = URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(data));
+            return mimeType != null ? mimeType : DEFAULT_MIME_TYPE;
+        } catch (IOException e) {
+            return DEFAULT_MIME_TYPE;
+        }
+    }
+
+    public static String contentHash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static String etag(byte[] data) {
+        return etag(contentHash(data));
+    }
+
+    public static String etag(String contentHash) {
+        return "\"" + contentHash + "\"";
+    }
+
+    public static String resizedBase64(ResizedImage resizedImage) {
+        if (resizedImage.getBase64() != null || resizedImage.getData() == null) {
+            return resizedImage.getBase64();
+        }
+        return Base64.getEncoder().encodeToString(resizedImage.getData());
+    }
+}
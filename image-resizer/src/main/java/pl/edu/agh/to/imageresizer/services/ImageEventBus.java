@@ -0,0 +1,142 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import pl.edu.agh.to.imageresizer.dto.VariantReadyEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * Fans out {@link VariantReadyEvent}s from the resize pipeline to live subscribers. With
+ * {@code image-resizer.events.listen-notify} enabled, events travel through Postgres NOTIFY on the
+ * {@value #CHANNEL} channel, so every instance listening on it sees variants resized by the others.
+ */
+@Component
+public class ImageEventBus {
+    private static final Logger logger = LoggerFactory.getLogger(ImageEventBus.class);
+    static final String CHANNEL = "image_events";
+    private static final int MAX_LISTEN_RETRIES = 10;
+    private final Sinks.Many<VariantReadyEvent> sink = Sinks.many().multicast().directBestEffort();
+    private final DatabaseClient databaseClient;
+    private final ConnectionFactory connectionFactory;
+    private final ObjectMapper objectMapper;
+    private volatile boolean listenNotify;
+    private Disposable listener;
+
+    @Autowired
+    public ImageEventBus(DatabaseClient databaseClient, ConnectionFactory connectionFactory, ObjectMapper objectMapper,
+                         @Value("${image-resizer.events.listen-notify:false}") boolean listenNotify) {
+        this.databaseClient = databaseClient;
+        this.connectionFactory = connectionFactory;
+        this.objectMapper = objectMapper;
+        this.listenNotify = listenNotify;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (listenNotify) {
+            listener = listen().subscribe(this::emitLocally, this::stopListening);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (listener != null) {
+            listener.dispose();
+        }
+    }
+
+    public void publish(VariantReadyEvent event) {
+        if (!listenNotify) {
+            emitLocally(event);
+            return;
+        }
+        databaseClient.sql("SELECT pg_notify(:channel, :payload)")
+                .bind("channel", CHANNEL)
+                .bind("payload", toJson(event))
+                .then()
+                .onErrorResume(e -> {
+                    logger.warn("Could not notify {}, delivering event locally", CHANNEL, e);
+                    emitLocally(event);
+                    return Mono.empty();
+                })
+                .subscribe();
+    }
+
+    public Flux<VariantReadyEvent> events() {
+        return sink.asFlux();
+    }
+
+    private void emitLocally(VariantReadyEvent event) {
+        sink.emitNext(event, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+    }
+
+    private Flux<VariantReadyEvent> listen() {
+        return Flux.usingWhen(Mono.<Connection>from(connectionFactory.create()),
+                        connection -> {
+                            PostgresqlConnection postgresConnection = unwrap(connection);
+                            return postgresConnection.createStatement("LISTEN " + CHANNEL)
+                                    .execute()
+                                    .flatMap(PostgresqlResult::getRowsUpdated)
+                                    .thenMany(postgresConnection.getNotifications());
+                        },
+                        Connection::close)
+                .mapNotNull(notification -> fromJson(notification.getParameter()))
+                .doOnError(e -> logger.warn("Lost {} listener connection, reconnecting", CHANNEL, e))
+                .retryWhen(Retry.backoff(MAX_LISTEN_RETRIES, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .transientErrors(true)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    private void stopListening(Throwable e) {
+        logger.error("Gave up on {} listener after {} reconnects, delivering events locally", CHANNEL, MAX_LISTEN_RETRIES, e);
+        listenNotify = false;
+    }
+
+    private static PostgresqlConnection unwrap(Connection connection) {
+        Object target = connection;
+        while (!(target instanceof PostgresqlConnection) && target instanceof Wrapped<?> wrapped) {
+            target = wrapped.unwrap();
+        }
+        if (target instanceof PostgresqlConnection postgresConnection) {
+            return postgresConnection;
+        }
+        throw new IllegalStateException("LISTEN/NOTIFY needs a Postgres R2DBC connection, got " + connection.getClass().getName());
+    }
+
+    private String toJson(VariantReadyEvent event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private VariantReadyEvent fromJson(String payload) {
+        try {
+            return objectMapper.readValue(payload, VariantReadyEvent.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Ignoring malformed {} payload: {}", CHANNEL, payload);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package pl.edu.agh.to.imageresizer.services;
+
+public record ImageHeader(int width, int height, String formatName) {
+
+    public long pixels() {
+        return (long) width * height;
+    }
+}
@@ -0,0 +1,173 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface ImageMetadataRepository extends ReactiveCrudRepository<ImageMetadata, Long> {
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "WHERE o.image_key=:imageKey"
+    )
+    Mono<ImageMetadata> findOriginalByImageKey(String imageKey);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "WHERE o.content_hash=:contentHash " +
+                    "AND (o.data IS NOT NULL OR o.base64 IS NOT NULL) " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT 1"
+    )
+    Mono<ImageMetadata> findOriginalByContentHash(String contentHash);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "WHERE o.image_id > :afterImageId " +
+                    "AND o.width > 0 " +
+                    "AND NOT EXISTS (SELECT 1 FROM resized_images e WHERE e.original_image=o.image_id AND e.width=0) " +
+                    "AND EXISTS (SELECT 1 FROM unnest(CAST(:widths AS int[]), CAST(:heights AS int[])) AS s(width, height) " +
+                    "    WHERE NOT EXISTS (SELECT 1 FROM resized_images r " +
+                    "        WHERE r.original_image=o.image_id AND r.width=s.width AND r.height=s.height)) " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findOriginalsMissingSizesAfter(long afterImageId, Integer[] widths, Integer[] heights, int limit);
+
+    @Query(
+            "SELECT r.image_id, r.image_key, r.name, r.session_key, r.mime_type, r.width, r.height, o.parent_directory_id, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.original_image=:originalImageId"
+    )
+    Flux<ImageMetadata> findResizedByOriginalImageId(long originalImageId);
+
+    @Query(
+            "SELECT r.image_id, r.image_key, r.name, r.session_key, r.mime_type, r.width, r.height, o.parent_directory_id, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.image_key=:imageKey"
+    )
+    Flux<ImageMetadata> findResizedByImageKey(String imageKey);
+
+    @Query(
+            "SELECT r.image_id, r.image_key, r.name, r.session_key, r.mime_type, r.width, r.height, o.parent_directory_id, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "JOIN directories d ON d.directory_id=o.parent_directory_id " +
+                    "WHERE d.directory_key=:key " +
+                    "AND r.height=:height AND r.width=:width " +
+                    "LIMIT :limit OFFSET :offset"
+    )
+    Flux<ImageMetadata> findResizedByDir(String key, int width, int height, int limit, long offset);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT :limit OFFSET :offset"
+    )
+    Flux<ImageMetadata> findOriginals(int limit, long offset);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "WHERE o.image_id > :afterImageId " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findOriginalsAfter(long afterImageId, int limit);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "WHERE o.session_key=:sessionKey " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT :limit OFFSET :offset"
+    )
+    Flux<ImageMetadata> findOriginalsBySessionKey(String sessionKey, int limit, long offset);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "WHERE o.session_key=:sessionKey " +
+                    "AND o.image_id > :afterImageId " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findOriginalsBySessionKeyAfter(String sessionKey, long afterImageId, int limit);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "JOIN directories d ON d.directory_id=o.parent_directory_id " +
+                    "WHERE d.directory_key=:key " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT :limit OFFSET :offset"
+    )
+    Flux<ImageMetadata> findOriginalsByDir(String key, int limit, long offset);
+
+    @Query(
+            "SELECT o.image_id, o.image_key, o.name, o.session_key, o.mime_type, o.width, o.height, o.parent_directory_id, o.placeholder " +
+                    "FROM original_images o " +
+                    "JOIN directories d ON d.directory_id=o.parent_directory_id " +
+                    "WHERE d.directory_key=:key " +
+                    "AND o.image_id > :afterImageId " +
+                    "ORDER BY o.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findOriginalsByDirAfter(String key, long afterImageId, int limit);
+
+    @Query(
+            "SELECT r.image_id, r.image_key, r.name, r.session_key, r.mime_type, r.width, r.height, o.parent_directory_id, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findResizedAfter(int width, int height, long afterImageId, int limit);
+
+    @Query(
+            "SELECT r.image_id, r.image_key, r.name, r.session_key, r.mime_type, r.width, r.height, o.parent_directory_id, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.session_key=:sessionKey " +
+                    "AND ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findResizedBySessionKeyAfter(String sessionKey, int width, int height, long afterImageId, int limit);
+
+    @Query(
+            "SELECT r.image_id, r.image_key, r.name, r.session_key, r.mime_type, r.width, r.height, o.parent_directory_id, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.image_key=:imageKey " +
+                    "AND ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findResizedByImageKeyAfter(String imageKey, int width, int height, long afterImageId, int limit);
+
+    @Query(
+            "SELECT r.image_id, r.image_key, r.name, r.session_key, r.mime_type, r.width, r.height, o.parent_directory_id, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "JOIN directories d ON d.directory_id=o.parent_directory_id " +
+                    "WHERE d.directory_key=:key " +
+                    "AND ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ImageMetadata> findResizedByDirAfter(String key, int width, int height, long afterImageId, int limit);
+}
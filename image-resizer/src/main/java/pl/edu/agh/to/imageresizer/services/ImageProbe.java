@@ -0,0 +1,60 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+public final class ImageProbe {
+
+    private ImageProbe() {
+    }
+
+    /**
+     * Reads width, height and format from the image header without decoding any pixels.
+     */
+    public static ImageHeader readHeader(byte[] imageBytes) throws IOException {
+        return withReader(imageBytes, reader -> new ImageHeader(reader.getWidth(0), reader.getHeight(0), reader.getFormatName()));
+    }
+
+    public static BufferedImage read(byte[] imageBytes) throws IOException {
+        return read(imageBytes, 1);
+    }
+
+    /**
+     * Decodes only every {@code subsampling}-th pixel of every {@code subsampling}-th row.
+     */
+    public static BufferedImage read(byte[] imageBytes, int subsampling) throws IOException {
+        return withReader(imageBytes, reader -> {
+            ImageReadParam readParam = reader.getDefaultReadParam();
+            readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, readParam);
+        });
+    }
+
+    static <T> T withReader(byte[] imageBytes, ReaderAction<T> action) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Invalid image data");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return action.apply(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface ReaderAction<T> {
+        T apply(ImageReader reader) throws IOException;
+    }
+}
@@ -2,42 +2,53 @@ package pl.edu.agh.to.imageresizer.services;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import pl.edu.agh.to.imageresizer.dto.ImageDto;
 import pl.edu.agh.to.imageresizer.model.ImageSize;
+import pl.edu.agh.to.imageresizer.model.ResizeMode;
 import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.model.VariantSize;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 @Service
 public class ImageResizer {
     private static final Logger logger = LoggerFactory.getLogger(ImageResizer.class);
+    private static final ImageSize LARGEST_SIZE = Arrays.stream(ImageSize.values())
+            .max(Comparator.comparingInt(imageSize -> imageSize.getWidth() * imageSize.getHeight()))
+            .orElseThrow();
+    private static final int SUBSAMPLING_HEADROOM = 2;
+    private final ResizeMode resizeMode;
+    private final DecodeAdmission decodeAdmission;
+
+    @Autowired
+    public ImageResizer(@Value("${image-resizer.resize-mode:DIRECT}") ResizeMode resizeMode, DecodeAdmission decodeAdmission) {
+        this.resizeMode = resizeMode;
+        this.decodeAdmission = decodeAdmission;
+        logger.info("Resize mode: {}", resizeMode);
+    }
 
     public Flux<ResizedImage> resize(ImageDto imageDto, String sessionKey) {
         return resize(imageDto, sessionKey, Flux.just(ImageSize.values()));
     }
 
     public Flux<ResizedImage> resize(ImageDto imageDto, String sessionKey, Flux<ImageSize> size) {
-        return size
-                .map(imageSize -> {
-                    try {
-                        return new ResizedImage(
-                                imageDto.imageKey(),
-                                imageDto.name(),
-                                getResizedBase64(imageDto.base64(), imageSize.getWidth(), imageSize.getHeight()),
-                                sessionKey,
-                                imageSize.getWidth(),
-                                imageSize.getHeight()
-                        );
-                    } catch (IOException e) {
-                        throw new RuntimeException("Failed to resize image: " + e.getMessage(), e);
-                    }
-                })
+        return decode(imageDto.base64())
+                .flatMapMany(decodedImage -> resize(decodedImage, imageDto, sessionKey, size))
                 .onErrorResume(e -> {
                     logger.error(e.getMessage());
                     return Flux.just(new ResizedImage(
@@ -51,30 +62,151 @@ public class ImageResizer {
                 });
     }
 
-    private BufferedImage getOriginalImage(String base64Data) throws IOException {
-        byte[] imageBytes = java.util.Base64.getDecoder().decode(truncateBase64Prefix(base64Data));
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(imageBytes);
-        return ImageIO.read(inputStream);
+    public Flux<ResizedImage> resize(DecodedImage decodedImage, ImageDto imageDto, String sessionKey, Flux<ImageSize> size) {
+        if (resizeMode == ResizeMode.CASCADE) {
+            return size.collectList()
+                    .flatMapIterable(sizes -> resizeCascaded(decodedImage, imageDto, sessionKey, sizes));
+        }
+        return size
+                .map(imageSize -> toResizedImage(imageDto, sessionKey, imageSize,
+                        decodedImage.isSubsampled()
+                                ? scaleSmooth(decodedImage.image(), imageSize.getWidth(), imageSize.getHeight())
+                                : scaleDirect(decodedImage.image(), imageSize.getWidth(), imageSize.getHeight()),
+                        decodedImage));
+    }
+
+    private List<ResizedImage> resizeCascaded(DecodedImage decodedImage, ImageDto imageDto, String sessionKey, List<ImageSize> sizes) {
+        Map<ImageSize, ResizedImage> resizedImages = new EnumMap<>(ImageSize.class);
+        BufferedImage source = decodedImage.image();
+        List<ImageSize> largestFirst = sizes.stream()
+                .distinct()
+                .sorted(Comparator.comparingInt((ImageSize imageSize) -> imageSize.getWidth() * imageSize.getHeight()).reversed())
+                .toList();
+        for (ImageSize imageSize : largestFirst) {
+            BufferedImage scaled = scaleSmooth(source, imageSize.getWidth(), imageSize.getHeight());
+            resizedImages.put(imageSize, toResizedImage(imageDto, sessionKey, imageSize, scaled, decodedImage));
+            if (imageSize.getWidth() <= decodedImage.image().getWidth() && imageSize.getHeight() <= decodedImage.image().getHeight()) {
+                source = scaled;
+            }
+        }
+        return sizes.stream().map(resizedImages::get).toList();
+    }
+
+    private ResizedImage toResizedImage(ImageDto imageDto, String sessionKey, ImageSize imageSize, BufferedImage resizedImage, DecodedImage decodedImage) {
+        try {
+            byte[] resizedImageBytes = encode(resizedImage, decodedImage.formatName());
+            ResizedImage result = new ResizedImage(
+                    imageDto.imageKey(),
+                    imageDto.name(),
+                    null,
+                    sessionKey,
+                    imageSize.getWidth(),
+                    imageSize.getHeight()
+            );
+            result.setData(resizedImageBytes);
+            result.setMimeType(decodedImage.mimeType());
+            result.setContentHash(ImageEncoding.contentHash(resizedImageBytes));
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to resize image: " + e.getMessage(), e);
+        }
+    }
+
+    public Mono<byte[]> resize(DecodedImage decodedImage, VariantSize variantSize) {
+        return Mono.fromCallable(() -> encode(scaleToVariant(decodedImage.image(), variantSize), decodedImage.formatName()));
+    }
+
+    private BufferedImage scaleToVariant(BufferedImage source, VariantSize variantSize) {
+        int width = variantSize.width();
+        int height = variantSize.height();
+        double widthRatio = (double) width / source.getWidth();
+        double heightRatio = (double) height / source.getHeight();
+        return switch (variantSize.fitMode()) {
+            case STRETCH -> scaleSmooth(source, width, height);
+            case FIT -> {
+                double scale = Math.min(1.0, Math.min(widthRatio, heightRatio));
+                yield scaleSmooth(source, Math.max(1, (int) Math.round(source.getWidth() * scale)),
+                        Math.max(1, (int) Math.round(source.getHeight() * scale)));
+            }
+            case FILL -> {
+                double scale = Math.max(widthRatio, heightRatio);
+                BufferedImage scaled = scaleSmooth(source, Math.max(width, (int) Math.ceil(source.getWidth() * scale)),
+                        Math.max(height, (int) Math.ceil(source.getHeight() * scale)));
+                yield scaled.getSubimage((scaled.getWidth() - width) / 2, (scaled.getHeight() - height) / 2, width, height);
+            }
+        };
+    }
+
+    public Mono<DecodedImage> decode(String base64Data) {
+        return Mono.fromCallable(() -> decodeImage(ImageEncoding.decodeDataUrl(base64Data), ImageEncoding.mimeType(base64Data),
+                LARGEST_SIZE.getWidth(), LARGEST_SIZE.getHeight()));
     }
 
-    private String getResizedBase64(String base64Data, int width, int height) throws IOException {
-        BufferedImage originalImage = getOriginalImage(base64Data);
+    /**
+     * Decodes at a resolution that is enough for every {@link ImageSize}.
+     */
+    public Mono<DecodedImage> decode(byte[] imageBytes, String mimeType) {
+        return decode(imageBytes, mimeType, LARGEST_SIZE.getWidth(), LARGEST_SIZE.getHeight());
+    }
+
+    /**
+     * Decodes with source subsampling when the source is at least twice as large as the target in both dimensions,
+     * so large photos are never held at full resolution. The step is half the factor the target allows, which leaves
+     * the smooth final scale enough pixels to average fine detail that a single subsampling step would alias.
+     */
+    public Mono<DecodedImage> decode(byte[] imageBytes, String mimeType, int targetWidth, int targetHeight) {
+        return Mono.fromCallable(() -> decodeImage(imageBytes, mimeType, targetWidth, targetHeight));
+    }
+
+    private DecodedImage decodeImage(byte[] imageBytes, String mimeType, int targetWidth, int targetHeight) throws Exception {
+        ImageHeader header = ImageProbe.readHeader(imageBytes);
+        int step = Math.max(1, subsamplingFor(header, targetWidth, targetHeight) / 2);
+        long decodedPixels = (long) ceilDiv(header.width(), step) * ceilDiv(header.height(), step);
+        BufferedImage image = decodeAdmission.admit(header, decodedPixels, () -> ImageProbe.read(imageBytes, step));
+        return new DecodedImage(image, ImageEncoding.formatName(mimeType), mimeType, imageBytes, header.width(), header.height());
+    }
+
+    static int subsamplingFor(ImageHeader header, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(header.width() / (SUBSAMPLING_HEADROOM * targetWidth),
+                header.height() / (SUBSAMPLING_HEADROOM * targetHeight)));
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private BufferedImage scaleDirect(BufferedImage originalImage, int width, int height) {
         BufferedImage resizedImage = new BufferedImage(width, height, originalImage.getType());
         resizedImage.getGraphics().drawImage(originalImage, 0, 0, width, height, null);
-        System.out.println(width + " " + height);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ImageIO.write(resizedImage, getFormatName(base64Data), outputStream);
-        byte[] resizedImageBytes = outputStream.toByteArray();
-        return java.util.Base64.getEncoder().encodeToString(resizedImageBytes);
-
+        return resizedImage;
     }
 
-    private String getFormatName(String base64Data) {
-        return base64Data.split(";")[0].split("/")[1];
+    private BufferedImage scaleSmooth(BufferedImage source, int width, int height) {
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = currentWidth > width ? Math.max(width, currentWidth / 2) : width;
+            currentHeight = currentHeight > height ? Math.max(height, currentHeight / 2) : height;
+            BufferedImage step = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+            current = step;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
     }
 
-    private String truncateBase64Prefix(String base64Data) {
-        return base64Data.split(",")[1];
+    private byte[] encode(BufferedImage resizedImage, String formatName) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(resizedImage, formatName, outputStream);
+        return outputStream.toByteArray();
     }
 
 }
@@ -1,51 +1,91 @@
 package pl.edu.agh.to.imageresizer.services;
 
+import io.r2dbc.spi.R2dbcException;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import pl.edu.agh.to.imageresizer.controllers.ImageController;
 import pl.edu.agh.to.imageresizer.dto.DirectoryDto;
 import pl.edu.agh.to.imageresizer.dto.DirectoryMetadata;
+import pl.edu.agh.to.imageresizer.dto.ImageContent;
 import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import pl.edu.agh.to.imageresizer.dto.SubtreeStats;
+import pl.edu.agh.to.imageresizer.dto.VariantReadyEvent;
 import pl.edu.agh.to.imageresizer.model.Directory;
 import pl.edu.agh.to.imageresizer.model.ImageSize;
 import pl.edu.agh.to.imageresizer.model.OriginalImage;
+import pl.edu.agh.to.imageresizer.model.ResizePolicy;
 import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.model.StorageMode;
+import pl.edu.agh.to.imageresizer.services.ListingCache.ListingKey;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.time.Duration;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 public class ImageService {
     public static final String ERROR = "ERROR";
     public static final int ERROR_WIDTH_AND_HEIGHT = 0;
+    public static final String ORIGINAL_SIZE = "original";
     private static final int PAGE_SIZE = 10;
     private final OriginalImageRepository originalImageRepository;
     private final ResizedImageRepository resizedImageRepository;
     private final DirectoryRepository directoryRepository;
     private final DirectoryMetadataRepository directoryMetadataRepository;
+    private final ImageMetadataRepository imageMetadataRepository;
     private final ImageResizer imageResizer;
+    private final ResizeExecutor resizeExecutor;
+    private final DeduplicationMetrics deduplicationMetrics;
+    private final ImageBatchRepository imageBatchRepository;
+    private final DirectoryCounterUpdater directoryCounterUpdater;
+    private final ListingCache listingCache;
+    private final ImageEventBus imageEventBus;
+    private final TransactionalOperator transactionalOperator;
+    private final StorageMode storageMode;
+    private final ResizePolicy resizePolicy;
+    private final InFlightRequests<String, ResizedImage> inFlightResizes = new InFlightRequests<>();
     private final Logger logger = LoggerFactory.getLogger(ImageController.class);
 
 
-    public ImageService(OriginalImageRepository originalImageRepository, ResizedImageRepository resizedImageRepository, DirectoryRepository directoryRepository, DirectoryMetadataRepository directoryMetadataRepository, ImageResizer imageResizer) {
+    public ImageService(OriginalImageRepository originalImageRepository, ResizedImageRepository resizedImageRepository, DirectoryRepository directoryRepository, DirectoryMetadataRepository directoryMetadataRepository, ImageMetadataRepository imageMetadataRepository, ImageResizer imageResizer, ResizeExecutor resizeExecutor, DeduplicationMetrics deduplicationMetrics, ImageBatchRepository imageBatchRepository, DirectoryCounterUpdater directoryCounterUpdater, ListingCache listingCache, ImageEventBus imageEventBus, TransactionalOperator transactionalOperator,
+                        @Value("${image-resizer.storage-mode:BINARY}") StorageMode storageMode,
+                        @Value("${image-resizer.resize-policy:EAGER}") ResizePolicy resizePolicy) {
         this.originalImageRepository = originalImageRepository;
         this.resizedImageRepository = resizedImageRepository;
         this.directoryRepository = directoryRepository;
         this.directoryMetadataRepository = directoryMetadataRepository;
+        this.imageMetadataRepository = imageMetadataRepository;
         this.imageResizer = imageResizer;
+        this.resizeExecutor = resizeExecutor;
+        this.deduplicationMetrics = deduplicationMetrics;
+        this.imageBatchRepository = imageBatchRepository;
+        this.directoryCounterUpdater = directoryCounterUpdater;
+        this.listingCache = listingCache;
+        this.imageEventBus = imageEventBus;
+        this.transactionalOperator = transactionalOperator;
+        this.storageMode = storageMode;
+        this.resizePolicy = resizePolicy;
     }
 
     @PostConstruct
-    public void reprocessAllImages() {
+    public void createRootDirectory() {
         directoryRepository.findByDirectoryKey("root")
                 .hasElement()
                 .flatMap(exists -> {
@@ -60,69 +100,206 @@ public class ImageService {
                     }
                 })
                 .subscribe();
-        Flux.just(ImageSize.values())
-                .flatMap(this::processImageSize)
-                .subscribe(
-                        result -> logger.info("Image processed successfully."),
-                        error -> logger.error("Error processing image", error)
-                );
     }
 
-    private Flux<Boolean> processImageSize(ImageSize imageSize) {
-        return processPage(0, imageSize);
+    public Mono<Long> resizeMissingSizes(long originalImageId) {
+        return imageMetadataRepository.findResizedByOriginalImageId(originalImageId)
+                .map(resizedImage -> resizedImage.width() + "x" + resizedImage.height())
+                .collect(Collectors.toSet())
+                .map(existingSizes -> Arrays.stream(ImageSize.values())
+                        .filter(size -> !existingSizes.contains(size.getWidth() + "x" + size.getHeight()))
+                        .toList())
+                .filter(missingSizes -> !missingSizes.isEmpty())
+                .flatMap(missingSizes -> getOriginalImageWithPayload(originalImageId)
+                        .flatMap(originalImage -> resizeImage(originalImage, missingSizes).count()
+                                .doOnNext(resized -> listingCache.invalidateImage(originalImage.getImageKey()))))
+                .defaultIfEmpty(0L);
+    }
+
+    public boolean isLazyResizing() {
+        return resizePolicy == ResizePolicy.LAZY;
+    }
+
+    public String cursorOf(ResizedImage resizedImage) {
+        return PageCursor.ofImageId(isLazyResizing() ? resizedImage.getOriginalImageId() : resizedImage.getImageId());
     }
 
-    private Flux<Boolean> processPage(int page, ImageSize imageSize) {
+    public Flux<ResizedImage> getAllResizedImages(ImageSize imageSize, int page) {
         Pageable pageable = PageRequest.of(page, PAGE_SIZE);
+        if (isLazyResizing()) {
+            return getOrCreateResizedImages(imageMetadataRepository.findOriginals(pageable.getPageSize(), pageable.getOffset()), imageSize);
+        }
+        return withPayloads(Flux.concat(
+                resizedImageRepository.findResizedImagesByWidthAndHeight(imageSize.getWidth(), imageSize.getHeight(),
+                        pageable.getPageSize(), pageable.getOffset()),
+                resizedImageRepository.findResizedImagesByWidthAndHeight(ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT,
+                        pageable.getPageSize(), pageable.getOffset())
+        ));
 
-        return originalImageRepository.findOriginalImagesWithoutResizedImageOfSize(imageSize.getWidth(), imageSize.getHeight(), pageable)
-                .flatMap(originalImage -> resizeImage(originalImage, imageSize))
-                .concatWith(hasNextPage(page, imageSize)
-                        .flatMap(hasNext -> {
-                            if (hasNext) {
-                                return processPage(page + 1, imageSize);
-                            } else {
-                                return Flux.just(false);
-                            }
-                        })
-                );
     }
 
-    private Flux<Boolean> hasNextPage(int currentPage, ImageSize imageSize) {
-        Pageable pageable = PageRequest.of(currentPage, PAGE_SIZE);
+    public Flux<ResizedImage> getAllResizedImagesAfter(ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return getOrCreateResizedImages(imageMetadataRepository.findOriginalsAfter(afterImageId, PAGE_SIZE), imageSize);
+        }
+        return withPayloads(resizedImageRepository.findResizedImagesAfter(imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE));
+    }
+
+    public Flux<ResizedImage> getResizedImagesForSessionKeyAfter(String sessionKey, ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return getOrCreateResizedImages(imageMetadataRepository.findOriginalsBySessionKeyAfter(sessionKey, afterImageId, PAGE_SIZE), imageSize);
+        }
+        return withPayloads(resizedImageRepository.findResizedImagesBySessionKeyAfter(sessionKey, imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE));
+    }
 
-        return originalImageRepository.findOriginalImagesWithoutResizedImageOfSize(imageSize.getWidth(), imageSize.getHeight(), pageable)
-                .hasElements()
-                .flatMapMany(hasElements -> {
-                    if (hasElements) {
-                        return Flux.just(true);
-                    } else {
-                        return Flux.just(false);
-                    }
-                });
+    public Flux<ResizedImage> getResizedImagesByDirKeyAfter(String dirKey, ImageSize imageSize, long afterImageId) {
+        return listingCache.get(ListingKey.byDirectory(dirKey, imageSize, "after:" + afterImageId),
+                () -> loadResizedImagesByDirKeyAfter(dirKey, imageSize, afterImageId));
     }
 
-    public Flux<ResizedImage> getAllResizedImages(ImageSize imageSize, int page) {
-        Pageable pageable = PageRequest.of(page, PAGE_SIZE);
-        return Flux.concat(
-                resizedImageRepository.findResizedImagesByWidthAndHeight(imageSize.getWidth(), imageSize.getHeight(), pageable),
-                resizedImageRepository.findResizedImagesByWidthAndHeight(ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT, pageable)
-        );
+    private Flux<ResizedImage> loadResizedImagesByDirKeyAfter(String dirKey, ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return getOrCreateResizedImages(imageMetadataRepository.findOriginalsByDirAfter(dirKey, afterImageId, PAGE_SIZE), imageSize);
+        }
+        return withPayloads(resizedImageRepository.findResizedImagesByDirAfter(dirKey, imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE));
+    }
+
+    public Flux<ResizedImage> getResizedImagesByImageKeyAfter(String imageKey, ImageSize imageSize, long afterImageId) {
+        return listingCache.get(ListingKey.byImageKey(imageKey, imageSize, "after:" + afterImageId),
+                () -> loadResizedImagesByImageKeyAfter(imageKey, imageSize, afterImageId));
+    }
+
+    private Flux<ResizedImage> loadResizedImagesByImageKeyAfter(String imageKey, ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return getOrCreateResizedImages(imageMetadataRepository.findOriginalByImageKey(imageKey)
+                    .filter(originalImage -> originalImage.imageId() > afterImageId)
+                    .flux(), imageSize);
+        }
+        return withPayloads(resizedImageRepository.findResizedImagesByImageKeyAfter(imageKey, imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE));
+    }
+
+    public Flux<ImageMetadata> getAllImageMetadataAfter(ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return asVariantMetadata(imageMetadataRepository.findOriginalsAfter(afterImageId, PAGE_SIZE), imageSize);
+        }
+        return imageMetadataRepository.findResizedAfter(imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE);
+    }
+
+    public Flux<ImageMetadata> getImageMetadataForSessionKeyAfter(String sessionKey, ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return asVariantMetadata(imageMetadataRepository.findOriginalsBySessionKeyAfter(sessionKey, afterImageId, PAGE_SIZE), imageSize);
+        }
+        return imageMetadataRepository.findResizedBySessionKeyAfter(sessionKey, imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE);
+    }
+
+    public Flux<ImageMetadata> getImageMetadataByDirKeyAfter(String dirKey, ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return asVariantMetadata(imageMetadataRepository.findOriginalsByDirAfter(dirKey, afterImageId, PAGE_SIZE), imageSize);
+        }
+        return imageMetadataRepository.findResizedByDirAfter(dirKey, imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE);
+    }
 
+    public Flux<ImageMetadata> getImageMetadataByImageKeyAfter(String imageKey, ImageSize imageSize, long afterImageId) {
+        if (isLazyResizing()) {
+            return asVariantMetadata(imageMetadataRepository.findOriginalByImageKey(imageKey)
+                    .filter(originalImage -> originalImage.imageId() > afterImageId)
+                    .flux(), imageSize);
+        }
+        return imageMetadataRepository.findResizedByImageKeyAfter(imageKey, imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE);
+    }
+
+    private Flux<ImageMetadata> asVariantMetadata(Flux<ImageMetadata> originalImages, ImageSize imageSize) {
+        return originalImages.map(originalImage -> originalImage.width() == ERROR_WIDTH_AND_HEIGHT ? originalImage
+                : new ImageMetadata(originalImage.imageId(), originalImage.imageKey(), originalImage.name(), originalImage.sessionKey(),
+                originalImage.mimeType(), imageSize.getWidth(), imageSize.getHeight(), originalImage.parentDirectoryId(),
+                originalImage.placeholder()));
     }
 
     public Flux<ResizedImage> getResizedImagesForSessionKey(String sessionKey, ImageSize imageSize, int page) {
         Pageable pageable = PageRequest.of(page, PAGE_SIZE);
-        return Flux.just(sessionKey)
+        if (isLazyResizing()) {
+            return getOrCreateResizedImages(imageMetadataRepository.findOriginalsBySessionKey(sessionKey, pageable.getPageSize(), pageable.getOffset()), imageSize);
+        }
+        return withPayloads(Flux.just(sessionKey)
                 .flatMap(key ->
                         Flux.merge(
                                 resizedImageRepository.findResizedImagesBySessionKeyAndWidthAndHeight(key,
-                                        imageSize.getWidth(), imageSize.getHeight(), pageable),
+                                        imageSize.getWidth(), imageSize.getHeight(), pageable.getPageSize(), pageable.getOffset()),
                                 resizedImageRepository.findResizedImagesBySessionKeyAndWidthAndHeight(key,
-                                        ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT, pageable)));
+                                        ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT, pageable.getPageSize(), pageable.getOffset()))));
 
     }
 
+    public Mono<ImageContent> getImageContent(String imageKey, String size) {
+        if (ORIGINAL_SIZE.equalsIgnoreCase(size)) {
+            return originalImageRepository.findByImageKey(imageKey)
+                    .flatMap(this::withPayload)
+                    .filter(originalImage -> !ERROR.equals(originalImage.getBase64()))
+                    .map(originalImage -> toImageContent(ImageEncoding.originalBytes(originalImage),
+                            ImageEncoding.originalMimeType(originalImage), originalImage.getContentHash()));
+        }
+        ImageSize imageSize = ImageSize.valueOf(size.toUpperCase());
+        return resizedImageRepository.findFirstByImageKeyAndWidthAndHeight(imageKey, imageSize.getWidth(), imageSize.getHeight())
+                .switchIfEmpty(Mono.defer(() -> isLazyResizing() ? imageMetadataRepository.findOriginalByImageKey(imageKey)
+                        .filter(originalImage -> originalImage.width() != ERROR_WIDTH_AND_HEIGHT)
+                        .flatMap(originalImage -> createResizedImage(originalImage.imageId(), imageSize))
+                        .filter(resizedImage -> resizedImage.getWidth() != ERROR_WIDTH_AND_HEIGHT) : Mono.empty()))
+                .flatMap(resizedImage -> withPayloads(Flux.just(resizedImage)).next())
+                .map(resizedImage -> {
+                    byte[] data = ImageEncoding.resizedBytes(resizedImage);
+                    return toImageContent(data, ImageEncoding.resizedMimeType(resizedImage, data), resizedImage.getContentHash());
+                });
+    }
+
+    public Mono<String> getImageETag(String imageKey, String size) {
+        if (ORIGINAL_SIZE.equalsIgnoreCase(size)) {
+            return originalImageRepository.findContentHashByImageKey(imageKey)
+                    .map(ImageEncoding::etag);
+        }
+        ImageSize imageSize = ImageSize.valueOf(size.toUpperCase());
+        return resizedImageRepository.findContentHash(imageKey, imageSize.getWidth(), imageSize.getHeight())
+                .map(ImageEncoding::etag);
+    }
+
+    private Flux<ResizedImage> getOrCreateResizedImages(Flux<ImageMetadata> originalImages, ImageSize imageSize) {
+        return withPayloads(originalImages.collectList()
+                .filter(page -> !page.isEmpty())
+                .flatMapMany(page -> resizedImageRepository.findResizedImagesOfOriginals(
+                                page.stream().map(ImageMetadata::imageId).toArray(Long[]::new), imageSize.getWidth(), imageSize.getHeight())
+                        .collectMap(ResizedImage::getOriginalImageId)
+                        .flatMapMany(existing -> Flux.fromIterable(page)
+                                .flatMapSequential(originalImage -> existing.containsKey(originalImage.imageId())
+                                                ? Mono.just(existing.get(originalImage.imageId()))
+                                                : createResizedImage(originalImage.imageId(), imageSize),
+                                        resizeExecutor.getParallelism()))));
+    }
+
+    private Mono<ResizedImage> createResizedImage(long originalImageId, ImageSize imageSize) {
+        return inFlightResizes.join(originalImageId + ":" + imageSize, () -> resizedImageRepository
+                .findResizedImagesOfOriginals(new Long[]{originalImageId}, imageSize.getWidth(), imageSize.getHeight())
+                .next()
+                .switchIfEmpty(Mono.defer(() -> getOriginalImageWithPayload(originalImageId)
+                        .flatMap(originalImage -> resizeAndSaveVariant(originalImage, imageSize)))));
+    }
+
+    private Mono<ResizedImage> resizeAndSaveVariant(OriginalImage originalImage, ImageSize imageSize) {
+        ImageDto imageDto = new ImageDto(originalImage.getImageKey(), originalImage.getName(), null,
+                originalImage.getWidth(), originalImage.getHeight());
+        return resizeExecutor.execute(Mono.defer(() -> imageResizer.decode(ImageEncoding.originalBytes(originalImage), ImageEncoding.originalMimeType(originalImage)))
+                        .flatMap(decodedImage -> imageResizer.resize(decodedImage, imageDto, originalImage.getSessionKey(), Flux.just(imageSize)).next()))
+                .onErrorResume(e -> Mono.just(createErrorResizedImage(imageDto, originalImage.getSessionKey())))
+                .flatMap(resizedImage -> {
+                    resizedImage.setOriginalImageId(originalImage.getImageId());
+                    return resizedImageRepository.save(applyStorageMode(resizedImage));
+                })
+                .doOnNext(saved -> saved.setPlaceholder(originalImage.getPlaceholder()))
+                .doOnNext(saved -> publishVariantReady(saved, originalImage));
+    }
+
+    private ImageContent toImageContent(byte[] data, String mimeType, String contentHash) {
+        return new ImageContent(data, mimeType, contentHash != null ? ImageEncoding.etag(contentHash) : ImageEncoding.etag(data));
+    }
+
     public Mono<DirectoryMetadata> getDirectoryParent(String dirKey) {
         return Mono.just(dirKey)
                 .flatMap(key -> directoryMetadataRepository.findDirectoryParent(dirKey));
@@ -138,33 +315,98 @@ public class ImageService {
                 .flatMap(key -> directoryMetadataRepository.findAllByParentDirectoryKey(dirKey, pageable.getPageSize(), pageable.getOffset()));
     }
 
+    public Flux<DirectoryMetadata> getDirectoriesAfter(String dirKey, String afterDirectoryKey) {
+        return directoryMetadataRepository.findAllByParentDirectoryKeyAfter(dirKey, afterDirectoryKey, PAGE_SIZE);
+    }
+
     public Flux<DirectoryMetadata> getDirectories(String dirKey) {
         return Flux.just(dirKey)
                 .flatMap(key -> directoryMetadataRepository.findAllByParentDirectoryKey(dirKey));
     }
 
-    public Mono<Void> deleteDirectory(String dirKey) {
+    public Flux<DirectoryMetadata> getDescendants(String dirKey) {
+        return directoryMetadataRepository.findDescendants(dirKey);
+    }
+
+    public Mono<SubtreeStats> getSubtreeStats(String dirKey) {
+        return directoryMetadataRepository.findSubtreeStats(dirKey);
+    }
+
+    /**
+     * Moves a directory under a new parent. Both rows are locked in one transaction before the cycle check,
+     * so two concurrent moves of directories into each other's subtrees cannot both pass it.
+     * Completes empty when either key is unknown and fails with {@link IllegalArgumentException}
+     * when the move would put the directory inside its own subtree.
+     */
+    public Mono<Directory> moveDirectory(String dirKey, String parentDirKey) {
         if (dirKey.equals("root")) {
-            return Mono.error(new RuntimeException("Cannot delete root directory"));
+            return Mono.error(new IllegalArgumentException("Cannot move root directory"));
         }
-        return directoryRepository.findByDirectoryKey(dirKey)
-                .flatMap(directory -> {
-                    if (directory.getParentDirectoryId() != null) {
-                        return updateParentSubDirectoryCount(directory.getParentDirectoryId(), -1)
-                                .then(deleteDirectoryAndChildren(directory));
-                    } else {
-                        return deleteDirectoryAndChildren(directory);
+        return directoryRepository.lockForMove(dirKey, parentDirKey)
+                .collectMap(Directory::getDirectoryKey)
+                .filter(locked -> locked.containsKey(dirKey) && locked.containsKey(parentDirKey))
+                .flatMap(locked -> {
+                    Directory directory = locked.get(dirKey);
+                    Directory parent = locked.get(parentDirKey);
+                    if (parent.getPath().startsWith(directory.getPath())) {
+                        return Mono.error(new IllegalArgumentException("Cannot move directory " + dirKey + " into its own subtree"));
                     }
-                });
+                    return directoryRepository.moveDirectory(directory.getDirectoryId(), parent.getDirectoryId())
+                            .thenReturn(Tuples.of(directory, parent));
+                })
+                .as(transactionalOperator::transactional)
+                .onErrorMap(ImageService::isSubtreeMoveRejected,
+                        e -> new IllegalArgumentException("Cannot move directory " + dirKey + " into its own subtree", e))
+                .doOnNext(moved -> {
+                    if (moved.getT1().getParentDirectoryId() != null) {
+                        directoryCounterUpdater.addSubDirectories(moved.getT1().getParentDirectoryId(), -1);
+                    }
+                    directoryCounterUpdater.addSubDirectories(moved.getT2().getDirectoryId(), 1);
+                })
+                .map(Tuple2::getT1);
     }
 
-    private Mono<Void> updateParentSubDirectoryCount(Long parentDirectoryId, int change) {
-        return directoryRepository.findById(parentDirectoryId)
-                .flatMap(parentDirectory -> {
-                    parentDirectory.setSubDirectoriesCount(parentDirectory.getSubDirectoriesCount() + change);
-                    return directoryRepository.save(parentDirectory);
-                })
-                .then();
+    private static boolean isSubtreeMoveRejected(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof R2dbcException r2dbcException && "P0001".equals(r2dbcException.getSqlState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Mono<DirectoryListing> getDirectoryListing(String dirKey, ImageSize imageSize, String afterDirectoryKey, long afterImageId) {
+        Flux<ImageMetadata> images = isLazyResizing()
+                ? asVariantMetadata(imageMetadataRepository.findOriginalsByDirAfter(dirKey, afterImageId, PAGE_SIZE + 1), imageSize)
+                : imageMetadataRepository.findResizedByDirAfter(dirKey, imageSize.getWidth(), imageSize.getHeight(), afterImageId, PAGE_SIZE + 1);
+        return Mono.zip(
+                        directoryMetadataRepository.findPathToDirKey(dirKey).collectList(),
+                        directoryMetadataRepository.findAllByParentDirectoryKeyAfter(dirKey, afterDirectoryKey, PAGE_SIZE + 1).collectList(),
+                        images.collectList())
+                .filter(listing -> !listing.getT1().isEmpty())
+                .map(listing -> new DirectoryListing(listing.getT1(),
+                        firstPage(listing.getT2()), listing.getT2().size() > PAGE_SIZE,
+                        firstPage(listing.getT3()), listing.getT3().size() > PAGE_SIZE));
+    }
+
+    private static <T> List<T> firstPage(List<T> rows) {
+        return rows.size() > PAGE_SIZE ? rows.subList(0, PAGE_SIZE) : rows;
+    }
+
+    public Mono<Void> deleteDirectory(String dirKey) {
+        if (dirKey.equals("root")) {
+            return Mono.error(new RuntimeException("Cannot delete root directory"));
+        }
+        return directoryRepository.findByDirectoryKey(dirKey)
+                .flatMap(directory -> originalImageRepository.handOverPayloadsOfDirectory(dirKey)
+                        .then(resizedImageRepository.handOverPayloadsOfDirectory(dirKey))
+                        .then(deleteDirectoryAndChildren(directory))
+                        .doOnSuccess(deleted -> {
+                            listingCache.invalidateAll();
+                            if (directory.getParentDirectoryId() != null) {
+                                directoryCounterUpdater.addSubDirectories(directory.getParentDirectoryId(), -1);
+                            }
+                        }));
     }
 
     private Mono<Void> deleteDirectoryAndChildren(Directory directory) {
@@ -172,53 +414,64 @@ public class ImageService {
     }
 
     public Mono<Void> deleteImage(String imageKey) {
-        return originalImageRepository.findByImageKey(imageKey)
+        return imageMetadataRepository.findOriginalByImageKey(imageKey)
                 .flatMap(this::deleteImageRecord);
     }
 
-    private Mono<Void> updateParentImageCount(Long directoryId, int change) {
-        return directoryRepository.findById(directoryId)
-                .flatMap(directory -> {
-                    directory.setImageCount(directory.getImageCount() + change);
-                    return directoryRepository.save(directory);
+    private Mono<Void> deleteImageRecord(ImageMetadata image) {
+        return originalImageRepository.handOverPayloadOfImage(image.imageId())
+                .then(resizedImageRepository.handOverPayloadsOfImage(image.imageId()))
+                .then(originalImageRepository.deleteById(image.imageId()))
+                .then(Mono.justOrEmpty(image.parentDirectoryId()))
+                .flatMap(directoryRepository::findById)
+                .doOnNext(directory -> {
+                    listingCache.invalidateDirectory(directory.getDirectoryKey());
+                    directoryCounterUpdater.addImages(directory.getDirectoryId(), -1);
                 })
-                .then();
+                .then(Mono.fromRunnable(() -> listingCache.invalidateImage(image.imageKey())));
     }
 
-    private Mono<Void> deleteImageRecord(OriginalImage image) {
-        Long directoryId = image.getParentDirectoryId();
-        if (directoryId != null) {
-            return updateParentImageCount(directoryId, -1)
-                    .then(originalImageRepository.delete(image))
-                    .then();
-        } else {
-            return originalImageRepository.delete(image).then();
-        }
+    public Flux<ResizedImage> getResizedImagesByDirKey(String dirKey, ImageSize imageSize, int page) {
+        return listingCache.get(ListingKey.byDirectory(dirKey, imageSize, "page:" + page),
+                () -> loadResizedImagesByDirKey(dirKey, imageSize, page));
     }
 
-    public Flux<ResizedImage> getResizedImagesByDirKey(String dirKey, ImageSize imageSize, int page) {
+    private Flux<ResizedImage> loadResizedImagesByDirKey(String dirKey, ImageSize imageSize, int page) {
         Pageable pageable = PageRequest.of(page, PAGE_SIZE);
-        return Flux.just(dirKey)
+        if (isLazyResizing()) {
+            return getOrCreateResizedImages(imageMetadataRepository.findOriginalsByDir(dirKey, pageable.getPageSize(), pageable.getOffset()), imageSize);
+        }
+        return withPayloads(Flux.just(dirKey)
                 .flatMap(key ->
                         Flux.merge(
                                 resizedImageRepository.findResizedImagesByDir(key,
                                         imageSize.getWidth(), imageSize.getHeight(), pageable.getPageSize(), pageable.getOffset()),
                                 resizedImageRepository.findResizedImagesByDir(key,
-                                        ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT, pageable.getPageSize(), pageable.getOffset())));
+                                        ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT, pageable.getPageSize(), pageable.getOffset()))));
 
     }
 
     public Flux<ResizedImage> getResizedImagesByImageKey(String imageKey, ImageSize imageSize, int page) {
+        return listingCache.get(ListingKey.byImageKey(imageKey, imageSize, "page:" + page),
+                () -> loadResizedImagesByImageKey(imageKey, imageSize, page));
+    }
+
+    private Flux<ResizedImage> loadResizedImagesByImageKey(String imageKey, ImageSize imageSize, int page) {
         Pageable pageable = PageRequest.of(page, PAGE_SIZE);
-        return Flux.just(imageKey)
+        if (isLazyResizing()) {
+            return page == 0 ? getOrCreateResizedImages(imageMetadataRepository.findOriginalByImageKey(imageKey).flux(), imageSize) : Flux.empty();
+        }
+        return withPayloads(Flux.just(imageKey)
                 .flatMap(key ->
                         Flux.merge(
                                 resizedImageRepository
-                                        .findResizedImagesByImageKeyAndWidthAndHeight(key, imageSize.getWidth(), imageSize.getHeight(), pageable),
+                                        .findResizedImagesByImageKeyAndWidthAndHeight(key, imageSize.getWidth(), imageSize.getHeight(),
+                                                pageable.getPageSize(), pageable.getOffset()),
                                 resizedImageRepository
-                                        .findResizedImagesByImageKeyAndWidthAndHeight(key, ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT, pageable)
+                                        .findResizedImagesByImageKeyAndWidthAndHeight(key, ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT,
+                                                pageable.getPageSize(), pageable.getOffset())
                         )
-                );
+                ));
 
 
     }
@@ -228,82 +481,344 @@ public class ImageService {
         return resizedImageRepository.findResizedImageByImageKey(key)
                 .next()
                 .flatMap(image -> originalImageRepository.findById(image.getOriginalImageId()))
-                .delayElement(Duration.ofMillis(500));
+                .flatMap(this::withPayload);
     }
 
 
     public Mono<Void> saveOrUpdateDirectory(DirectoryDto directoryDto, String sessionKey, String directoryKey) {
         return directoryRepository.findByDirectoryKey(directoryKey)
-                .flatMap(existingDirectory -> updateDirectory(existingDirectory, directoryDto, sessionKey))
-                .switchIfEmpty(createAndSaveDirectory(directoryDto, sessionKey, null))
-                .then(directoryRepository.findByDirectoryKey(directoryKey)
-                        .flatMap(parentDirectory ->
-                                updateParentSubDirectoryCount(parentDirectory.getDirectoryId(), 1)
-                        ));
-    }
-
-    private Mono<Boolean> updateDirectory(Directory existingDirectory, DirectoryDto directoryDto, String sessionKey) {
-        existingDirectory.setName(directoryDto.name());
-        existingDirectory.setSubDirectoriesCount(directoryDto.subDirectoriesCount() + existingDirectory.getSubDirectoriesCount());
-        existingDirectory.setImageCount(directoryDto.imageCount() + existingDirectory.getImageCount());
-
-        return directoryRepository.save(existingDirectory)
-                .then(directoryRepository.findById(existingDirectory.getDirectoryId())
-                        .flatMap(parentDirectory ->
-                                updateParentSubDirectoryCount(parentDirectory.getDirectoryId(), 1)
-                        ))
-                .then(saveChildrenDirectoriesAndImages(directoryDto, sessionKey, existingDirectory.getDirectoryId()));
-    }
-
-    private Mono<Boolean> createAndSaveDirectory(DirectoryDto directoryDto, String sessionKey, Long parentDirectoryId) {
-        Directory directory = new Directory(
-                directoryDto.name(),
-                parentDirectoryId,
-                directoryDto.dirKey(),
-                directoryDto.subDirectoriesCount(),
-                directoryDto.imageCount()
-        );
+                .switchIfEmpty(Mono.defer(() -> directoryRepository.save(
+                        new Directory(directoryDto.name(), null, directoryKey, 0, 0))))
+                .flatMap(directory -> saveDirectoryTree(directoryDto, directory.getDirectoryId(), sessionKey)
+                        .doOnSuccess(saved -> directoryCounterUpdater.add(directory.getDirectoryId(),
+                                directoryDto.directories().size(), directoryDto.images().size()))
+                        .doFinally(signal -> listingCache.invalidateAll()));
+    }
+
+    private Mono<Void> saveDirectoryTree(DirectoryDto rootDirectory, long rootDirectoryId, String sessionKey) {
+        Flux<DirectoryNode> directories = Mono.just(List.of(new DirectoryNode(rootDirectory, rootDirectoryId)))
+                .expand(this::saveNextDirectoryLevel)
+                .concatMapIterable(level -> level);
+        Flux<PendingImage> images = directories
+                .concatMapIterable(node -> node.directory().images().stream()
+                        .map(image -> new PendingImage(image, node.directoryId()))
+                        .toList());
+        return images.buffer(imageBatchRepository.getBatchSize())
+                .concatMap(batch -> prepareImages(batch, sessionKey)
+                        .flatMap(preparedImages -> imageBatchRepository.insertImages(preparedImages)
+                                .doOnNext(inserted -> inserted.forEach(prepared -> prepared.resizedImages()
+                                        .forEach(resizedImage -> publishVariantReady(resizedImage, prepared.originalImage()))))))
+                .then();
+    }
 
-        return directoryRepository.save(directory)
-                .flatMap(savedDirectory -> saveChildrenDirectoriesAndImages(directoryDto, sessionKey, savedDirectory.getDirectoryId()));
+    private Mono<List<DirectoryNode>> saveNextDirectoryLevel(List<DirectoryNode> level) {
+        List<DirectoryDto> children = level.stream()
+                .flatMap(node -> node.directory().directories().stream())
+                .toList();
+        if (children.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Directory> directories = level.stream()
+                .flatMap(node -> node.directory().directories().stream()
+                        .map(child -> new Directory(
+                                child.name(),
+                                node.directoryId(),
+                                child.dirKey(),
+                                child.directories().size(),
+                                child.images().size())))
+                .toList();
+        return imageBatchRepository.insertDirectories(directories)
+                .map(directoryIds -> IntStream.range(0, children.size())
+                        .mapToObj(i -> new DirectoryNode(children.get(i), directoryIds.get(i)))
+                        .toList());
+    }
+
+    private Mono<List<PreparedImage>> prepareImages(List<PendingImage> batch, String sessionKey) {
+        return Flux.fromIterable(batch)
+                .flatMapSequential(pending -> readUploadOnExecutor(pending.image())
+                        .map(upload -> new PendingUpload(pending, upload))
+                        .onErrorResume(e -> Mono.just(new PendingUpload(pending, null))), resizeExecutor.getParallelism())
+                .collectList()
+                .flatMap(uploads -> findStoredDuplicates(uploads)
+                        .flatMap(duplicates -> Flux.fromIterable(uploads)
+                                .flatMapSequential(upload -> prepareImage(upload, duplicates, sessionKey), resizeExecutor.getParallelism())
+                                .collectList()));
+    }
+
+    private Mono<StoredDuplicates> findStoredDuplicates(List<PendingUpload> uploads) {
+        List<String> contentHashes = uploads.stream()
+                .filter(upload -> upload.upload() != null)
+                .map(upload -> upload.upload().contentHash())
+                .distinct()
+                .toList();
+        return imageBatchRepository.findPayloadHoldersByContentHash(contentHashes)
+                .flatMap(originals -> {
+                    if (originals.isEmpty()) {
+                        return Mono.just(new StoredDuplicates(originals, Map.of()));
+                    }
+                    return imageBatchRepository.findResizedImagesByOriginalImageIds(originals.values().stream()
+                                    .map(ImageMetadata::imageId)
+                                    .toList())
+                            .map(resizedImages -> new StoredDuplicates(originals, resizedImages));
+                });
     }
 
-    private Mono<Boolean> saveChildrenDirectoriesAndImages(DirectoryDto directoryDto, String sessionKey, Long parentDirectoryId) {
-        return Flux.concat(
-                        Flux.fromIterable(directoryDto.directories())
-                                .flatMap(childDirectory -> createAndSaveDirectory(childDirectory, sessionKey, parentDirectoryId)),
-                        Flux.fromIterable(directoryDto.images())
-                                .flatMap(imageDto -> resizeAndSaveOriginalImage(imageDto, sessionKey, parentDirectoryId))
-                )
-                .then(Mono.just(true));
+    private Mono<PreparedImage> prepareImage(PendingUpload pending, StoredDuplicates duplicates, String sessionKey) {
+        ImageDto imageDto = pending.pending().image();
+        Long parentDirectoryId = pending.pending().parentDirectoryId();
+        UploadedImage upload = pending.upload();
+        if (upload == null) {
+            return Mono.just(prepareErrorImage(imageDto, sessionKey, parentDirectoryId));
+        }
+        ImageMetadata existingImage = duplicates.originals().get(upload.contentHash());
+        List<ResizedImage> existingResizedImages = existingImage == null ? List.of()
+                : duplicates.resizedImages().getOrDefault(existingImage.imageId(), List.of());
+        if (!existingResizedImages.isEmpty()) {
+            OriginalImage duplicate = new OriginalImage(imageDto.name(),
+                    null,
+                    sessionKey,
+                    imageDto.imageKey(),
+                    existingImage.width(),
+                    existingImage.height(),
+                    parentDirectoryId);
+            duplicate.setMimeType(existingImage.mimeType() != null ? existingImage.mimeType() : upload.mimeType());
+            duplicate.setContentHash(upload.contentHash());
+            duplicate.setPlaceholder(existingImage.placeholder());
+            deduplicationMetrics.recordHit(upload.bytes().length, existingResizedImages.size());
+            return Mono.just(new PreparedImage(duplicate, existingResizedImages.stream()
+                    .map(source -> copyResizedImage(source, imageDto, sessionKey))
+                    .toList()));
+        }
+        deduplicationMetrics.recordMiss();
+        return resizeExecutor.execute(imageResizer.decode(upload.bytes(), upload.mimeType()))
+                .flatMap(decodedImage -> resizeExecutor.execute(imageResizer.resize(decodedImage, imageDto, sessionKey, uploadSizes()).collectList())
+                        .map(resizedImages -> new PreparedImage(
+                                createOriginalImage(imageDto, decodedImage, upload.contentHash(), sessionKey, parentDirectoryId),
+                                resizedImages.stream().map(this::applyStorageMode).toList())))
+                .onErrorResume(RejectedExecutionException.class, e -> Mono.fromCallable(() -> new PreparedImage(
+                        createUnresizedOriginalImage(imageDto, upload, sessionKey, parentDirectoryId), List.of())))
+                .onErrorResume(e -> Mono.just(prepareErrorImage(imageDto, sessionKey, parentDirectoryId)));
+    }
+
+    private PreparedImage prepareErrorImage(ImageDto imageDto, String sessionKey, Long parentDirectoryId) {
+        OriginalImage originalImage = new OriginalImage(imageDto.name(), ERROR, sessionKey, imageDto.imageKey(),
+                ERROR_WIDTH_AND_HEIGHT, ERROR_WIDTH_AND_HEIGHT, parentDirectoryId);
+        return new PreparedImage(originalImage, List.of(createErrorResizedImage(imageDto, sessionKey)));
+    }
+
+    public Flux<Boolean> resizeAndSaveOriginalImages(Flux<ImageDto> images, String sessionKey, Long parentDirectoryId) {
+        return images.flatMap(imageDto -> resizeAndSaveOriginalImage(imageDto, sessionKey, parentDirectoryId),
+                resizeExecutor.getParallelism());
+    }
+
+    public boolean isResizeQueueSaturated() {
+        return resizeExecutor.isSaturated();
     }
 
+    public Flux<VariantReadyEvent> getVariantReadyEvents(String dirKey) {
+        return directoryRepository.findByDirectoryKey(dirKey)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown directory " + dirKey)))
+                .flatMapMany(directory -> imageEventBus.events()
+                        .filter(event -> Objects.equals(directory.getDirectoryId(), event.directoryId())));
+    }
 
     public Mono<Boolean> resizeAndSaveOriginalImage(ImageDto imageDto, String sessionKey, Long parentDirectoryId) {
-        return getImageDimensions(imageDto.base64())
-                .flatMap(dimensions -> saveOriginalImage(imageDto, dimensions, sessionKey, parentDirectoryId))
-                .flatMap(savedOriginalImage -> resizeImage(imageDto, sessionKey, savedOriginalImage)
-                        .all(result -> result))
-                .onErrorResume(e -> saveErrorOriginalImage(imageDto, sessionKey, parentDirectoryId)
+        return readUploadOnExecutor(imageDto)
+                .flatMap(upload -> imageMetadataRepository.findOriginalByContentHash(upload.contentHash())
+                        .flatMap(existingImage -> saveDuplicateImage(imageDto, upload, existingImage, sessionKey, parentDirectoryId))
+                        .switchIfEmpty(Mono.defer(() -> resizeAndSaveNewImage(imageDto, upload, sessionKey, parentDirectoryId))))
+                .onErrorResume(e -> !(e instanceof RejectedExecutionException), e -> saveErrorOriginalImage(imageDto, sessionKey, parentDirectoryId)
                         .flatMap(savedImage -> saveErrorResizedImage(imageDto, sessionKey, savedImage))
                         .then(Mono.just(false)))
-                .flatMap(savedImage -> directoryRepository.findById(parentDirectoryId)
-                        .flatMap(directory -> {
-                            directory.setImageCount(directory.getImageCount() + 1);
-                            return directoryRepository.save(directory);
-                        }).then(Mono.just(true)));
+                .doOnNext(savedImage -> {
+                    listingCache.invalidateImage(imageDto.imageKey());
+                    if (parentDirectoryId != null) {
+                        directoryCounterUpdater.addImages(parentDirectoryId, 1);
+                    }
+                });
+    }
+
+    public Mono<Long> resizeAndSaveImageStream(Flux<ImageDto> images, String sessionKey, String directoryKey) {
+        if (directoryKey == null) {
+            return resizeAndSaveOriginalImages(images, sessionKey, null).count();
+        }
+        return directoryRepository.findByDirectoryKey(directoryKey)
+                .switchIfEmpty(Mono.error(new IllegalArgumentException("Directory not found: " + directoryKey)))
+                .flatMap(directory -> resizeAndSaveOriginalImages(images, sessionKey, directory.getDirectoryId())
+                        .doOnNext(saved -> listingCache.invalidateDirectory(directoryKey))
+                        .count());
+    }
+
+    /**
+     * Reads the upload on the resize executor, or on the calling thread when its queue stays full: the image is
+     * stored either way and reading it costs far less than decoding it.
+     */
+    private Mono<UploadedImage> readUploadOnExecutor(ImageDto imageDto) {
+        Mono<UploadedImage> upload = Mono.fromCallable(() -> readUpload(imageDto));
+        return resizeExecutor.execute(upload)
+                .onErrorResume(RejectedExecutionException.class, e -> upload);
+    }
+
+    private UploadedImage readUpload(ImageDto imageDto) {
+        byte[] imageBytes = ImageEncoding.decodeDataUrl(imageDto.base64());
+        return new UploadedImage(imageBytes, ImageEncoding.mimeType(imageDto.base64()), ImageEncoding.contentHash(imageBytes));
+    }
+
+    private Mono<Boolean> resizeAndSaveNewImage(ImageDto imageDto, UploadedImage upload, String sessionKey, Long parentDirectoryId) {
+        deduplicationMetrics.recordMiss();
+        return resizeExecutor.execute(imageResizer.decode(upload.bytes(), upload.mimeType()))
+                .flatMap(decodedImage -> saveOriginalImage(imageDto, decodedImage, upload.contentHash(), sessionKey, parentDirectoryId)
+                        .flatMap(savedOriginalImage -> resizeImage(decodedImage, imageDto, sessionKey, savedOriginalImage)
+                                .all(result -> result)
+                                .onErrorResume(RejectedExecutionException.class, e -> Mono.just(false))))
+                .onErrorResume(RejectedExecutionException.class, e -> Mono.fromCallable(() -> createUnresizedOriginalImage(imageDto, upload, sessionKey, parentDirectoryId))
+                        .flatMap(originalImageRepository::save)
+                        .thenReturn(false));
+    }
+
+    private Mono<Boolean> saveDuplicateImage(ImageDto imageDto, UploadedImage upload, ImageMetadata existingImage, String sessionKey, Long parentDirectoryId) {
+        OriginalImage duplicate = new OriginalImage(imageDto.name(),
+                null,
+                sessionKey,
+                imageDto.imageKey(),
+                existingImage.width(),
+                existingImage.height(),
+                parentDirectoryId);
+        duplicate.setMimeType(existingImage.mimeType() != null ? existingImage.mimeType() : upload.mimeType());
+        duplicate.setContentHash(upload.contentHash());
+        duplicate.setPlaceholder(existingImage.placeholder());
+
+        return originalImageRepository.save(duplicate)
+                .flatMap(savedDuplicate -> copyResizedImages(existingImage.imageId(), savedDuplicate, imageDto, sessionKey)
+                        .flatMap(copiedVariants -> {
+                            deduplicationMetrics.recordHit(upload.bytes().length, copiedVariants);
+                            if (copiedVariants > 0 || isLazyResizing()) {
+                                return Mono.just(true);
+                            }
+                            return resizeExecutor.execute(imageResizer.decode(upload.bytes(), upload.mimeType()))
+                                    .flatMap(decodedImage -> resizeImage(decodedImage, imageDto, sessionKey, savedDuplicate)
+                                            .all(result -> result))
+                                    .onErrorResume(RejectedExecutionException.class, e -> Mono.just(false));
+                        }));
+    }
+
+    private Mono<Long> copyResizedImages(long sourceImageId, OriginalImage target, ImageDto imageDto, String sessionKey) {
+        return resizedImageRepository.findAllByOriginalImageId(sourceImageId)
+                .filter(resizedImage -> resizedImage.getWidth() != ERROR_WIDTH_AND_HEIGHT)
+                .flatMap(source -> {
+                    ResizedImage copy = copyResizedImage(source, imageDto, sessionKey);
+                    copy.setOriginalImageId(target.getImageId());
+                    return resizedImageRepository.save(copy)
+                            .doOnNext(saved -> publishVariantReady(saved, target));
+                })
+                .count();
+    }
+
+    private ResizedImage copyResizedImage(ResizedImage source, ImageDto imageDto, String sessionKey) {
+        boolean shared = source.getContentHash() != null;
+        ResizedImage copy = new ResizedImage(
+                imageDto.imageKey(),
+                imageDto.name(),
+                shared ? null : source.getBase64(),
+                sessionKey,
+                source.getWidth(),
+                source.getHeight()
+        );
+        copy.setData(shared ? null : source.getData());
+        copy.setMimeType(source.getMimeType());
+        copy.setContentHash(source.getContentHash());
+        return copy;
+    }
+
+    private Flux<ResizedImage> withPayloads(Flux<ResizedImage> resizedImages) {
+        return resizedImages.buffer(PAGE_SIZE)
+                .concatMap(page -> {
+                    String[] contentHashes = page.stream()
+                            .filter(resizedImage -> resizedImage.getData() == null && resizedImage.getBase64() == null
+                                    && resizedImage.getContentHash() != null)
+                            .map(ResizedImage::getContentHash)
+                            .distinct()
+                            .toArray(String[]::new);
+                    if (contentHashes.length == 0) {
+                        return Flux.fromIterable(page);
+                    }
+                    return resizedImageRepository.findPayloadSourcesByContentHashes(contentHashes)
+                            .collectMap(ResizedImage::getContentHash)
+                            .flatMapIterable(sources -> {
+                                page.forEach(resizedImage -> {
+                                    ResizedImage source = resizedImage.getData() == null && resizedImage.getBase64() == null
+                                            ? sources.get(resizedImage.getContentHash()) : null;
+                                    if (source != null) {
+                                        resizedImage.setData(source.getData());
+                                        resizedImage.setBase64(source.getBase64());
+                                        resizedImage.setMimeType(source.getMimeType());
+                                    }
+                                });
+                                return page;
+                            });
+                });
+    }
+
+    public Mono<OriginalImage> getOriginalImageWithPayload(long originalImageId) {
+        return originalImageRepository.findById(originalImageId)
+                .flatMap(this::withPayload);
+    }
+
+    private Mono<OriginalImage> withPayload(OriginalImage originalImage) {
+        if (originalImage.getData() != null || originalImage.getBase64() != null || originalImage.getContentHash() == null) {
+            return Mono.just(originalImage);
+        }
+        return originalImageRepository.findPayloadSourceByContentHash(originalImage.getContentHash())
+                .map(source -> {
+                    originalImage.setData(source.getData());
+                    originalImage.setBase64(source.getBase64());
+                    originalImage.setMimeType(source.getMimeType());
+                    return originalImage;
+                })
+                .defaultIfEmpty(originalImage);
+    }
+
+    private OriginalImage createOriginalImage(ImageDto imageDto, DecodedImage decodedImage, String contentHash, String sessionKey, Long parentDirectoryId) {
+        OriginalImage originalImage = new OriginalImage(imageDto.name(),
+                storageMode == StorageMode.BINARY ? null : imageDto.base64(),
+                sessionKey,
+                imageDto.imageKey(),
+                decodedImage.width(),
+                decodedImage.height(),
+                parentDirectoryId);
+        originalImage.setMimeType(decodedImage.mimeType());
+        originalImage.setContentHash(contentHash);
+        originalImage.setPlaceholder(BlurHash.encode(decodedImage.image()));
+        if (storageMode == StorageMode.BINARY) {
+            originalImage.setData(decodedImage.bytes());
+        }
+        return originalImage;
     }
 
-    private Mono<OriginalImage> saveOriginalImage(ImageDto imageDto, Pair<Integer, Integer> dimensions, String sessionKey, Long parentDirectoryId) {
+    /**
+     * Creates the original of an upload the resize queue had no room to decode. Its size comes from the header
+     * and it is stored without variants or a placeholder, so the backfill resizes it once the queue drains.
+     */
+    private OriginalImage createUnresizedOriginalImage(ImageDto imageDto, UploadedImage upload, String sessionKey, Long parentDirectoryId) throws IOException {
+        ImageHeader header = ImageProbe.readHeader(upload.bytes());
         OriginalImage originalImage = new OriginalImage(imageDto.name(),
-                imageDto.base64(),
+                storageMode == StorageMode.BINARY ? null : imageDto.base64(),
                 sessionKey,
                 imageDto.imageKey(),
-                dimensions.getFirst(),
-                dimensions.getSecond(),
+                header.width(),
+                header.height(),
                 parentDirectoryId);
+        originalImage.setMimeType(upload.mimeType());
+        originalImage.setContentHash(upload.contentHash());
+        if (storageMode == StorageMode.BINARY) {
+            originalImage.setData(upload.bytes());
+        }
+        logger.warn("Resize queue is full, image {} is stored without variants until the backfill resizes it", imageDto.imageKey());
+        return originalImage;
+    }
 
-        return originalImageRepository.save(originalImage)
+    private Mono<OriginalImage> saveOriginalImage(ImageDto imageDto, DecodedImage decodedImage, String contentHash, String sessionKey, Long parentDirectoryId) {
+        return originalImageRepository.save(createOriginalImage(imageDto, decodedImage, contentHash, sessionKey, parentDirectoryId))
                 .onErrorResume(e -> {
                     OriginalImage errorImage = new OriginalImage(imageDto.name(), ERROR,
                             sessionKey,
@@ -314,47 +829,71 @@ public class ImageService {
                 });
     }
 
-    private Flux<Boolean> resizeImage(OriginalImage savedOriginalImage, ImageSize imageSize) {
+    private Flux<Boolean> resizeImage(OriginalImage originalImage, List<ImageSize> imageSizes) {
         ImageDto imageDto = new ImageDto(
-                savedOriginalImage.getImageKey(),
-                savedOriginalImage.getName(),
-                savedOriginalImage.getBase64(),
-                savedOriginalImage.getWidth(), savedOriginalImage.getHeight()
+                originalImage.getImageKey(),
+                originalImage.getName(),
+                null,
+                originalImage.getWidth(), originalImage.getHeight()
         );
-        return saveResizedImage(imageResizer.resize(imageDto, savedOriginalImage.getSessionKey(), Flux.just(imageSize)),
-                savedOriginalImage, imageDto, savedOriginalImage.getSessionKey());
+        // Decode failures are handled inside the executor, so a full resize queue still surfaces as an error.
+        return resizeExecutor.execute(Mono.defer(() -> imageResizer.decode(ImageEncoding.originalBytes(originalImage), ImageEncoding.originalMimeType(originalImage)))
+                        .map(decodedImage -> saveResizedImage(resizeExecutor.execute(imageResizer.resize(decodedImage, imageDto, originalImage.getSessionKey(), Flux.fromIterable(imageSizes)).collectList())
+                                        .flatMapIterable(resizedImages -> resizedImages),
+                                originalImage, imageDto, originalImage.getSessionKey()))
+                        .onErrorResume(e -> Mono.just(saveErrorResizedImage(imageDto, originalImage.getSessionKey(), originalImage).flux())))
+                .flatMapMany(savedImages -> savedImages);
+    }
+
+    private Flux<Boolean> resizeImage(DecodedImage decodedImage, ImageDto imageDto, String sessionKey, OriginalImage savedOriginalImage) {
+        return saveResizedImage(resizeExecutor.execute(imageResizer.resize(decodedImage, imageDto, sessionKey, uploadSizes()).collectList())
+                        .flatMapIterable(resizedImages -> resizedImages),
+                savedOriginalImage, imageDto, sessionKey);
     }
 
-    private Flux<Boolean> resizeImage(ImageDto imageDto, String sessionKey, OriginalImage savedOriginalImage) {
-        return saveResizedImage(imageResizer.resize(imageDto, sessionKey), savedOriginalImage, imageDto, sessionKey);
+    private Flux<ImageSize> uploadSizes() {
+        return isLazyResizing() ? Flux.empty() : Flux.just(ImageSize.values());
     }
 
     private Flux<Boolean> saveResizedImage(Flux<ResizedImage> resizedImages, OriginalImage savedOriginalImage, ImageDto imageDto, String sessionKey) {
         return resizedImages.flatMap(resizedImage -> {
                     resizedImage.setOriginalImageId(savedOriginalImage.getImageId());
-                    return resizedImageRepository.save(resizedImage)
+                    return resizedImageRepository.save(applyStorageMode(resizedImage))
+                            .doOnNext(saved -> publishVariantReady(saved, savedOriginalImage))
                             .then(Mono.just(true));
                 })
-                .onErrorResume(e -> saveErrorResizedImage(imageDto, sessionKey, savedOriginalImage));
+                .onErrorResume(e -> !(e instanceof RejectedExecutionException), e -> saveErrorResizedImage(imageDto, sessionKey, savedOriginalImage));
     }
 
-    private Mono<Pair<Integer, Integer>> getImageDimensions(String base64) {
-        return Mono.fromCallable(() -> {
-            String base64String = base64.split(",")[1];
-            byte[] imageBytes = java.util.Base64.getDecoder().decode(base64String);
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(imageBytes);
+    private record UploadedImage(byte[] bytes, String mimeType, String contentHash) {
+    }
 
-            BufferedImage originalImage = ImageIO.read(inputStream);
-            if (originalImage == null) {
-                throw new IllegalArgumentException("Invalid image data");
-            }
+    private record DirectoryNode(DirectoryDto directory, long directoryId) {
+    }
 
-            return Pair.of(originalImage.getWidth(), originalImage.getHeight());
-        });
+    private record PendingImage(ImageDto image, Long parentDirectoryId) {
     }
 
-    private Mono<Boolean> saveErrorResizedImage(ImageDto imageDto, String sessionKey, OriginalImage savedOriginalImage) {
-        ResizedImage resizedImage = new ResizedImage(
+    private record PendingUpload(PendingImage pending, UploadedImage upload) {
+    }
+
+    private record StoredDuplicates(Map<String, ImageMetadata> originals, Map<Long, List<ResizedImage>> resizedImages) {
+    }
+
+    private ResizedImage applyStorageMode(ResizedImage resizedImage) {
+        if (resizedImage.getData() != null) {
+            if (storageMode == StorageMode.BINARY) {
+                resizedImage.setBase64(null);
+            } else {
+                resizedImage.setBase64(ImageEncoding.resizedBase64(resizedImage));
+                resizedImage.setData(null);
+            }
+        }
+        return resizedImage;
+    }
+
+    private ResizedImage createErrorResizedImage(ImageDto imageDto, String sessionKey) {
+        return new ResizedImage(
                 imageDto.imageKey(),
                 imageDto.name(),
                 ERROR,
@@ -362,11 +901,27 @@ public class ImageService {
                 ERROR_WIDTH_AND_HEIGHT,
                 ERROR_WIDTH_AND_HEIGHT
         );
+    }
+
+    private Mono<Boolean> saveErrorResizedImage(ImageDto imageDto, String sessionKey, OriginalImage savedOriginalImage) {
+        ResizedImage resizedImage = createErrorResizedImage(imageDto, sessionKey);
         resizedImage.setOriginalImageId(savedOriginalImage.getImageId());
         return resizedImageRepository.save(resizedImage)
+                .doOnNext(saved -> publishVariantReady(saved, savedOriginalImage))
                 .then(Mono.just(true));
     }
 
+    private void publishVariantReady(ResizedImage resizedImage, OriginalImage originalImage) {
+        String size = Arrays.stream(ImageSize.values())
+                .filter(imageSize -> imageSize.getWidth() == resizedImage.getWidth() && imageSize.getHeight() == resizedImage.getHeight())
+                .map(imageSize -> imageSize.name().toLowerCase())
+                .findFirst()
+                .orElse(null);
+        imageEventBus.publish(new VariantReadyEvent(resizedImage.getImageKey(), resizedImage.getName(), resizedImage.getSessionKey(),
+                originalImage.getParentDirectoryId(), size, resizedImage.getWidth(), resizedImage.getHeight(),
+                ERROR.equals(resizedImage.getBase64()), originalImage.getPlaceholder()));
+    }
+
     private Mono<OriginalImage> saveErrorOriginalImage(ImageDto imageDto, String sessionKey, Long parentDirectoryId) {
         OriginalImage originalImage = new OriginalImage(
                 imageDto.name(),
@@ -0,0 +1,74 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses upload streams with the application's {@link ObjectMapper}, so entries are read with the same
+ * settings as JSON request bodies.
+ */
+@Component
+public class ImageStreamReader {
+    private final ObjectMapper objectMapper;
+
+    public ImageStreamReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Reads one {@link ImageDto} per line of a newline-delimited JSON body.
+     * Lines are only read on demand, so at most as many images as the subscriber requested are held in memory.
+     */
+    public Flux<ImageDto> readNdjson(InputStream inputStream) {
+        return Flux.using(
+                        () -> new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)),
+                        reader -> Flux.<ImageDto>generate(sink -> {
+                            String line = readNextLine(reader);
+                            if (line == null) {
+                                sink.complete();
+                            } else {
+                                sink.next(parse(line));
+                            }
+                        }),
+                        ImageStreamReader::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static String readNextLine(BufferedReader reader) {
+        try {
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && line.isBlank());
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ImageDto parse(String line) {
+        try {
+            return objectMapper.readValue(line, ImageDto.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid image entry in upload stream", e);
+        }
+    }
+
+    private static void close(BufferedReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import pl.edu.agh.to.imageresizer.model.ImageVariant;
+import reactor.core.publisher.Mono;
+
+public interface ImageVariantRepository extends ReactiveCrudRepository<ImageVariant, Long> {
+
+    @Query("SELECT * FROM image_variants WHERE original_image = :originalImageId AND width = :width AND height = :height AND fit_mode = :fitMode")
+    Mono<ImageVariant> findVariant(long originalImageId, int width, int height, String fitMode);
+
+    @Modifying
+    @Query("INSERT INTO image_variants (original_image, width, height, fit_mode, data, mime_type) " +
+            "VALUES (:originalImageId, :width, :height, :fitMode, :data, :mimeType) " +
+            "ON CONFLICT (original_image, width, height, fit_mode) DO NOTHING")
+    Mono<Integer> insertVariant(long originalImageId, int width, int height, String fitMode, byte[] data, String mimeType);
+}
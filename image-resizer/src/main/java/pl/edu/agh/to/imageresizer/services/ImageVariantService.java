@@ -0,0 +1,73 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.edu.agh.to.imageresizer.dto.CacheStats;
+import pl.edu.agh.to.imageresizer.dto.ImageContent;
+import pl.edu.agh.to.imageresizer.model.VariantSize;
+import reactor.core.publisher.Mono;
+
+@Service
+public class ImageVariantService {
+    private final ImageService imageService;
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final ImageVariantRepository imageVariantRepository;
+    private final ImageResizer imageResizer;
+    private final ResizeExecutor resizeExecutor;
+    private final LruCache<VariantKey, ImageContent> cache;
+    private final InFlightRequests<VariantKey, ImageContent> inFlightVariants = new InFlightRequests<>();
+
+    public ImageVariantService(ImageService imageService,
+                               ImageMetadataRepository imageMetadataRepository,
+                               ImageVariantRepository imageVariantRepository,
+                               ImageResizer imageResizer,
+                               ResizeExecutor resizeExecutor,
+                               @Value("${image-resizer.variants.cache-max-bytes:67108864}") long cacheMaxBytes) {
+        this.imageService = imageService;
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.imageVariantRepository = imageVariantRepository;
+        this.imageResizer = imageResizer;
+        this.resizeExecutor = resizeExecutor;
+        this.cache = new LruCache<>(cacheMaxBytes, content -> content.data().length);
+    }
+
+    public Mono<ImageContent> getVariant(String imageKey, VariantSize variantSize) {
+        return imageMetadataRepository.findOriginalByImageKey(imageKey)
+                .filter(originalImage -> originalImage.width() != ImageService.ERROR_WIDTH_AND_HEIGHT)
+                .flatMap(originalImage -> {
+                    VariantKey key = new VariantKey(originalImage.imageId(), variantSize);
+                    ImageContent cached = cache.get(key);
+                    if (cached != null) {
+                        return Mono.just(cached);
+                    }
+                    return inFlightVariants.join(key, () -> findOrCreateVariant(key)
+                            .doOnNext(content -> cache.put(key, content)));
+                });
+    }
+
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    private Mono<ImageContent> findOrCreateVariant(VariantKey key) {
+        VariantSize variantSize = key.variantSize();
+        return imageVariantRepository.findVariant(key.originalImageId(), variantSize.width(), variantSize.height(), variantSize.fitMode().name())
+                .map(variant -> new ImageContent(variant.getData(), variant.getMimeType(), ImageEncoding.etag(variant.getData())))
+                .switchIfEmpty(Mono.defer(() -> createVariant(key)));
+    }
+
+    private Mono<ImageContent> createVariant(VariantKey key) {
+        VariantSize variantSize = key.variantSize();
+        return imageService.getOriginalImageWithPayload(key.originalImageId())
+                .flatMap(originalImage -> resizeExecutor.execute(Mono.defer(() -> imageResizer.decode(ImageEncoding.originalBytes(originalImage),
+                                ImageEncoding.originalMimeType(originalImage), variantSize.width(), variantSize.height()))
+                        .flatMap(decodedImage -> imageResizer.resize(decodedImage, variantSize)
+                                .map(data -> new ImageContent(data, decodedImage.mimeType(), ImageEncoding.etag(data))))))
+                .flatMap(content -> imageVariantRepository.insertVariant(key.originalImageId(), variantSize.width(),
+                                variantSize.height(), variantSize.fitMode().name(), content.data(), content.mimeType())
+                        .thenReturn(content));
+    }
+
+    private record VariantKey(long originalImageId, VariantSize variantSize) {
+    }
+}
@@ -0,0 +1,25 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Shares one running request between all callers asking for the same key.
+ * The result is not kept once the request has finished.
+ */
+public class InFlightRequests<K, V> {
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    public Mono<V> join(K key, Supplier<Mono<V>> request) {
+        return Mono.defer(() -> inFlight.computeIfAbsent(key, k -> request.get()
+                .doFinally(signal -> inFlight.remove(k))
+                .cache()));
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,110 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pl.edu.agh.to.imageresizer.dto.CacheStats;
+import pl.edu.agh.to.imageresizer.model.ImageSize;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Keeps recently read listing pages in memory. A write drops the pages of the directory or image it changed;
+ * a page loaded while its directory or image was being written is not cached, and is not shared with readers
+ * arriving after the write.
+ */
+@Component
+public class ListingCache {
+    private static final int ROW_OVERHEAD_BYTES = 128;
+    private static final int GENERATION_STRIPES = 1024;
+    private static final String DIRECTORY_SCOPE = "directory";
+    private static final String IMAGE_SCOPE = "image";
+    private final LruCache<ListingKey, List<ResizedImage>> pages;
+    private final InFlightRequests<LoadKey, List<ResizedImage>> inFlightPages = new InFlightRequests<>();
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    public ListingCache(@Value("${image-resizer.listing-cache.max-bytes:33554432}") long maxBytes) {
+        this.pages = new LruCache<>(maxBytes, ListingCache::weigh);
+    }
+
+    public Flux<ResizedImage> get(ListingKey key, Supplier<Flux<ResizedImage>> loader) {
+        List<ResizedImage> cached = pages.get(key);
+        if (cached != null) {
+            return Flux.fromIterable(cached);
+        }
+        long loadedGeneration = currentGeneration(key.scope(), key.key());
+        return inFlightPages.join(new LoadKey(key, loadedGeneration), () -> loader.get()
+                        .collectList()
+                        .doOnNext(page -> put(key, page, loadedGeneration)))
+                .flatMapIterable(page -> page);
+    }
+
+    public void invalidateDirectory(String dirKey) {
+        invalidate(DIRECTORY_SCOPE, dirKey);
+    }
+
+    public void invalidateImage(String imageKey) {
+        invalidate(IMAGE_SCOPE, imageKey);
+    }
+
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < generations.length; i++) {
+            generations[i]++;
+        }
+        pages.clear();
+    }
+
+    public CacheStats getStats() {
+        return pages.getStats();
+    }
+
+    long directoryGeneration(String dirKey) {
+        return currentGeneration(DIRECTORY_SCOPE, dirKey);
+    }
+
+    private synchronized void invalidate(String scope, String key) {
+        generations[stripe(scope, key)]++;
+        pages.removeIf(listingKey -> listingKey.scope().equals(scope) && Objects.equals(listingKey.key(), key));
+    }
+
+    private synchronized long currentGeneration(String scope, String key) {
+        return generations[stripe(scope, key)];
+    }
+
+    private synchronized void put(ListingKey key, List<ResizedImage> page, long loadedGeneration) {
+        if (generations[stripe(key.scope(), key.key())] == loadedGeneration) {
+            pages.put(key, page);
+        }
+    }
+
+    private static int stripe(String scope, String key) {
+        return Math.floorMod(Objects.hash(scope, key), GENERATION_STRIPES);
+    }
+
+    private static long weigh(List<ResizedImage> page) {
+        long bytes = 0;
+        for (ResizedImage image : page) {
+            bytes += ROW_OVERHEAD_BYTES;
+            bytes += image.getData() == null ? 0 : image.getData().length;
+            bytes += image.getBase64() == null ? 0 : image.getBase64().length();
+        }
+        return bytes;
+    }
+
+    public record ListingKey(String scope, String key, ImageSize imageSize, String position) {
+
+        public static ListingKey byDirectory(String dirKey, ImageSize imageSize, String position) {
+            return new ListingKey(DIRECTORY_SCOPE, dirKey, imageSize, position);
+        }
+
+        public static ListingKey byImageKey(String imageKey, ImageSize imageSize, String position) {
+            return new ListingKey(IMAGE_SCOPE, imageKey, imageSize, position);
+        }
+    }
+
+    private record LoadKey(ListingKey key, long generation) {
+    }
+}
@@ -1,22 +1,66 @@
 package pl.edu.agh.to.imageresizer.services;
 
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.repository.Modifying;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import pl.edu.agh.to.imageresizer.model.OriginalImage;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface OriginalImageRepository extends ReactiveCrudRepository<OriginalImage, Long> {
 
-    @Query("SELECT o.* FROM original_images o " +
-            "LEFT JOIN resized_images r " +
-            "ON o.image_id = r.original_image " +
-            "AND r.width = :width " +
-            "AND r.height = :height " +
-            "WHERE r.image_id IS NULL")
-    Flux<OriginalImage> findOriginalImagesWithoutResizedImageOfSize(int width, int height, Pageable pageable);
     Mono<OriginalImage> findByImageKey(String imageKey);
 
+    @Query("SELECT o.content_hash FROM original_images o " +
+            "WHERE o.image_key = :imageKey " +
+            "AND o.content_hash IS NOT NULL " +
+            "LIMIT 1")
+    Mono<String> findContentHashByImageKey(String imageKey);
+
+    @Query("SELECT o.* FROM original_images o " +
+            "WHERE o.content_hash = :contentHash " +
+            "AND (o.data IS NOT NULL OR o.base64 IS NOT NULL) " +
+            "ORDER BY o.image_id " +
+            "LIMIT 1")
+    Mono<OriginalImage> findPayloadSourceByContentHash(String contentHash);
+
+    @Modifying
+    @Query("UPDATE original_images heir " +
+            "SET data = src.data, base64 = src.base64, mime_type = src.mime_type " +
+            "FROM original_images src " +
+            "WHERE src.image_id = :imageId " +
+            "AND src.content_hash IS NOT NULL " +
+            "AND (src.data IS NOT NULL OR src.base64 IS NOT NULL) " +
+            "AND heir.image_id = (SELECT min(o.image_id) FROM original_images o " +
+            "    WHERE o.content_hash = src.content_hash AND o.image_id <> src.image_id " +
+            "    AND o.data IS NULL AND o.base64 IS NULL) " +
+            "AND NOT EXISTS (SELECT 1 FROM original_images keeper " +
+            "    WHERE keeper.content_hash = src.content_hash AND keeper.image_id <> src.image_id " +
+            "    AND (keeper.data IS NOT NULL OR keeper.base64 IS NOT NULL))")
+    Mono<Integer> handOverPayloadOfImage(long imageId);
+
+    @Modifying
+    @Query("WITH subtree AS (" +
+            "    SELECT c.directory_id FROM directories d " +
+            "    JOIN directories c ON c.path >= d.path AND c.path < d.path || '~' " +
+            "    WHERE d.directory_key = :dirKey" +
+            "), doomed AS (" +
+            "    SELECT o.image_id FROM original_images o WHERE o.parent_directory_id IN (SELECT directory_id FROM subtree)" +
+            "), heirs AS (" +
+            "    SELECT DISTINCT ON (o.content_hash) o.image_id AS heir_id, src.data, src.base64, src.mime_type " +
+            "    FROM original_images o " +
+            "    JOIN original_images src ON src.content_hash = o.content_hash " +
+            "    WHERE src.image_id IN (SELECT image_id FROM doomed) " +
+            "    AND (src.data IS NOT NULL OR src.base64 IS NOT NULL) " +
+            "    AND o.image_id NOT IN (SELECT image_id FROM doomed) " +
+            "    AND o.data IS NULL AND o.base64 IS NULL " +
+            "    AND NOT EXISTS (SELECT 1 FROM original_images keeper " +
+            "        WHERE keeper.content_hash = o.content_hash AND keeper.image_id NOT IN (SELECT image_id FROM doomed) " +
+            "        AND (keeper.data IS NOT NULL OR keeper.base64 IS NOT NULL)) " +
+            "    ORDER BY o.content_hash, o.image_id" +
+            ") " +
+            "UPDATE original_images o SET data = h.data, base64 = h.base64, mime_type = h.mime_type " +
+            "FROM heirs h WHERE o.image_id = h.heir_id")
+    Mono<Integer> handOverPayloadsOfDirectory(String dirKey);
+
     Mono<Void> deleteAllByParentDirectoryId(Long parentDirectoryId);
 }
@@ -0,0 +1,54 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque tokens for keyset pagination. A token wraps the sort key of the last row a client has seen;
+ * an empty token starts from the beginning.
+ */
+public final class PageCursor {
+    private static final String IMAGE_PREFIX = "i:";
+    private static final String DIRECTORY_PREFIX = "d:";
+
+    private PageCursor() {
+    }
+
+    public static String ofImageId(long imageId) {
+        return encode(IMAGE_PREFIX + imageId);
+    }
+
+    public static String ofDirectoryKey(String directoryKey) {
+        return encode(DIRECTORY_PREFIX + directoryKey);
+    }
+
+    public static long imageId(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(decode(cursor, IMAGE_PREFIX));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    public static String directoryKey(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return "";
+        }
+        return decode(cursor, DIRECTORY_PREFIX);
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String cursor, String prefix) {
+        String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        if (!value.startsWith(prefix)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return value.substring(prefix.length());
+    }
+}
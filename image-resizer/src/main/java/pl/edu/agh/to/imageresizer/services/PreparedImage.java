@@ -0,0 +1,9 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import pl.edu.agh.to.imageresizer.model.OriginalImage;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+
+import java.util.List;
+
+public record PreparedImage(OriginalImage originalImage, List<ResizedImage> resizedImages) {
+}
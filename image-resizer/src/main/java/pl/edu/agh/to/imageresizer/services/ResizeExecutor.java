@@ -0,0 +1,106 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pl.edu.agh.to.imageresizer.dto.ResizeExecutorStats;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class ResizeExecutor implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(ResizeExecutor.class);
+    private static final Duration MIN_RETRY_BACKOFF = Duration.ofMillis(50);
+    private static final Duration MAX_RETRY_BACKOFF = Duration.ofSeconds(1);
+    private final AtomicLong rejectedTasks = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+    private final Scheduler scheduler;
+    private final int queueCapacity;
+    private final int maxRetries;
+
+    @Autowired
+    public ResizeExecutor(@Value("${image-resizer.resize.threads:0}") int threads,
+                          @Value("${image-resizer.resize.queue-capacity:64}") int queueCapacity,
+                          @Value("${image-resizer.resize.max-retries:20}") int maxRetries) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.queueCapacity = queueCapacity;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory(), (task, pool) -> {
+            rejectedTasks.incrementAndGet();
+            throw new RejectedExecutionException("Resize queue is full");
+        });
+        this.scheduler = Schedulers.fromExecutorService(executor, "resize");
+        logger.info("Resize executor: {} threads, queue capacity {}", poolSize, queueCapacity);
+    }
+
+    public <T> Mono<T> execute(Mono<T> work) {
+        return work.subscribeOn(scheduler)
+                .retryWhen(retryWhenRejected());
+    }
+
+    public <T> Flux<T> execute(Flux<T> work) {
+        return work.subscribeOn(scheduler)
+                .retryWhen(retryWhenRejected());
+    }
+
+    public int getParallelism() {
+        return executor.getCorePoolSize();
+    }
+
+    public boolean isSaturated() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public ResizeExecutorStats getStats() {
+        return new ResizeExecutorStats(
+                executor.getCorePoolSize(),
+                executor.getActiveCount(),
+                executor.getQueue().size(),
+                queueCapacity,
+                executor.getCompletedTaskCount(),
+                rejectedTasks.get()
+        );
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    private Retry retryWhenRejected() {
+        return Retry.backoff(maxRetries, MIN_RETRY_BACKOFF)
+                .maxBackoff(MAX_RETRY_BACKOFF)
+                .filter(RejectedExecutionException.class::isInstance)
+                .doBeforeRetry(signal -> logger.debug("Resize queue full, retry {}", signal.totalRetries() + 1))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "resize-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,22 +1,121 @@
 package pl.edu.agh.to.imageresizer.services;
 
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.repository.Modifying;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import pl.edu.agh.to.imageresizer.model.ResizedImage;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface ResizedImageRepository extends ReactiveCrudRepository<ResizedImage, Long> {
-    Flux<ResizedImage> findResizedImagesBySessionKeyAndWidthAndHeight(String key, int width, int height, Pageable pageable);
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "LEFT JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.session_key=:key AND r.width=:width AND r.height=:height " +
+                    "LIMIT :limit OFFSET :offset"
+    )
+    Flux<ResizedImage> findResizedImagesBySessionKeyAndWidthAndHeight(String key, int width, int height, int limit, long offset);
 
-    Flux<ResizedImage> findResizedImagesByImageKeyAndWidthAndHeight(String key, int width, int height, Pageable pageable);
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "LEFT JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.image_key=:key AND r.width=:width AND r.height=:height " +
+                    "LIMIT :limit OFFSET :offset"
+    )
+    Flux<ResizedImage> findResizedImagesByImageKeyAndWidthAndHeight(String key, int width, int height, int limit, long offset);
 
     Flux<ResizedImage> findResizedImageByImageKey(String imageKey);
 
-    Flux<ResizedImage> findResizedImagesByWidthAndHeight(int width, int height, Pageable pageable);
+    Mono<ResizedImage> findFirstByImageKeyAndWidthAndHeight(String imageKey, int width, int height);
+
+    @Query(
+            "SELECT r.content_hash " +
+                    "FROM resized_images r " +
+                    "WHERE r.image_key=:imageKey AND r.width=:width AND r.height=:height " +
+                    "AND r.content_hash IS NOT NULL " +
+                    "LIMIT 1"
+    )
+    Mono<String> findContentHash(String imageKey, int width, int height);
+
+    Flux<ResizedImage> findAllByOriginalImageId(long originalImageId);
+
+    @Query(
+            "SELECT DISTINCT ON (r.content_hash) r.* " +
+                    "FROM resized_images r " +
+                    "WHERE r.content_hash = ANY(CAST(:contentHashes AS varchar[])) " +
+                    "AND (r.data IS NOT NULL OR r.base64 IS NOT NULL) " +
+                    "ORDER BY r.content_hash, r.image_id"
+    )
+    Flux<ResizedImage> findPayloadSourcesByContentHashes(String[] contentHashes);
+
+    @Modifying
+    @Query("WITH doomed AS (" +
+            "    SELECT r.image_id FROM resized_images r WHERE r.original_image = :originalImageId" +
+            "), heirs AS (" +
+            "    SELECT DISTINCT ON (r.content_hash) r.image_id AS heir_id, src.data, src.base64, src.mime_type " +
+            "    FROM resized_images r " +
+            "    JOIN resized_images src ON src.content_hash = r.content_hash " +
+            "    WHERE src.image_id IN (SELECT image_id FROM doomed) " +
+            "    AND (src.data IS NOT NULL OR src.base64 IS NOT NULL) " +
+            "    AND r.image_id NOT IN (SELECT image_id FROM doomed) " +
+            "    AND r.data IS NULL AND r.base64 IS NULL " +
+            "    AND NOT EXISTS (SELECT 1 FROM resized_images keeper " +
+            "        WHERE keeper.content_hash = r.content_hash AND keeper.image_id NOT IN (SELECT image_id FROM doomed) " +
+            "        AND (keeper.data IS NOT NULL OR keeper.base64 IS NOT NULL)) " +
+            "    ORDER BY r.content_hash, r.image_id" +
+            ") " +
+            "UPDATE resized_images r SET data = h.data, base64 = h.base64, mime_type = h.mime_type " +
+            "FROM heirs h WHERE r.image_id = h.heir_id")
+    Mono<Integer> handOverPayloadsOfImage(long originalImageId);
+
+    @Modifying
+    @Query("WITH subtree AS (" +
+            "    SELECT c.directory_id FROM directories d " +
+            "    JOIN directories c ON c.path >= d.path AND c.path < d.path || '~' " +
+            "    WHERE d.directory_key = :dirKey" +
+            "), doomed AS (" +
+            "    SELECT r.image_id FROM resized_images r " +
+            "    JOIN original_images o ON o.image_id = r.original_image " +
+            "    WHERE o.parent_directory_id IN (SELECT directory_id FROM subtree)" +
+            "), heirs AS (" +
+            "    SELECT DISTINCT ON (r.content_hash) r.image_id AS heir_id, src.data, src.base64, src.mime_type " +
+            "    FROM resized_images r " +
+            "    JOIN resized_images src ON src.content_hash = r.content_hash " +
+            "    WHERE src.image_id IN (SELECT image_id FROM doomed) " +
+            "    AND (src.data IS NOT NULL OR src.base64 IS NOT NULL) " +
+            "    AND r.image_id NOT IN (SELECT image_id FROM doomed) " +
+            "    AND r.data IS NULL AND r.base64 IS NULL " +
+            "    AND NOT EXISTS (SELECT 1 FROM resized_images keeper " +
+            "        WHERE keeper.content_hash = r.content_hash AND keeper.image_id NOT IN (SELECT image_id FROM doomed) " +
+            "        AND (keeper.data IS NOT NULL OR keeper.base64 IS NOT NULL)) " +
+            "    ORDER BY r.content_hash, r.image_id" +
+            ") " +
+            "UPDATE resized_images r SET data = h.data, base64 = h.base64, mime_type = h.mime_type " +
+            "FROM heirs h WHERE r.image_id = h.heir_id")
+    Mono<Integer> handOverPayloadsOfDirectory(String dirKey);
+
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "LEFT JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.original_image = ANY(CAST(:originalImageIds AS bigint[])) " +
+                    "AND ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0))"
+    )
+    Flux<ResizedImage> findResizedImagesOfOriginals(Long[] originalImageIds, int width, int height);
+
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "LEFT JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.width=:width AND r.height=:height " +
+                    "LIMIT :limit OFFSET :offset"
+    )
+    Flux<ResizedImage> findResizedImagesByWidthAndHeight(int width, int height, int limit, long offset);
 
     @Query(
-            "SELECT * " +
+            "SELECT r.*, o.placeholder " +
                     "FROM resized_images r " +
                     "JOIN original_images o ON o.image_id=r.original_image " +
                     "JOIN directories d ON d.directory_id=o.parent_directory_id " +
@@ -26,4 +125,52 @@ public interface ResizedImageRepository extends ReactiveCrudRepository<ResizedIm
     )
     Flux<ResizedImage> findResizedImagesByDir(String key, int width, int height, int limit, long offset);
 
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "LEFT JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ResizedImage> findResizedImagesAfter(int width, int height, long afterImageId, int limit);
+
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "LEFT JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.session_key=:sessionKey " +
+                    "AND ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ResizedImage> findResizedImagesBySessionKeyAfter(String sessionKey, int width, int height, long afterImageId, int limit);
+
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "LEFT JOIN original_images o ON o.image_id=r.original_image " +
+                    "WHERE r.image_key=:imageKey " +
+                    "AND ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ResizedImage> findResizedImagesByImageKeyAfter(String imageKey, int width, int height, long afterImageId, int limit);
+
+    @Query(
+            "SELECT r.*, o.placeholder " +
+                    "FROM resized_images r " +
+                    "JOIN original_images o ON o.image_id=r.original_image " +
+                    "JOIN directories d ON d.directory_id=o.parent_directory_id " +
+                    "WHERE d.directory_key=:key " +
+                    "AND ((r.width=:width AND r.height=:height) OR (r.width=0 AND r.height=0)) " +
+                    "AND r.image_id > :afterImageId " +
+                    "ORDER BY r.image_id " +
+                    "LIMIT :limit"
+    )
+    Flux<ResizedImage> findResizedImagesByDirAfter(String key, int width, int height, long afterImageId, int limit);
+
 }
@@ -0,0 +1,9 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import pl.edu.agh.to.imageresizer.dto.ImageContent;
+import pl.edu.agh.to.imageresizer.dto.SpriteTile;
+
+import java.util.List;
+
+public record Sprite(int width, int height, List<SpriteTile> tiles, ImageContent image) {
+}
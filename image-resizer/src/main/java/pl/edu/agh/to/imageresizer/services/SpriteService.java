@@ -0,0 +1,121 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.edu.agh.to.imageresizer.dto.CacheStats;
+import pl.edu.agh.to.imageresizer.dto.ImageContent;
+import pl.edu.agh.to.imageresizer.dto.SpriteTile;
+import pl.edu.agh.to.imageresizer.model.ImageSize;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import reactor.core.publisher.Mono;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Composes the stored thumbnails of one directory listing page into a single JPEG. A sprite is cached until the
+ * next write that invalidates the directory in the {@link ListingCache}.
+ */
+@Service
+public class SpriteService {
+    private static final int COLUMNS = 5;
+    private static final int TILE_OVERHEAD_BYTES = 64;
+    private static final String MIME_TYPE = "image/jpeg";
+    private final ImageService imageService;
+    private final ResizeExecutor resizeExecutor;
+    private final ListingCache listingCache;
+    private final LruCache<SpriteKey, CachedSprite> cache;
+    private final InFlightRequests<SpriteLoadKey, CachedSprite> inFlightSprites = new InFlightRequests<>();
+
+    public SpriteService(ImageService imageService, ResizeExecutor resizeExecutor, ListingCache listingCache,
+                         @Value("${image-resizer.sprites.cache-max-bytes:16777216}") long cacheMaxBytes) {
+        this.imageService = imageService;
+        this.resizeExecutor = resizeExecutor;
+        this.listingCache = listingCache;
+        this.cache = new LruCache<>(cacheMaxBytes,
+                cached -> cached.sprite().image().data().length + (long) cached.sprite().tiles().size() * TILE_OVERHEAD_BYTES);
+    }
+
+    public Mono<Sprite> getDirectorySprite(String dirKey, ImageSize imageSize, int page) {
+        SpriteKey key = new SpriteKey(dirKey, imageSize, page);
+        long generation = listingCache.directoryGeneration(dirKey);
+        CachedSprite cached = cache.get(key);
+        if (cached != null && cached.generation() == generation) {
+            return Mono.just(cached.sprite());
+        }
+        return inFlightSprites.join(new SpriteLoadKey(key, generation), () -> imageService.getResizedImagesByDirKey(dirKey, imageSize, page)
+                        .collectList()
+                        .filter(images -> !images.isEmpty())
+                        .flatMap(images -> resizeExecutor.execute(Mono.fromCallable(() -> compose(images, imageSize))))
+                        .map(sprite -> new CachedSprite(sprite, generation))
+                        .doOnNext(sprite -> {
+                            if (listingCache.directoryGeneration(dirKey) == generation) {
+                                cache.put(key, sprite);
+                            }
+                        }))
+                .map(CachedSprite::sprite);
+    }
+
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    static Sprite compose(List<ResizedImage> images, ImageSize imageSize) throws IOException {
+        int columns = Math.min(COLUMNS, images.size());
+        int rows = (images.size() + columns - 1) / columns;
+        int width = columns * imageSize.getWidth();
+        int height = rows * imageSize.getHeight();
+        BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = canvas.createGraphics();
+        List<SpriteTile> tiles = new ArrayList<>(images.size());
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            for (int i = 0; i < images.size(); i++) {
+                ResizedImage resizedImage = images.get(i);
+                int x = (i % columns) * imageSize.getWidth();
+                int y = (i / columns) * imageSize.getHeight();
+                BufferedImage thumbnail = readThumbnail(resizedImage);
+                if (thumbnail == null) {
+                    tiles.add(new SpriteTile(resizedImage.getImageKey(), resizedImage.getName(), x, y, 0, 0, true));
+                    continue;
+                }
+                graphics.drawImage(thumbnail, x, y, null);
+                tiles.add(new SpriteTile(resizedImage.getImageKey(), resizedImage.getName(), x, y,
+                        thumbnail.getWidth(), thumbnail.getHeight(), false));
+            }
+        } finally {
+            graphics.dispose();
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(canvas, "jpg", outputStream);
+        byte[] data = outputStream.toByteArray();
+        return new Sprite(width, height, tiles, new ImageContent(data, MIME_TYPE, ImageEncoding.etag(data)));
+    }
+
+    private static BufferedImage readThumbnail(ResizedImage resizedImage) {
+        if (resizedImage.getWidth() == ImageService.ERROR_WIDTH_AND_HEIGHT) {
+            return null;
+        }
+        try {
+            return ImageProbe.read(ImageEncoding.resizedBytes(resizedImage));
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private record SpriteKey(String dirKey, ImageSize imageSize, int page) {
+    }
+
+    private record SpriteLoadKey(SpriteKey key, long generation) {
+    }
+
+    private record CachedSprite(Sprite sprite, long generation) {
+    }
+}
@@ -0,0 +1,74 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import pl.edu.agh.to.imageresizer.dto.BackfillStatus;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import pl.edu.agh.to.imageresizer.model.BackfillProgress;
+import pl.edu.agh.to.imageresizer.model.Directory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+public class BackfillServiceTest {
+
+    private ImageMetadata original(long imageId, Long parentDirectoryId) {
+        return new ImageMetadata(imageId, "key" + imageId, "name", "sessionKey", "image/jpeg", 225, 225, parentDirectoryId, null);
+    }
+
+    private Directory directory(long directoryId) {
+        Directory directory = new Directory("dir" + directoryId, null, "dir" + directoryId, 0, 1);
+        directory.setDirectoryId(directoryId);
+        return directory;
+    }
+
+    @Test
+    public void resumeFromStoredCursorAndWalkPagesByImageId() {
+        // given
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        BackfillProgressRepository backfillProgressRepository = Mockito.mock(BackfillProgressRepository.class);
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        ImageService imageService = Mockito.mock(ImageService.class);
+        ListingCache listingCache = Mockito.spy(new ListingCache(1 << 20));
+
+        Mockito.when(backfillProgressRepository.findById(BackfillService.JOB_NAME))
+                .thenReturn(Mono.just(new BackfillProgress(BackfillService.JOB_NAME, 5L, null)));
+        Mockito.when(backfillProgressRepository.saveProgress(Mockito.eq(BackfillService.JOB_NAME), Mockito.anyLong()))
+                .thenReturn(Mono.just(1));
+        Mockito.when(imageMetadataRepository.findOriginalsMissingSizesAfter(Mockito.eq(5L), Mockito.any(), Mockito.any(), Mockito.eq(2)))
+                .thenReturn(Flux.just(original(6L, 1L), original(8L, null)));
+        Mockito.when(imageMetadataRepository.findOriginalsMissingSizesAfter(Mockito.eq(8L), Mockito.any(), Mockito.any(), Mockito.eq(2)))
+                .thenReturn(Flux.just(original(9L, 2L)));
+        Mockito.when(imageMetadataRepository.findOriginalsMissingSizesAfter(Mockito.eq(9L), Mockito.any(), Mockito.any(), Mockito.eq(2)))
+                .thenReturn(Flux.empty());
+        Mockito.when(imageService.resizeMissingSizes(Mockito.anyLong()))
+                .thenReturn(Mono.just(3L));
+        Mockito.when(imageService.resizeMissingSizes(8L))
+                .thenReturn(Mono.error(new IllegalArgumentException("Invalid image data")));
+        Mockito.when(directoryRepository.findAllById(Mockito.<Iterable<Long>>any()))
+                .thenAnswer(invocation -> Flux.fromIterable(invocation.<Iterable<Long>>getArgument(0)).map(this::directory));
+
+        BackfillService backfillService = new BackfillService(imageMetadataRepository, backfillProgressRepository,
+                directoryRepository, imageService, listingCache, 2, 2, false);
+
+        // when and then
+        StepVerifier.create(backfillService.run())
+                .verifyComplete();
+
+        Mockito.verify(imageMetadataRepository, Mockito.never())
+                .findOriginalsMissingSizesAfter(Mockito.eq(0L), Mockito.any(), Mockito.any(), Mockito.anyInt());
+        Mockito.verify(backfillProgressRepository).saveProgress(BackfillService.JOB_NAME, 8L);
+        Mockito.verify(backfillProgressRepository).saveProgress(BackfillService.JOB_NAME, 9L);
+        Mockito.verify(backfillProgressRepository).saveProgress(BackfillService.JOB_NAME, 0L);
+        Mockito.verify(listingCache).invalidateDirectory("dir1");
+        Mockito.verify(listingCache).invalidateDirectory("dir2");
+        Mockito.verify(listingCache, Mockito.never()).invalidateAll();
+
+        BackfillStatus status = backfillService.getStatus();
+        Assertions.assertEquals(9L, status.lastImageId());
+        Assertions.assertEquals(2, status.processedImages());
+        Assertions.assertEquals(6, status.createdVariants());
+        Assertions.assertEquals(1, status.failedImages());
+    }
+}
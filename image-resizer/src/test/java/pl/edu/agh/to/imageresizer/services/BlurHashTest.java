@@ -0,0 +1,53 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+public class BlurHashTest {
+
+    @Test
+    public void encodeAverageColourAsDcComponent() {
+        // given
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        fill(image, Color.WHITE);
+
+        // when
+        String hash = BlurHash.encode(image);
+
+        // then
+        Assertions.assertEquals(28, hash.length());
+        Assertions.assertEquals('L', hash.charAt(0));
+        Assertions.assertEquals("TSUA", hash.substring(2, 6));
+    }
+
+    @Test
+    public void pickComponentLayoutFromAspectRatio() {
+        // given
+        BufferedImage portrait = new BufferedImage(300, 400, BufferedImage.TYPE_INT_RGB);
+        fill(portrait, Color.RED);
+
+        // when
+        String hash = BlurHash.encode(portrait);
+
+        // then
+        Assertions.assertEquals(28, hash.length());
+        Assertions.assertEquals('T', hash.charAt(0));
+    }
+
+    @Test
+    public void rejectTooManyComponents() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BlurHash.encode(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), 10, 3));
+    }
+
+    private static void fill(BufferedImage image, Color color) {
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+    }
+}
@@ -0,0 +1,56 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DecodeAdmissionTest {
+
+    @Test
+    public void rejectImageAboveMaxPixelsWithoutDecoding() {
+        // given
+        DecodeAdmission decodeAdmission = new DecodeAdmission(50_000_000L, 512L * 1024 * 1024);
+        AtomicBoolean decoded = new AtomicBoolean();
+
+        // when and then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> decodeAdmission.admit(new ImageHeader(20_000, 20_000, "JPEG"),
+                () -> decoded.getAndSet(true)));
+        Assertions.assertFalse(decoded.get());
+        Assertions.assertEquals(1, decodeAdmission.getStats().rejected());
+    }
+
+    @Test
+    public void deferDecodeUntilMemoryBudgetIsFree() throws Exception {
+        // given
+        DecodeAdmission decodeAdmission = new DecodeAdmission(50_000_000L, 4096);
+        ImageHeader header = new ImageHeader(32, 32, "png");
+        CountDownLatch firstDecodeStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstDecode = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // when
+        Future<Boolean> first = executor.submit(() -> decodeAdmission.admit(header, () -> {
+            firstDecodeStarted.countDown();
+            return releaseFirstDecode.await(5, TimeUnit.SECONDS);
+        }));
+        Assertions.assertTrue(firstDecodeStarted.await(5, TimeUnit.SECONDS));
+        Future<Boolean> second = executor.submit(() -> decodeAdmission.admit(header, () -> true));
+        Thread.sleep(100);
+
+        // then
+        Assertions.assertFalse(second.isDone());
+        Assertions.assertEquals(0, decodeAdmission.getStats().availableBytes());
+        releaseFirstDecode.countDown();
+        Assertions.assertTrue(first.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(second.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, decodeAdmission.getStats().deferred());
+        Assertions.assertEquals(4096, decodeAdmission.getStats().availableBytes());
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,107 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DirectoryCounterUpdaterTest {
+
+    @Test
+    public void coalesceConcurrentChangesIntoOneExactUpdate() throws InterruptedException {
+        // given
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        Mockito.when(directoryRepository.applyCounterDeltas(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.just(2));
+        DirectoryCounterUpdater directoryCounterUpdater = new DirectoryCounterUpdater(directoryRepository, 200);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.submit(() -> directoryCounterUpdater.addImages(1L, 1));
+            executor.submit(() -> directoryCounterUpdater.add(2L, 1, 2));
+        }
+        executor.submit(() -> directoryCounterUpdater.addImages(1L, -10));
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // when
+        StepVerifier.create(directoryCounterUpdater.flush())
+                .verifyComplete();
+
+        // then
+        ArgumentCaptor<Long[]> directoryIds = ArgumentCaptor.forClass(Long[].class);
+        ArgumentCaptor<Integer[]> subDirectories = ArgumentCaptor.forClass(Integer[].class);
+        ArgumentCaptor<Integer[]> images = ArgumentCaptor.forClass(Integer[].class);
+        Mockito.verify(directoryRepository, Mockito.times(1))
+                .applyCounterDeltas(directoryIds.capture(), subDirectories.capture(), images.capture());
+        for (int i = 0; i < directoryIds.getValue().length; i++) {
+            if (directoryIds.getValue()[i] == 1L) {
+                Assertions.assertEquals(0, subDirectories.getValue()[i]);
+                Assertions.assertEquals(990, images.getValue()[i]);
+            } else {
+                Assertions.assertEquals(1000, subDirectories.getValue()[i]);
+                Assertions.assertEquals(2000, images.getValue()[i]);
+            }
+        }
+        Assertions.assertEquals(2, directoryIds.getValue().length);
+    }
+
+    @Test
+    public void keepChangesOfFailedFlush() {
+        // given
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        Mockito.when(directoryRepository.applyCounterDeltas(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.error(new RuntimeException("Connection lost")))
+                .thenReturn(Mono.just(1));
+        DirectoryCounterUpdater directoryCounterUpdater = new DirectoryCounterUpdater(directoryRepository, 200);
+        directoryCounterUpdater.addImages(1L, 3);
+
+        // when
+        StepVerifier.create(directoryCounterUpdater.flush())
+                .expectError(RuntimeException.class)
+                .verify();
+        directoryCounterUpdater.addImages(1L, 2);
+        StepVerifier.create(directoryCounterUpdater.flush())
+                .verifyComplete();
+
+        // then
+        Mockito.verify(directoryRepository).applyCounterDeltas(new Long[]{1L}, new Integer[]{0}, new Integer[]{5});
+    }
+
+    @Test
+    public void finishRunningFlushOnShutdown() throws Exception {
+        // given
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        Sinks.One<Integer> runningUpdate = Sinks.one();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Mockito.when(directoryRepository.applyCounterDeltas(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(runningUpdate.asMono().doOnCancel(() -> cancelled.set(true)))
+                .thenReturn(Mono.just(1));
+        DirectoryCounterUpdater directoryCounterUpdater = new DirectoryCounterUpdater(directoryRepository, 1);
+        directoryCounterUpdater.startFlushing();
+        directoryCounterUpdater.addImages(1L, 3);
+        Mockito.verify(directoryRepository, Mockito.timeout(1000))
+                .applyCounterDeltas(new Long[]{1L}, new Integer[]{0}, new Integer[]{3});
+        directoryCounterUpdater.addImages(1L, 2);
+
+        // when
+        CompletableFuture<Void> shutdown = CompletableFuture.runAsync(directoryCounterUpdater::destroy);
+        Assertions.assertThrows(TimeoutException.class, () -> shutdown.get(100, TimeUnit.MILLISECONDS));
+        runningUpdate.tryEmitValue(1);
+        shutdown.get(5, TimeUnit.SECONDS);
+
+        // then
+        Assertions.assertFalse(cancelled.get());
+        Mockito.verify(directoryRepository).applyCounterDeltas(new Long[]{1L}, new Integer[]{0}, new Integer[]{2});
+    }
+}
@@ -0,0 +1,243 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import pl.edu.agh.to.imageresizer.dto.DirectoryMetadata;
+import pl.edu.agh.to.imageresizer.dto.SubtreeStats;
+import pl.edu.agh.to.imageresizer.model.Directory;
+import pl.edu.agh.to.imageresizer.model.OriginalImage;
+import pl.edu.agh.to.imageresizer.model.ResizePolicy;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.model.StorageMode;
+import reactor.test.StepVerifier;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Runs the directory triggers and queries against a real Postgres, since the materialised path is maintained
+ * by the schema and cannot be checked with mocked repositories.
+ */
+public class DirectoryDatabaseTest {
+    private static final Path SCHEMA = Path.of("../db-init.sql");
+    private static EmbeddedPostgres postgres;
+    private static DatabaseClient databaseClient;
+    private static DirectoryRepository directoryRepository;
+    private static DirectoryMetadataRepository directoryMetadataRepository;
+    private static ImageBatchRepository imageBatchRepository;
+    private static ImageService imageService;
+
+    @BeforeAll
+    public static void startDatabase() throws Exception {
+        postgres = EmbeddedPostgres.builder().start();
+        try (Connection connection = postgres.getPostgresDatabase().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(Files.readString(SCHEMA));
+        }
+        ConnectionFactory connectionFactory = ConnectionFactories.get(
+                "r2dbc:postgresql://postgres@localhost:" + postgres.getPort() + "/postgres");
+        R2dbcEntityTemplate entityTemplate = new R2dbcEntityTemplate(connectionFactory);
+        R2dbcRepositoryFactory repositoryFactory = new R2dbcRepositoryFactory(entityTemplate);
+        TransactionalOperator transactionalOperator = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+        databaseClient = entityTemplate.getDatabaseClient();
+        directoryRepository = repositoryFactory.getRepository(DirectoryRepository.class);
+        directoryMetadataRepository = repositoryFactory.getRepository(DirectoryMetadataRepository.class);
+        imageBatchRepository = new ImageBatchRepository(databaseClient, entityTemplate, transactionalOperator, 32);
+        imageService = new ImageService(Mockito.mock(OriginalImageRepository.class), Mockito.mock(ResizedImageRepository.class),
+                directoryRepository, directoryMetadataRepository, Mockito.mock(ImageMetadataRepository.class),
+                Mockito.mock(ImageResizer.class), Mockito.mock(ResizeExecutor.class), new DeduplicationMetrics(), imageBatchRepository,
+                Mockito.mock(DirectoryCounterUpdater.class), new ListingCache(1 << 20), new ImageEventBus(null, null, new ObjectMapper(), false), transactionalOperator,
+                StorageMode.BINARY, ResizePolicy.EAGER);
+    }
+
+    @AfterAll
+    public static void stopDatabase() throws Exception {
+        postgres.close();
+    }
+
+    @Test
+    public void insertSetsMaterialisedPath() {
+        // given
+        Directory root = save("insert-root", null);
+        Directory child = save("insert-child", root.getDirectoryId());
+
+        // when
+        Directory grandchild = save("insert-grandchild", child.getDirectoryId());
+
+        // then
+        Assertions.assertEquals("/" + root.getDirectoryId() + "/", root.getPath());
+        Assertions.assertEquals(root.getPath() + child.getDirectoryId() + "/", child.getPath());
+        Assertions.assertEquals(child.getPath() + grandchild.getDirectoryId() + "/", grandchild.getPath());
+    }
+
+    @Test
+    public void batchInsertSetsPathsAndKeepsDuplicateKeys() {
+        // given
+        Directory root = save("batch-root", null);
+        List<Directory> directories = List.of(
+                new Directory("a", root.getDirectoryId(), "batch-a", 1, 2),
+                new Directory("b", root.getDirectoryId(), "batch-b", 0, 1),
+                new Directory("a", root.getDirectoryId(), "batch-a", 0, 3));
+
+        // when
+        List<Long> ids = imageBatchRepository.insertDirectories(directories).block();
+        List<Long> nestedIds = imageBatchRepository.insertDirectories(
+                List.of(new Directory("a1", ids.get(0), "batch-a1", 0, 0))).block();
+
+        // then
+        Assertions.assertEquals(3, ids.size());
+        Assertions.assertEquals("2", queryString(
+                "SELECT count(*)::text AS value FROM directories WHERE directory_key = 'batch-a'"));
+        Directory a = findById(ids.get(0));
+        Assertions.assertEquals(2, a.getImageCount());
+        Assertions.assertEquals(1, a.getSubDirectoriesCount());
+        Assertions.assertEquals(root.getPath() + ids.get(0) + "/", a.getPath());
+        Assertions.assertEquals(root.getPath() + ids.get(1) + "/", find("batch-b").getPath());
+        Assertions.assertEquals(3, findById(ids.get(2)).getImageCount());
+        Assertions.assertEquals(a.getPath() + nestedIds.get(0) + "/", find("batch-a1").getPath());
+    }
+
+    @Test
+    public void batchInsertMatchesImagesToTheirIds() {
+        // given
+        Directory root = save("images-root", null);
+        PreparedImage first = preparedImage("images-first", root.getDirectoryId());
+        PreparedImage second = preparedImage("images-second", root.getDirectoryId());
+        PreparedImage duplicate = preparedImage("images-first", root.getDirectoryId());
+
+        // when
+        List<PreparedImage> inserted = imageBatchRepository.insertImages(List.of(first, second, duplicate)).block();
+
+        // then
+        Assertions.assertEquals(List.of(first, second, duplicate), inserted);
+        for (PreparedImage image : inserted) {
+            long imageId = image.originalImage().getImageId();
+            Assertions.assertEquals(image.originalImage().getImageKey(), queryString(
+                    "SELECT image_key AS value FROM original_images WHERE image_id = " + imageId));
+            Assertions.assertEquals(image.originalImage().getImageKey(), queryString(
+                    "SELECT image_key AS value FROM resized_images WHERE original_image = " + imageId));
+        }
+        Assertions.assertEquals("2", queryString(
+                "SELECT count(*)::text AS value FROM original_images WHERE image_key = 'images-first'"));
+    }
+
+    @Test
+    public void moveRewritesPathsOfTheWholeSubtree() {
+        // given
+        Directory root = save("move-root", null);
+        Directory a = save("move-a", root.getDirectoryId());
+        Directory a1 = save("move-a1", a.getDirectoryId());
+        Directory b = save("move-b", root.getDirectoryId());
+
+        // when
+        StepVerifier.create(imageService.moveDirectory("move-a", "move-b"))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        // then
+        Directory moved = find("move-a");
+        Assertions.assertEquals(b.getDirectoryId(), moved.getParentDirectoryId());
+        Assertions.assertEquals(b.getPath() + a.getDirectoryId() + "/", moved.getPath());
+        Assertions.assertEquals(moved.getPath() + a1.getDirectoryId() + "/", find("move-a1").getPath());
+    }
+
+    @Test
+    public void moveIntoOwnSubtreeIsRejected() {
+        // given
+        Directory root = save("cycle-root", null);
+        Directory a = save("cycle-a", root.getDirectoryId());
+        Directory a1 = save("cycle-a1", a.getDirectoryId());
+
+        // when and then
+        StepVerifier.create(imageService.moveDirectory("cycle-a", "cycle-a1"))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+        StepVerifier.create(directoryRepository.moveDirectory(a.getDirectoryId(), a1.getDirectoryId()))
+                .expectError()
+                .verify();
+        Assertions.assertEquals(a.getPath(), find("cycle-a").getPath());
+        Assertions.assertEquals(root.getDirectoryId(), find("cycle-a").getParentDirectoryId());
+    }
+
+    @Test
+    public void moveOfUnknownDirectoryCompletesEmpty() {
+        // given
+        save("unknown-parent", null);
+
+        // when and then
+        StepVerifier.create(imageService.moveDirectory("unknown-missing", "unknown-parent"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void ancestorDescendantAndStatsQueriesFollowThePath() {
+        // given
+        Directory root = save("tree-root", null);
+        Directory child = saveWithImages("tree-child", root.getDirectoryId(), 2);
+        saveWithImages("tree-grandchild", child.getDirectoryId(), 3);
+        saveWithImages("tree-sibling", root.getDirectoryId(), 1);
+
+        // when and then
+        StepVerifier.create(directoryMetadataRepository.findPathToDirKey("tree-grandchild").map(DirectoryMetadata::directoryKey))
+                .expectNext("tree-root", "tree-child", "tree-grandchild")
+                .verifyComplete();
+        StepVerifier.create(directoryMetadataRepository.findDescendants("tree-child").map(DirectoryMetadata::directoryKey))
+                .expectNext("tree-grandchild")
+                .verifyComplete();
+        StepVerifier.create(directoryMetadataRepository.findDescendants("tree-root").map(DirectoryMetadata::directoryKey).collectList())
+                .expectNextMatches(keys -> keys.size() == 3
+                        && keys.indexOf("tree-child") < keys.indexOf("tree-grandchild")
+                        && keys.contains("tree-sibling"))
+                .verifyComplete();
+        StepVerifier.create(directoryMetadataRepository.findSubtreeStats("tree-root"))
+                .expectNext(new SubtreeStats("tree-root", 3, 6))
+                .verifyComplete();
+    }
+
+    private Directory save(String key, Long parentDirectoryId) {
+        return saveWithImages(key, parentDirectoryId, 0);
+    }
+
+    private Directory saveWithImages(String key, Long parentDirectoryId, int imageCount) {
+        directoryRepository.save(new Directory(key, parentDirectoryId, key, 0, imageCount)).block();
+        return find(key);
+    }
+
+    private Directory find(String key) {
+        return directoryRepository.findByDirectoryKey(key).block();
+    }
+
+    private Directory findById(long directoryId) {
+        return directoryRepository.findById(directoryId).block();
+    }
+
+    private String queryString(String sql) {
+        return databaseClient.sql(sql)
+                .map((row, metadata) -> row.get("value", String.class))
+                .first()
+                .block();
+    }
+
+    private PreparedImage preparedImage(String imageKey, long parentDirectoryId) {
+        OriginalImage originalImage = new OriginalImage(imageKey, null, "session", imageKey, 10, 10, parentDirectoryId);
+        originalImage.setData(new byte[]{1, 2, 3});
+        ResizedImage resizedImage = new ResizedImage(imageKey, imageKey, null, "session", 100, 100);
+        resizedImage.setData(new byte[]{4, 5, 6});
+        return new PreparedImage(originalImage, List.of(resizedImage));
+    }
+}
@@ -1,13 +1,27 @@
 package pl.edu.agh.to.imageresizer.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpSession;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.server.ResponseStatusException;
 import pl.edu.agh.to.imageresizer.controllers.ImageController;
+import pl.edu.agh.to.imageresizer.dto.DirectoryMetadata;
+import pl.edu.agh.to.imageresizer.dto.DirectoryView;
+import pl.edu.agh.to.imageresizer.dto.ImageContent;
 import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import pl.edu.agh.to.imageresizer.dto.ImageReference;
+import pl.edu.agh.to.imageresizer.dto.StreamComplete;
+import pl.edu.agh.to.imageresizer.dto.SubtreeStats;
 import pl.edu.agh.to.imageresizer.model.ImageSize;
 import pl.edu.agh.to.imageresizer.model.OriginalImage;
 import pl.edu.agh.to.imageresizer.model.ResizedImage;
@@ -15,10 +29,20 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
 class ImageControllerTest {
@@ -26,7 +50,9 @@ class ImageControllerTest {
     private final String ERROR = "ERROR";
     @Mock
     private ImageService imageService = Mockito.mock(ImageService.class);
-    private final ImageController imageController = new ImageController(imageService);
+    private final SpriteService spriteService = Mockito.mock(SpriteService.class);
+    private final ImageController imageController = new ImageController(imageService, Mockito.mock(ImageVariantService.class), spriteService,
+            new ImageStreamReader(new ObjectMapper()));
 
     @Test
     void getImagesBySessionKey() {
@@ -36,20 +62,51 @@ class ImageControllerTest {
         ResizedImage image2 = new ResizedImage("key2", "image2", ERROR, "base64_2", 0, 0);
         ResizedImage image3 = new ResizedImage("key3", "image3", "base64_3", "base64_3", 0, 0);
 
-        ImageDto completeRequest = new ImageDto("COMPLETE_REQUEST", "COMPLETE_REQUEST", "COMPLETE_REQUEST", 0, 0);
         ImageDto imageDto1 = new ImageDto("key1", "image1", "base64_1", 0, 0);
         ImageDto imageDto2 = new ImageDto("key2", "image2", ERROR, 0, 0);
         ImageDto imageDto3 = new ImageDto("key3", "image3", "base64_3", 0, 0);
 
-        Mockito.when(imageService.getResizedImagesForSessionKey(sessionKey, ImageSize.MEDIUM))
+        Mockito.when(imageService.getResizedImagesForSessionKey(sessionKey, ImageSize.MEDIUM, 0))
                 .thenReturn(Flux.just(image1, image2, image3));
+        stubCursorOf();
 
         //when and then
-        StepVerifier.create(imageController.getImagesBySessionKey(sessionKey, "medium"))
-                .expectNext(ResponseEntity.ok(imageDto1))
-                .expectNext(ResponseEntity.status(HttpStatus.NOT_FOUND).body(imageDto2))
-                .expectNext(ResponseEntity.ok(imageDto3))
-                .expectNext(ResponseEntity.ok(completeRequest))
+        StepVerifier.create(imageController.getImagesBySessionKey(sessionKey, "medium", 0))
+                .expectNextMatches(event -> "image".equals(event.event()) && imageDto1.equals(event.data()))
+                .expectNextMatches(event -> "image-error".equals(event.event()) && imageDto2.equals(event.data()))
+                .expectNextMatches(event -> "image".equals(event.event()) && imageDto3.equals(event.data()))
+                .expectNextMatches(event -> "complete".equals(event.event()) && new StreamComplete("key3", 3).equals(event.data()))
+                .verifyComplete();
+    }
+
+    @Test
+    void variantEventsOfUnknownDirectory() {
+        // given
+        Mockito.when(imageService.getVariantReadyEvents("missing"))
+                .thenReturn(Flux.error(new NoSuchElementException("Unknown directory missing")));
+
+        //when and then
+        StepVerifier.create(imageController.getImageEvents("missing"))
+                .expectErrorMatches(e -> e instanceof ResponseStatusException statusException
+                        && statusException.getStatusCode() == HttpStatus.NOT_FOUND)
+                .verify();
+    }
+
+    @Test
+    void imageEventsCarryThePlaceholder() {
+        // given
+        ResizedImage image = new ResizedImage("key1", "image1", "base64_1", "session", 200, 200);
+        image.setPlaceholder("LEHV6nWB2yk8pyo0adR*.7kCMdnj");
+
+        Mockito.when(imageService.getResizedImagesByImageKey("key1", ImageSize.MEDIUM, 0))
+                .thenReturn(Flux.just(image));
+        stubCursorOf();
+
+        //when and then
+        StepVerifier.create(imageController.getImageByImageKey("key1", "medium", 0))
+                .expectNextMatches(event -> "image".equals(event.event())
+                        && "LEHV6nWB2yk8pyo0adR*.7kCMdnj".equals(((ImageDto) event.data()).placeholder()))
+                .expectNextMatches(event -> "complete".equals(event.event()))
                 .verifyComplete();
     }
 
@@ -59,16 +116,16 @@ class ImageControllerTest {
         String key = "test-session";
         ResizedImage image1 = new ResizedImage("key1", "image1", "base64_1", "smallUrl1", 0, 0);
 
-        ImageDto completeRequest = new ImageDto("COMPLETE_REQUEST", "COMPLETE_REQUEST", "COMPLETE_REQUEST", 0, 0);
         ImageDto imageDto1 = new ImageDto("key1", "image1", "base64_1", 0, 0);
 
-        Mockito.when(imageService.getResizedImagesByImageKey(key, ImageSize.MEDIUM))
+        Mockito.when(imageService.getResizedImagesByImageKey(key, ImageSize.MEDIUM, 0))
                 .thenReturn(Flux.just(image1));
+        stubCursorOf();
 
         //when and then
-        StepVerifier.create(imageController.getImageByImageKey(key, "medium"))
-                .expectNext(ResponseEntity.ok(imageDto1))
-                .expectNext(ResponseEntity.ok(completeRequest))
+        StepVerifier.create(imageController.getImageByImageKey(key, "medium", 0))
+                .expectNextMatches(event -> "image".equals(event.event()) && "key1".equals(event.id()) && imageDto1.equals(event.data()))
+                .expectNextMatches(event -> "complete".equals(event.event()) && "key1".equals(event.id()))
                 .verifyComplete();
     }
 
@@ -78,16 +135,16 @@ class ImageControllerTest {
         String key = "test-session";
         ResizedImage image1 = new ResizedImage("key1", "image1", ERROR, "smallUrl1", 0, 0);
 
-        ImageDto completeRequest = new ImageDto("COMPLETE_REQUEST", "COMPLETE_REQUEST", "COMPLETE_REQUEST", 0, 0);
         ImageDto imageDto1 = new ImageDto("key1", "image1", ERROR, 0, 0);
 
-        Mockito.when(imageService.getResizedImagesByImageKey(key, ImageSize.MEDIUM))
+        Mockito.when(imageService.getResizedImagesByImageKey(key, ImageSize.MEDIUM, 0))
                 .thenReturn(Flux.just(image1));
+        stubCursorOf();
 
         //when and then
-        StepVerifier.create(imageController.getImageByImageKey(key, "medium"))
-                .expectNext(ResponseEntity.status(HttpStatus.NOT_FOUND).body(imageDto1))
-                .expectNext(ResponseEntity.ok(completeRequest))
+        StepVerifier.create(imageController.getImageByImageKey(key, "medium", 0))
+                .expectNextMatches(event -> "image-error".equals(event.event()) && imageDto1.equals(event.data()))
+                .expectNextMatches(event -> "complete".equals(event.event()))
                 .verifyComplete();
     }
 
@@ -98,18 +155,30 @@ class ImageControllerTest {
         ResizedImage image2 = new ResizedImage("key2", "image2", ERROR, "base64_2", 0, 0);
         ResizedImage image3 = new ResizedImage("key3", "image3", "base64_3", "base64_3", 0, 0);
 
-        ImageDto completeRequest = new ImageDto("COMPLETE_REQUEST", "COMPLETE_REQUEST", "COMPLETE_REQUEST", 0, 0);
         ImageDto imageDto1 = new ImageDto("key1", "image1", "base64_1", 0, 0);
         ImageDto imageDto2 = new ImageDto("key2", "image2", ERROR, 0, 0);
         ImageDto imageDto3 = new ImageDto("key3", "image3", "base64_3", 0, 0);
-        Mockito.when(imageService.getAllResizedImages(ImageSize.MEDIUM)).thenReturn(Flux.just(image1, image2, image3));
+        Mockito.when(imageService.getAllResizedImages(ImageSize.MEDIUM, 0)).thenReturn(Flux.just(image1, image2, image3));
+        stubCursorOf();
 
         //when and then
-        StepVerifier.create(imageController.getAllImages("medium"))
-                .expectNext(ResponseEntity.ok(imageDto1))
-                .expectNext(ResponseEntity.status(HttpStatus.NOT_FOUND).body(imageDto2))
-                .expectNext(ResponseEntity.ok(imageDto3))
-                .expectNext(ResponseEntity.ok(completeRequest))
+        StepVerifier.create(imageController.getAllImages("medium", 0))
+                .expectNextMatches(event -> "image".equals(event.event()) && imageDto1.equals(event.data()))
+                .expectNextMatches(event -> "image-error".equals(event.event()) && imageDto2.equals(event.data()))
+                .expectNextMatches(event -> "image".equals(event.event()) && imageDto3.equals(event.data()))
+                .expectNextMatches(event -> "complete".equals(event.event()) && new StreamComplete("key3", 3).equals(event.data()))
+                .verifyComplete();
+    }
+
+    @Test
+    void getAllImagesEmptyPage() {
+        //given
+        Mockito.when(imageService.getAllResizedImages(ImageSize.MEDIUM, 3)).thenReturn(Flux.empty());
+
+        //when and then
+        StepVerifier.create(imageController.getAllImages("medium", 3))
+                .expectNextMatches(event -> "complete".equals(event.event()) && event.id() == null
+                        && new StreamComplete(null, 0).equals(event.data()))
                 .verifyComplete();
     }
 
@@ -125,8 +194,8 @@ class ImageControllerTest {
                 new ImageDto("image2", "url2", "smallUrl2", 0, 0)
         );
 
-        Mockito.when(imageService.resizeAndSaveOriginalImage(Mockito.any(ImageDto.class), Mockito.eq(sessionKey)))
-                .thenReturn(Mono.empty());
+        Mockito.when(imageService.resizeAndSaveOriginalImages(Mockito.any(), Mockito.eq(sessionKey), Mockito.isNull()))
+                .thenReturn(Flux.empty());
 
         //when and then
         StepVerifier.create(imageController.uploadImages(images, mockSession))
@@ -135,6 +204,266 @@ class ImageControllerTest {
 
     }
 
+    @Test
+    void uploadImagesWhenResizeQueueIsFull() {
+        //given
+        HttpSession mockSession = mock(HttpSession.class);
+        Mockito.when(mockSession.getId()).thenReturn("test-session");
+        Mockito.when(imageService.isResizeQueueSaturated()).thenReturn(true);
+
+        //when and then
+        StepVerifier.create(imageController.uploadImages(List.of(new ImageDto("image1", "url1", "smallUrl1", 0, 0)), mockSession))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE)
+                .verifyComplete();
+        Mockito.verify(imageService, Mockito.never()).resizeAndSaveOriginalImages(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void getImagesByDirKeyWithCursor() {
+        // given
+        ResizedImage image1 = new ResizedImage("key1", "image1", "base64_1", "session", 200, 200);
+        image1.setImageId(6L);
+        ResizedImage image2 = new ResizedImage("key2", "image2", "base64_2", "session", 200, 200);
+        image2.setImageId(9L);
+        String cursor = PageCursor.ofImageId(5L);
+
+        Mockito.when(imageService.getResizedImagesByDirKeyAfter("dirKey", ImageSize.MEDIUM, 5L))
+                .thenReturn(Flux.just(image1, image2));
+        stubImageIdCursorOf();
+
+        //when and then
+        StepVerifier.create(imageController.getImagesByDirKey("dirKey", "medium", cursor, null))
+                .expectNextMatches(event -> PageCursor.ofImageId(6L).equals(event.id())
+                        && "key1".equals(((ImageDto) event.data()).imageKey()))
+                .expectNextMatches(event -> PageCursor.ofImageId(9L).equals(event.id()))
+                .expectNextMatches(event -> PageCursor.ofImageId(9L).equals(event.id())
+                        && "complete".equals(event.event()))
+                .verifyComplete();
+    }
+
+    @Test
+    void getImagesByDirKeyResumesFromLastEventId() {
+        // given
+        ResizedImage image = new ResizedImage("key2", "image2", "base64_2", "session", 200, 200);
+        image.setImageId(9L);
+
+        Mockito.when(imageService.getResizedImagesByDirKeyAfter("dirKey", ImageSize.MEDIUM, 6L))
+                .thenReturn(Flux.just(image));
+        stubImageIdCursorOf();
+
+        //when and then
+        StepVerifier.create(imageController.getImagesByDirKey("dirKey", "medium", PageCursor.ofImageId(0L), PageCursor.ofImageId(6L)))
+                .expectNextMatches(event -> PageCursor.ofImageId(9L).equals(event.id()))
+                .expectNextMatches(event -> "complete".equals(event.event()))
+                .verifyComplete();
+        Mockito.verify(imageService, Mockito.never()).getResizedImagesByDirKeyAfter("dirKey", ImageSize.MEDIUM, 0L);
+    }
+
+    @Test
+    void listImagesByDirKeyAsReferences() {
+        // given
+        ImageMetadata image = new ImageMetadata(9L, "key1", "image1", "session", "image/jpeg", 200, 200, 1L, "LEHV6nWB2yk8pyo0adR*.7kCMdnj");
+        ImageMetadata damaged = new ImageMetadata(12L, "key2", "image2", "session", null, 0, 0, 1L, null);
+        Mockito.when(imageService.getImageMetadataByDirKeyAfter("dirKey", ImageSize.MEDIUM, 5L))
+                .thenReturn(Flux.just(image, damaged));
+
+        //when and then
+        StepVerifier.create(imageController.listImagesByDirKey("dirKey", "medium", PageCursor.ofImageId(5L)))
+                .expectNext(new ImageReference("key1", "image1", 200, 200, false, "LEHV6nWB2yk8pyo0adR*.7kCMdnj", "/images/key1/medium", PageCursor.ofImageId(9L)))
+                .expectNext(new ImageReference("key2", "image2", 0, 0, true, null, null, PageCursor.ofImageId(12L)))
+                .verifyComplete();
+    }
+
+    @Test
+    void getDirectoryViewInOneResponse() {
+        // given
+        DirectoryMetadata root = new DirectoryMetadata("root", "root", 1, 0);
+        DirectoryMetadata directory = new DirectoryMetadata("dirKey", "holidays", 2, 1);
+        DirectoryMetadata child = new DirectoryMetadata("childKey", "beach", 0, 0);
+        ImageMetadata image = new ImageMetadata(9L, "key1", "image1", "session", "image/jpeg", 200, 200, 2L, null);
+        Mockito.when(imageService.getDirectoryListing("dirKey", ImageSize.MEDIUM, "", 0L))
+                .thenReturn(Mono.just(new DirectoryListing(List.of(root, directory), List.of(child), true, List.of(image), false)));
+
+        //when and then
+        StepVerifier.create(imageController.getDirectoryView("dirKey", "medium", null, null))
+                .expectNext(ResponseEntity.ok(new DirectoryView(directory, List.of(root), List.of(child), PageCursor.ofDirectoryKey("childKey"),
+                        List.of(new ImageReference("key1", "image1", 200, 200, false, null, "/images/key1/medium", PageCursor.ofImageId(9L))),
+                        null)))
+                .verifyComplete();
+    }
+
+    @Test
+    void getDirectoryViewOfMissingDirectory() {
+        // given
+        Mockito.when(imageService.getDirectoryListing("missing", ImageSize.SMALL, "", 0L))
+                .thenReturn(Mono.empty());
+
+        //when and then
+        StepVerifier.create(imageController.getDirectoryView("missing", "small", null, null))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.NOT_FOUND)
+                .verifyComplete();
+    }
+
+    @Test
+    void getSubtreeStats() {
+        // given
+        SubtreeStats stats = new SubtreeStats("dirKey", 4, 27);
+        Mockito.when(imageService.getSubtreeStats("dirKey")).thenReturn(Mono.just(stats));
+
+        //when and then
+        StepVerifier.create(imageController.getSubtreeStats("dirKey"))
+                .expectNext(ResponseEntity.ok(stats))
+                .verifyComplete();
+    }
+
+    @Test
+    void moveUnknownDirectory() {
+        // given
+        Mockito.when(imageService.moveDirectory("missing", "archiveKey")).thenReturn(Mono.empty());
+
+        //when and then
+        StepVerifier.create(imageController.moveDirectory("missing", "archiveKey"))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.NOT_FOUND)
+                .verifyComplete();
+    }
+
+    @Test
+    void moveDirectoryIntoItsOwnSubtree() {
+        // given
+        Mockito.when(imageService.moveDirectory("dirKey", "childKey"))
+                .thenReturn(Mono.error(new IllegalArgumentException("Cannot move directory dirKey into its own subtree")));
+
+        //when and then
+        StepVerifier.create(imageController.moveDirectory("dirKey", "childKey"))
+                .expectErrorMatches(e -> e instanceof ResponseStatusException statusException
+                        && statusException.getStatusCode() == HttpStatus.CONFLICT)
+                .verify();
+    }
+
+    @Test
+    void cursorListingWithAnyAcceptStreamsEvents() throws Exception {
+        // given
+        Mockito.when(imageService.getResizedImagesByDirKeyAfter("dirKey", ImageSize.MEDIUM, 0L))
+                .thenReturn(Flux.empty());
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(imageController).build();
+
+        // when
+        MvcResult result = mockMvc.perform(get("/images/resized/by-directory")
+                        .param("dirKey", "dirKey")
+                        .param("sizeString", "medium")
+                        .param("cursor", "")
+                        .accept(MediaType.ALL))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // then
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(content().string(containsString("event:complete")));
+    }
+
+    @Test
+    void cursorListingWithNdjsonAcceptReturnsReferences() throws Exception {
+        // given
+        ImageMetadata image = new ImageMetadata(9L, "key1", "image1", "session", "image/jpeg", 200, 200, 1L, null);
+        Mockito.when(imageService.getImageMetadataByDirKeyAfter("dirKey", ImageSize.MEDIUM, 0L))
+                .thenReturn(Flux.just(image));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(imageController).build();
+
+        // when
+        MvcResult result = mockMvc.perform(get("/images/resized/by-directory")
+                        .param("dirKey", "dirKey")
+                        .param("sizeString", "medium")
+                        .param("cursor", "")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // then
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(containsString("\"url\":\"/images/key1/medium\"")));
+    }
+
+    @Test
+    void getDirectorySpriteImageOfCurrentVersion() {
+        // given
+        Sprite sprite = new Sprite(100, 100, List.of(), new ImageContent(new byte[]{1, 2}, "image/jpeg", "\"abc\""));
+        Mockito.when(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 0)).thenReturn(Mono.just(sprite));
+
+        //when and then
+        StepVerifier.create(imageController.getDirectorySpriteImage("dirKey", "small", 0, "abc", null))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.OK
+                        && response.getHeaders().getCacheControl().contains("max-age"))
+                .verifyComplete();
+    }
+
+    @Test
+    void getDirectorySpriteImageOfStaleVersion() {
+        // given
+        Sprite sprite = new Sprite(100, 100, List.of(), new ImageContent(new byte[]{1, 2}, "image/jpeg", "\"def\""));
+        Mockito.when(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 0)).thenReturn(Mono.just(sprite));
+
+        //when and then
+        StepVerifier.create(imageController.getDirectorySpriteImage("dirKey", "small", 0, "abc", null))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.CONFLICT)
+                .verifyComplete();
+    }
+
+    @Test
+    void getDirectorySpriteImageWithoutVersionRevalidates() {
+        // given
+        Sprite sprite = new Sprite(100, 100, List.of(), new ImageContent(new byte[]{1, 2}, "image/jpeg", "\"abc\""));
+        Mockito.when(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 0)).thenReturn(Mono.just(sprite));
+
+        //when and then
+        StepVerifier.create(imageController.getDirectorySpriteImage("dirKey", "small", 0, null, null))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.OK
+                        && "no-cache".equals(response.getHeaders().getCacheControl()))
+                .verifyComplete();
+    }
+
+    @Test
+    void getImagesByDirKeyWithInvalidCursor() {
+        assertThrows(ResponseStatusException.class,
+                () -> imageController.getImagesByDirKey("dirKey", "medium", PageCursor.ofDirectoryKey("dirKey"), null));
+    }
+
+    @Test
+    void uploadImageStream() throws IOException {
+        //given
+        String sessionKey = "test-session";
+        HttpSession mockSession = mock(HttpSession.class);
+        Mockito.when(mockSession.getId()).thenReturn(sessionKey);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent("{\"imageKey\":\"image1\",\"name\":\"url1\",\"base64\":\"smallUrl1\",\"width\":0,\"height\":0}\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        Mockito.when(imageService.resizeAndSaveImageStream(Mockito.any(), Mockito.eq(sessionKey), Mockito.eq("dirKey")))
+                .thenReturn(Mono.just(1L));
+
+        //when and then
+        StepVerifier.create(imageController.uploadImageStream("dirKey", request, mockSession))
+                .expectNext(ResponseEntity.ok(sessionKey))
+                .verifyComplete();
+    }
+
+    @Test
+    void uploadImageStreamToUnknownDirectory() throws IOException {
+        //given
+        HttpSession mockSession = mock(HttpSession.class);
+        Mockito.when(mockSession.getId()).thenReturn("test-session");
+        Mockito.when(imageService.resizeAndSaveImageStream(Mockito.any(), Mockito.any(), Mockito.eq("missing")))
+                .thenReturn(Mono.error(new IllegalArgumentException("Directory not found: missing")));
+
+        //when and then
+        StepVerifier.create(imageController.uploadImageStream("missing", new MockHttpServletRequest(), mockSession))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.BAD_REQUEST)
+                .verifyComplete();
+    }
+
     @Test
     void getOriginalImage() {
         // given
@@ -166,6 +495,71 @@ class ImageControllerTest {
                 .expectNext(ResponseEntity.status(HttpStatus.NOT_FOUND).body(imageDto))
                 .verifyComplete();
     }
+    @Test
+    void getImageContent() {
+        // given
+        byte[] data = {1, 2, 3};
+        ImageContent content = new ImageContent(data, "image/png", "\"etag\"");
+        Mockito.when(imageService.getImageContent("imageKey", "small")).thenReturn(Mono.just(content));
+
+        //when and then
+        StepVerifier.create(imageController.getImageContent("imageKey", "small", null))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.OK
+                        && response.getBody() == data
+                        && MediaType.IMAGE_PNG.equals(response.getHeaders().getContentType())
+                        && "\"etag\"".equals(response.getHeaders().getETag())
+                        && response.getHeaders().getCacheControl() != null)
+                .verifyComplete();
+    }
+
+    @Test
+    void getImageContentNotModified() {
+        // given
+        ImageContent content = new ImageContent(new byte[]{1, 2, 3}, "image/png", "\"etag\"");
+        Mockito.when(imageService.getImageETag("imageKey", "small")).thenReturn(Mono.empty());
+        Mockito.when(imageService.getImageContent("imageKey", "small")).thenReturn(Mono.just(content));
+
+        //when and then
+        StepVerifier.create(imageController.getImageContent("imageKey", "small", "\"other\", \"etag\""))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.NOT_MODIFIED
+                        && response.getBody() == null
+                        && "\"etag\"".equals(response.getHeaders().getETag()))
+                .verifyComplete();
+    }
+
+    @Test
+    void getImageContentNotModifiedFromStoredHash() {
+        // given
+        Mockito.when(imageService.getImageETag("imageKey", "small")).thenReturn(Mono.just("\"etag\""));
+
+        //when and then
+        StepVerifier.create(imageController.getImageContent("imageKey", "small", "\"etag\""))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.NOT_MODIFIED
+                        && "\"etag\"".equals(response.getHeaders().getETag()))
+                .verifyComplete();
+        Mockito.verify(imageService, Mockito.never()).getImageContent(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    void getImageContentNotFound() {
+        // given
+        Mockito.when(imageService.getImageContent("imageKey", "small")).thenReturn(Mono.empty());
+
+        //when and then
+        StepVerifier.create(imageController.getImageContent("imageKey", "small", null))
+                .expectNextMatches(response -> response.getStatusCode() == HttpStatus.NOT_FOUND)
+                .verifyComplete();
+    }
+
+    @Test
+    void getImageContentOfUnknownSizeIsNotFound() {
+        //when and then
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> imageController.getImageContent("imageKey", "huge", null));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
+        Mockito.verifyNoInteractions(imageService);
+    }
+
     @Test
     void healthCheckTest(){
         ResponseEntity<String> response=imageController.healthCheck();
@@ -173,5 +567,14 @@ class ImageControllerTest {
         assertEquals(response.getBody(),"Server is running");
 
     }
-}
 
+    private void stubCursorOf() {
+        Mockito.when(imageService.cursorOf(Mockito.any()))
+                .thenAnswer(invocation -> invocation.<ResizedImage>getArgument(0).getImageKey());
+    }
+
+    private void stubImageIdCursorOf() {
+        Mockito.when(imageService.cursorOf(Mockito.any()))
+                .thenAnswer(invocation -> PageCursor.ofImageId(invocation.<ResizedImage>getArgument(0).getImageId()));
+    }
+}
@@ -0,0 +1,41 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import pl.edu.agh.to.imageresizer.dto.VariantReadyEvent;
+import reactor.test.StepVerifier;
+
+public class ImageEventBusTest {
+    private final VariantReadyEvent EVENT = new VariantReadyEvent("key", "name", "session", 1L, "small", 100, 100, false, null);
+
+    @Test
+    public void deliverPublishedEventsToEverySubscriber() {
+        // given
+        ImageEventBus imageEventBus = new ImageEventBus(null, null, new ObjectMapper(), false);
+
+        // when and then
+        StepVerifier.create(imageEventBus.events().take(1))
+                .then(() -> StepVerifier.create(imageEventBus.events().take(1))
+                        .then(() -> imageEventBus.publish(EVENT))
+                        .expectNext(EVENT)
+                        .verifyComplete())
+                .expectNext(EVENT)
+                .verifyComplete();
+    }
+
+    @Test
+    public void dropEventsPublishedWithoutSubscribers() {
+        // given
+        ImageEventBus imageEventBus = new ImageEventBus(null, null, new ObjectMapper(), false);
+        VariantReadyEvent next = new VariantReadyEvent("next", "name", "session", 1L, "small", 100, 100, false, null);
+
+        // when
+        imageEventBus.publish(EVENT);
+
+        // then
+        StepVerifier.create(imageEventBus.events().take(1))
+                .then(() -> imageEventBus.publish(next))
+                .expectNext(next)
+                .verifyComplete();
+    }
+}
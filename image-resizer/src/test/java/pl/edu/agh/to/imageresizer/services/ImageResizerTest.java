@@ -1,11 +1,36 @@
 package pl.edu.agh.to.imageresizer.services;
 
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import pl.edu.agh.to.imageresizer.model.FitMode;
+import pl.edu.agh.to.imageresizer.model.ImageSize;
+import pl.edu.agh.to.imageresizer.model.ResizeMode;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.model.VariantSize;
+import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class ImageResizerTest {
     private static final Logger log = LoggerFactory.getLogger(ImageResizerTest.class);
     private final String ORIGINAL_BASE64 = "src/test/resources/services/originalBase64.txt";
@@ -18,7 +43,7 @@ public class ImageResizerTest {
     public void resize() {
         //given
         String sessionKey = "sessionKey";
-        ImageResizer imageResizer = new ImageResizer();
+        ImageResizer imageResizer = imageResizer(ResizeMode.DIRECT);
         String original = Util.readFile(ORIGINAL_BASE64);
 
         ImageDto imageDto = new ImageDto("key", "name", original, 200, 200);
@@ -28,19 +53,190 @@ public class ImageResizerTest {
         log.info("original: {}", original);
         //when and then
         StepVerifier.create(imageResizer.resize(imageDto, sessionKey))
-                .expectNextMatches(image -> image.getBase64().equals(small) && image.getWidth() == 100 && image.getHeight() == 100)
-                .expectNextMatches(image -> image.getBase64().equals(medium) && image.getWidth() == 200 && image.getHeight() == 200)
-                .expectNextMatches(image -> image.getBase64().equals(large) && image.getWidth() == 300 && image.getHeight() == 300)
+                .expectNextMatches(image -> ImageEncoding.resizedBase64(image).equals(small) && image.getWidth() == 100 && image.getHeight() == 100)
+                .expectNextMatches(image -> ImageEncoding.resizedBase64(image).equals(medium) && image.getWidth() == 200 && image.getHeight() == 200)
+                .expectNextMatches(image -> ImageEncoding.resizedBase64(image).equals(large) && image.getWidth() == 300 && image.getHeight() == 300)
+                .expectComplete()
+                .verify();
+
+    }
+
+    @Test
+    public void decodeOriginalOnceForAllSizes() {
+        //given
+        String sessionKey = "sessionKey";
+        ImageResizer imageResizer = Mockito.spy(imageResizer(ResizeMode.DIRECT));
+        String original = Util.readFile(ORIGINAL_BASE64);
+        ImageDto imageDto = new ImageDto("key", "name", original, 200, 200);
+
+        //when and then
+        StepVerifier.create(imageResizer.resize(imageDto, sessionKey))
+                .expectNextCount(ImageSize.values().length)
                 .expectComplete()
                 .verify();
 
+        Mockito.verify(imageResizer, Mockito.times(1)).decode(original);
+    }
+
+    @Test
+    public void cascadeModeIsCloserToAreaAveragedReference() throws IOException {
+        //given
+        String sessionKey = "sessionKey";
+        String original = Util.readFile(ORIGINAL_BASE64);
+        ImageDto imageDto = new ImageDto("key", "name", original, 200, 200);
+        BufferedImage originalImage = ImageIO.read(new ByteArrayInputStream(
+                Base64.getDecoder().decode(original.split(",")[1])));
+
+        //when
+        long directStart = System.nanoTime();
+        List<ResizedImage> direct = imageResizer(ResizeMode.DIRECT).resize(imageDto, sessionKey).collectList().block();
+        long directTime = System.nanoTime() - directStart;
+        long cascadeStart = System.nanoTime();
+        List<ResizedImage> cascade = imageResizer(ResizeMode.CASCADE).resize(imageDto, sessionKey).collectList().block();
+        long cascadeTime = System.nanoTime() - cascadeStart;
+
+        //then
+        log.info("direct: {} us, cascade: {} us", directTime / 1000, cascadeTime / 1000);
+        for (ImageSize imageSize : List.of(ImageSize.SMALL, ImageSize.MEDIUM)) {
+            BufferedImage reference = areaAveraged(originalImage, imageSize.getWidth(), imageSize.getHeight());
+            double directPsnr = psnr(reference, decode(direct.get(imageSize.ordinal()).getData()));
+            double cascadePsnr = psnr(reference, decode(cascade.get(imageSize.ordinal()).getData()));
+            log.info("{}: direct PSNR {} dB, cascade PSNR {} dB", imageSize, directPsnr, cascadePsnr);
+            assertTrue(cascadePsnr > directPsnr);
+        }
+        assertEquals(ImageSize.values().length, cascade.size());
+        for (ImageSize imageSize : ImageSize.values()) {
+            assertEquals(imageSize.getWidth(), cascade.get(imageSize.ordinal()).getWidth());
+            assertEquals(imageSize.getHeight(), cascade.get(imageSize.ordinal()).getHeight());
+        }
+    }
+
+    @Test
+    public void resizeToVariantKeepsAspectRatio() throws IOException {
+        //given
+        ImageResizer imageResizer = imageResizer(ResizeMode.DIRECT);
+        BufferedImage wide = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(wide, "png", outputStream);
+        DecodedImage decodedImage = imageResizer.decode(outputStream.toByteArray(), "image/png").block();
+        VariantSize fit = VariantSize.bucketed(120, 100, FitMode.FIT);
+
+        //when
+        BufferedImage fitted = ImageIO.read(new ByteArrayInputStream(imageResizer.resize(decodedImage, fit).block()));
+        BufferedImage filled = ImageIO.read(new ByteArrayInputStream(imageResizer.resize(decodedImage, VariantSize.bucketed(120, 100, FitMode.FILL)).block()));
+        BufferedImage stretched = ImageIO.read(new ByteArrayInputStream(imageResizer.resize(decodedImage, VariantSize.bucketed(120, 100, FitMode.STRETCH)).block()));
+
+        //then
+        assertEquals(new VariantSize(128, 128, FitMode.FIT), fit);
+        assertEquals(128, fitted.getWidth());
+        assertEquals(64, fitted.getHeight());
+        assertEquals(128, filled.getWidth());
+        assertEquals(128, filled.getHeight());
+        assertEquals(128, stretched.getWidth());
+        assertEquals(128, stretched.getHeight());
+    }
+
+    @Test
+    public void rejectImageAboveMaxPixelsFromHeader() throws IOException {
+        //given
+        String original = Util.readFile(ORIGINAL_BASE64);
+        byte[] imageBytes = ImageEncoding.decodeDataUrl(original);
+        ImageResizer imageResizer = new ImageResizer(ResizeMode.DIRECT, new DecodeAdmission(10_000, 512L * 1024 * 1024));
+
+        //when
+        ImageHeader header = ImageProbe.readHeader(imageBytes);
+
+        //then
+        assertEquals(new ImageHeader(225, 225, "JPEG"), header);
+        StepVerifier.create(imageResizer.decode(imageBytes, "image/jpeg"))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+    }
+
+    @Test
+    public void subsampledDecodeOfLargeImageMatchesFullDecode() throws IOException {
+        //given
+        BufferedImage photo = new BufferedImage(3000, 2400, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < photo.getHeight(); y++) {
+            for (int x = 0; x < photo.getWidth(); x++) {
+                int red = (int) (127.5 + 127.5 * Math.sin(x / 190.0));
+                int green = (int) (127.5 + 127.5 * Math.cos(y / 230.0));
+                int blue = (int) (127.5 + 127.5 * Math.sin((x + y) / 310.0));
+                photo.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(photo, "jpeg", outputStream);
+        byte[] imageBytes = outputStream.toByteArray();
+        ImageResizer imageResizer = imageResizer(ResizeMode.DIRECT);
+        ImageDto imageDto = new ImageDto("key", "name", null, 0, 0);
+
+        //when
+        long fullStart = System.nanoTime();
+        BufferedImage fullDecode = ImageProbe.read(imageBytes);
+        long fullTime = System.nanoTime() - fullStart;
+        long subsampledStart = System.nanoTime();
+        DecodedImage decodedImage = imageResizer.decode(imageBytes, "image/jpeg").block();
+        long subsampledTime = System.nanoTime() - subsampledStart;
+        ResizedImage large = imageResizer.resize(decodedImage, imageDto, "sessionKey", Flux.just(ImageSize.LARGE)).blockFirst();
+
+        //then
+        log.info("full decode: {} us, subsampled decode: {} us", fullTime / 1000, subsampledTime / 1000);
+        assertEquals(3000, decodedImage.width());
+        assertEquals(2400, decodedImage.height());
+        assertEquals(1500, decodedImage.image().getWidth());
+        assertEquals(1200, decodedImage.image().getHeight());
+        BufferedImage reference = areaAveraged(fullDecode, ImageSize.LARGE.getWidth(), ImageSize.LARGE.getHeight());
+        double subsampledPsnr = psnr(reference, decode(large.getData()));
+        log.info("subsampled PSNR {} dB", subsampledPsnr);
+        assertTrue(subsampledPsnr > 32);
+    }
+
+    @Test
+    public void subsampledDecodeKeepsDetailAtTheSubsamplingFactor() throws IOException {
+        //given
+        ImageResizer imageResizer = imageResizer(ResizeMode.DIRECT);
+        // the target allows a factor of 4, so sampling every 4th column would keep only the white half of these stripes
+        byte[] stripes = png(pattern(2400, 2400, (x, y) -> x % 4 < 2));
+
+        //when
+        DecodedImage decodedStripes = imageResizer.decode(stripes, "image/png").block();
+        BufferedImage largeStripes = decode(largeVariant(imageResizer, decodedStripes));
+
+        //then
+        double stripesPsnr = psnr(areaAveraged(ImageProbe.read(stripes), 300, 300), largeStripes);
+        log.info("stripes PSNR {} dB", stripesPsnr);
+        assertEquals(1200, decodedStripes.image().getWidth());
+        assertEquals(1200, decodedStripes.image().getHeight());
+        assertTrue(stripesPsnr > 32);
+    }
+
+    @Test
+    public void progressiveJpegIsSubsampledInOneDecode() throws IOException {
+        //given
+        ImageResizer imageResizer = imageResizer(ResizeMode.DIRECT);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(outputStream)) {
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            writeParam.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(pattern(2400, 2400, (x, y) -> x % 4 < 2), null, null), writeParam);
+        } finally {
+            writer.dispose();
+        }
+
+        //when and then
+        StepVerifier.create(imageResizer.decode(outputStream.toByteArray(), "image/jpeg"))
+                .expectNextMatches(decodedImage -> decodedImage.image().getWidth() == 1200 && decodedImage.isSubsampled())
+                .verifyComplete();
     }
 
     @Test
     public void resizeDamaged() {
         //given
         String sessionKey = "sessionKey";
-        ImageResizer imageResizer = new ImageResizer();
+        ImageResizer imageResizer = imageResizer(ResizeMode.DIRECT);
         String damagedBase64 = Util.readFile(DAMAGED_BASE64);
         ImageDto imageDto = new ImageDto("key", "name", damagedBase64, 200, 200);
 
@@ -52,4 +248,59 @@ public class ImageResizerTest {
                 .verify();
 
     }
+
+    private static ImageResizer imageResizer(ResizeMode resizeMode) {
+        return new ImageResizer(resizeMode, new DecodeAdmission(50_000_000L, 512L * 1024 * 1024));
+    }
+
+    private byte[] largeVariant(ImageResizer imageResizer, DecodedImage decodedImage) {
+        ImageDto imageDto = new ImageDto("key", "name", null, 0, 0);
+        return imageResizer.resize(decodedImage, imageDto, "sessionKey", Flux.just(ImageSize.LARGE)).blockFirst().getData();
+    }
+
+    private BufferedImage pattern(int width, int height, BiPredicate<Integer, Integer> white) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, white.test(x, y) ? 0xffffff : 0);
+            }
+        }
+        return image;
+    }
+
+    private byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private BufferedImage decode(byte[] data) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(data));
+    }
+
+    private BufferedImage areaAveraged(BufferedImage image, int width, int height) {
+        BufferedImage reference = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = reference.createGraphics();
+        graphics.drawImage(image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+        graphics.dispose();
+        return reference;
+    }
+
+    private double psnr(BufferedImage expected, BufferedImage actual) {
+        double squaredError = 0;
+        long samples = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedRgb = expected.getRGB(x, y);
+                int actualRgb = actual.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int diff = ((expectedRgb >> shift) & 0xff) - ((actualRgb >> shift) & 0xff);
+                    squaredError += diff * diff;
+                    samples++;
+                }
+            }
+        }
+        double mse = squaredError / samples;
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / mse);
+    }
 }
@@ -1,17 +1,38 @@
 package pl.edu.agh.to.imageresizer.services;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import pl.edu.agh.to.imageresizer.dto.DirectoryDto;
+import pl.edu.agh.to.imageresizer.dto.DirectoryMetadata;
 import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import pl.edu.agh.to.imageresizer.dto.ImageMetadata;
+import pl.edu.agh.to.imageresizer.dto.VariantReadyEvent;
+import pl.edu.agh.to.imageresizer.model.Directory;
 import pl.edu.agh.to.imageresizer.model.ImageSize;
 import pl.edu.agh.to.imageresizer.model.OriginalImage;
+import pl.edu.agh.to.imageresizer.model.ResizeMode;
+import pl.edu.agh.to.imageresizer.model.ResizePolicy;
 import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.model.StorageMode;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ImageServiceTest {
 
@@ -218,6 +239,456 @@ public class ImageServiceTest {
 
     }
 
+    @Test
+    public void decodeOriginalImageOncePerUpload() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        ImageDto imageDto = new ImageDto(IMAGE_KEY, NAME, base64, 225, 225);
+        OriginalImage originalImage = new OriginalImage(NAME, base64, SESSION_KEY, IMAGE_KEY, 225, 225, 1L);
+        originalImage.setImageId(1L);
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        DirectoryMetadataRepository directoryMetadataRepository = Mockito.mock(DirectoryMetadataRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        ImageResizer imageResizer = Mockito.spy(imageResizer());
+
+        Mockito.when(originalImageRepository.save(Mockito.any(OriginalImage.class)))
+                .thenReturn(Mono.just(originalImage));
+        Mockito.when(resizedImageRepository.save(Mockito.any(ResizedImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        Mockito.when(imageMetadataRepository.findOriginalByContentHash(Mockito.anyString()))
+                .thenReturn(Mono.empty());
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .directoryRepository(directoryRepository)
+                .directoryMetadataRepository(directoryMetadataRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .imageResizer(imageResizer)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.resizeAndSaveOriginalImage(imageDto, SESSION_KEY, 1L))
+                .expectNext(true)
+                .verifyComplete();
+
+        Mockito.verify(imageResizer, Mockito.times(1)).decode(Mockito.any(byte[].class), Mockito.anyString());
+        Mockito.verify(originalImageRepository).save(Mockito.argThat(image ->
+                image.getWidth() == 225 && image.getHeight() == 225));
+        Mockito.verify(resizedImageRepository, Mockito.times(ImageSize.values().length))
+                .save(Mockito.any(ResizedImage.class));
+    }
+
+    @Test
+    public void storeOriginalWithoutVariantsWhenResizeQueueIsFull() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        ImageDto imageDto = new ImageDto(IMAGE_KEY, NAME, base64, 225, 225);
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        ImageResizer imageResizer = Mockito.spy(imageResizer());
+
+        Mockito.doReturn(Mono.error(new RejectedExecutionException("Resize queue is full")))
+                .when(imageResizer).decode(Mockito.any(byte[].class), Mockito.anyString());
+        Mockito.when(originalImageRepository.save(Mockito.any(OriginalImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        Mockito.when(imageMetadataRepository.findOriginalByContentHash(Mockito.anyString()))
+                .thenReturn(Mono.empty());
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .imageResizer(imageResizer)
+                .resizeExecutor(new ResizeExecutor(2, 16, 0))
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.resizeAndSaveOriginalImage(imageDto, SESSION_KEY, 1L))
+                .expectNext(false)
+                .verifyComplete();
+
+        Mockito.verify(originalImageRepository).save(Mockito.argThat(image ->
+                image.getWidth() == 225 && image.getHeight() == 225 && image.getData() != null));
+        Mockito.verifyNoInteractions(resizedImageRepository);
+    }
+
+    @Test
+    public void returnDirectoryListingWithPathAndOnePageOfEachKind() {
+        // given
+        DirectoryMetadata root = new DirectoryMetadata("root", "root", 1, 0);
+        DirectoryMetadata directory = new DirectoryMetadata("dirKey", "holidays", 11, 3);
+        List<DirectoryMetadata> subDirectories = IntStream.range(0, 11)
+                .mapToObj(i -> new DirectoryMetadata("child" + i, "child" + i, 0, 0))
+                .toList();
+        List<ImageMetadata> images = IntStream.range(0, 3)
+                .mapToObj(i -> new ImageMetadata(i + 1L, "key" + i, "name" + i, SESSION_KEY, "image/jpeg", 200, 200, 2L, null))
+                .toList();
+
+        DirectoryMetadataRepository directoryMetadataRepository = Mockito.mock(DirectoryMetadataRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        Mockito.when(directoryMetadataRepository.findPathToDirKey("dirKey"))
+                .thenReturn(Flux.just(root, directory));
+        Mockito.when(directoryMetadataRepository.findAllByParentDirectoryKeyAfter("dirKey", "", 11))
+                .thenReturn(Flux.fromIterable(subDirectories));
+        Mockito.when(imageMetadataRepository.findResizedByDirAfter("dirKey", 200, 200, 0L, 11))
+                .thenReturn(Flux.fromIterable(images));
+
+        ImageService imageService = imageService()
+                .directoryMetadataRepository(directoryMetadataRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.getDirectoryListing("dirKey", ImageSize.MEDIUM, "", 0L))
+                .expectNext(new DirectoryListing(List.of(root, directory), subDirectories.subList(0, 10), true, images, false))
+                .verifyComplete();
+    }
+
+    @Test
+    public void returnNoDirectoryListingForUnknownDirectory() {
+        // given
+        DirectoryMetadataRepository directoryMetadataRepository = Mockito.mock(DirectoryMetadataRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        Mockito.when(directoryMetadataRepository.findPathToDirKey("missing")).thenReturn(Flux.empty());
+        Mockito.when(directoryMetadataRepository.findAllByParentDirectoryKeyAfter("missing", "", 11)).thenReturn(Flux.empty());
+        Mockito.when(imageMetadataRepository.findResizedByDirAfter("missing", 100, 100, 0L, 11)).thenReturn(Flux.empty());
+
+        ImageService imageService = imageService()
+                .directoryMetadataRepository(directoryMetadataRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.getDirectoryListing("missing", ImageSize.SMALL, "", 0L))
+                .verifyComplete();
+    }
+
+    @Test
+    public void moveDirectoryUnderNewParent() {
+        // given
+        Directory directory = new Directory(5L, "holidays", 1L, "dirKey", 0, 0, "/1/5/");
+        Directory parent = new Directory(7L, "archive", 1L, "archiveKey", 0, 0, "/1/7/");
+
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        DirectoryCounterUpdater directoryCounterUpdater = Mockito.mock(DirectoryCounterUpdater.class);
+        Mockito.when(directoryRepository.lockForMove("dirKey", "archiveKey")).thenReturn(Flux.just(directory, parent));
+        Mockito.when(directoryRepository.moveDirectory(5L, 7L)).thenReturn(Mono.just(1));
+
+        ImageService imageService = imageService()
+                .directoryRepository(directoryRepository)
+                .directoryCounterUpdater(directoryCounterUpdater)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.moveDirectory("dirKey", "archiveKey"))
+                .expectNext(directory)
+                .verifyComplete();
+
+        Mockito.verify(directoryRepository).moveDirectory(5L, 7L);
+        Mockito.verify(directoryCounterUpdater).addSubDirectories(1L, -1);
+        Mockito.verify(directoryCounterUpdater).addSubDirectories(7L, 1);
+    }
+
+    @Test
+    public void moveDirectoryIntoItsOwnSubtreeIsRejected() {
+        // given
+        Directory directory = new Directory(5L, "holidays", 1L, "dirKey", 0, 0, "/1/5/");
+        Directory child = new Directory(9L, "beach", 5L, "childKey", 0, 0, "/1/5/9/");
+
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        Mockito.when(directoryRepository.lockForMove("dirKey", "childKey")).thenReturn(Flux.just(directory, child));
+
+        ImageService imageService = imageService()
+                .directoryRepository(directoryRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.moveDirectory("dirKey", "childKey"))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+
+        Mockito.verify(directoryRepository, Mockito.never()).moveDirectory(Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    @Test
+    public void moveUnknownDirectoryCompletesEmpty() {
+        // given
+        Directory parent = new Directory(7L, "archive", 1L, "archiveKey", 0, 0, "/1/7/");
+
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        Mockito.when(directoryRepository.lockForMove("missing", "archiveKey")).thenReturn(Flux.just(parent));
+
+        ImageService imageService = imageService()
+                .directoryRepository(directoryRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.moveDirectory("missing", "archiveKey"))
+                .verifyComplete();
+
+        Mockito.verify(directoryRepository, Mockito.never()).moveDirectory(Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    @Test
+    public void variantReadyEventsOfUnknownDirectoryFail() {
+        // given
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        Mockito.when(directoryRepository.findByDirectoryKey("missing")).thenReturn(Mono.empty());
+
+        ImageService imageService = imageService()
+                .directoryRepository(directoryRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.getVariantReadyEvents("missing"))
+                .expectError(NoSuchElementException.class)
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void publishVariantReadyEventForEachResizedSize() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        ImageDto imageDto = new ImageDto(IMAGE_KEY, NAME, base64, 225, 225);
+        OriginalImage originalImage = new OriginalImage(NAME, base64, SESSION_KEY, IMAGE_KEY, 225, 225, 1L);
+        originalImage.setImageId(1L);
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        Directory directory = new Directory("dir", null, "dirKey", 0, 1);
+        directory.setDirectoryId(1L);
+
+        Mockito.when(originalImageRepository.save(Mockito.any(OriginalImage.class)))
+                .thenReturn(Mono.just(originalImage));
+        Mockito.when(resizedImageRepository.save(Mockito.any(ResizedImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        Mockito.when(imageMetadataRepository.findOriginalByContentHash(Mockito.anyString()))
+                .thenReturn(Mono.empty());
+        Mockito.when(directoryRepository.findByDirectoryKey("dirKey"))
+                .thenReturn(Mono.just(directory));
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .directoryRepository(directoryRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.getVariantReadyEvents("dirKey").take(ImageSize.values().length))
+                .then(() -> imageService.resizeAndSaveOriginalImage(imageDto, SESSION_KEY, 1L).block())
+                .recordWith(ArrayList::new)
+                .expectNextCount(ImageSize.values().length)
+                .consumeRecordedWith(events -> {
+                    Assertions.assertEquals(Set.of("small", "medium", "large"),
+                            events.stream().map(VariantReadyEvent::size).collect(Collectors.toSet()));
+                    Assertions.assertTrue(events.stream().allMatch(event -> IMAGE_KEY.equals(event.imageKey())
+                            && Long.valueOf(1L).equals(event.directoryId()) && !event.damaged()));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    public void storeImageBytesInBinaryMode() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        ImageDto imageDto = new ImageDto(IMAGE_KEY, NAME, base64, 225, 225);
+        OriginalImage originalImage = new OriginalImage(NAME, null, SESSION_KEY, IMAGE_KEY, 225, 225, 1L);
+        originalImage.setImageId(1L);
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+
+        Mockito.when(originalImageRepository.save(Mockito.any(OriginalImage.class)))
+                .thenReturn(Mono.just(originalImage));
+        Mockito.when(resizedImageRepository.save(Mockito.any(ResizedImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        Mockito.when(imageMetadataRepository.findOriginalByContentHash(Mockito.anyString()))
+                .thenReturn(Mono.empty());
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .directoryRepository(directoryRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.resizeAndSaveOriginalImage(imageDto, SESSION_KEY, 1L))
+                .expectNext(true)
+                .verifyComplete();
+
+        Mockito.verify(originalImageRepository).save(Mockito.argThat(image ->
+                image.getBase64() == null
+                        && "image/jpeg".equals(image.getMimeType())
+                        && Arrays.equals(ImageEncoding.decodeDataUrl(base64), image.getData())));
+        Mockito.verify(resizedImageRepository, Mockito.times(ImageSize.values().length)).save(Mockito.argThat(image ->
+                image.getBase64() == null && image.getData().length > 0 && "image/jpeg".equals(image.getMimeType())));
+    }
+
+    @Test
+    public void resizeOnlyMissingSizesDuringBackfill() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        OriginalImage originalImage = new OriginalImage(NAME, base64, SESSION_KEY, IMAGE_KEY, 225, 225, 1L);
+        originalImage.setImageId(1L);
+        ImageSize existingSize = ImageSize.SMALL;
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+
+        Mockito.when(imageMetadataRepository.findResizedByOriginalImageId(1L))
+                .thenReturn(Flux.just(new ImageMetadata(10L, IMAGE_KEY, NAME, SESSION_KEY, "image/jpeg",
+                        existingSize.getWidth(), existingSize.getHeight(), 1L, null)));
+        Mockito.when(originalImageRepository.findById(1L))
+                .thenReturn(Mono.just(originalImage));
+        Mockito.when(resizedImageRepository.save(Mockito.any(ResizedImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.resizeMissingSizes(1L))
+                .expectNext((long) ImageSize.values().length - 1)
+                .verifyComplete();
+
+        Mockito.verify(resizedImageRepository, Mockito.never()).save(Mockito.argThat(image ->
+                image.getWidth() == existingSize.getWidth() && image.getHeight() == existingSize.getHeight()));
+    }
+
+    @Test
+    public void saveErrorVariantWhenBackfillCannotDecodeOriginal() {
+        // given
+        OriginalImage originalImage = new OriginalImage(NAME, null, SESSION_KEY, IMAGE_KEY, 225, 225, 1L);
+        originalImage.setImageId(1L);
+        originalImage.setData(new byte[]{1, 2, 3});
+        originalImage.setMimeType("image/jpeg");
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+
+        Mockito.when(imageMetadataRepository.findResizedByOriginalImageId(1L))
+                .thenReturn(Flux.empty());
+        Mockito.when(originalImageRepository.findById(1L))
+                .thenReturn(Mono.just(originalImage));
+        Mockito.when(resizedImageRepository.save(Mockito.any(ResizedImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.resizeMissingSizes(1L))
+                .expectNext(1L)
+                .verifyComplete();
+
+        Mockito.verify(resizedImageRepository).save(Mockito.argThat(image ->
+                image.getWidth() == ImageService.ERROR_WIDTH_AND_HEIGHT && ImageService.ERROR.equals(image.getBase64())
+                        && Long.valueOf(1L).equals(image.getOriginalImageId())));
+    }
+
+    @Test
+    public void reuseStoredImageForDuplicateUpload() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        String contentHash = ImageEncoding.contentHash(ImageEncoding.decodeDataUrl(base64));
+        ImageDto imageDto = new ImageDto("duplicateKey", NAME, base64, 225, 225);
+        ImageMetadata storedImage = new ImageMetadata(1L, IMAGE_KEY, NAME, SESSION_KEY, "image/jpeg", 225, 225, 1L, null);
+        OriginalImage duplicate = new OriginalImage(NAME, null, SESSION_KEY, "duplicateKey", 225, 225, 1L);
+        duplicate.setImageId(2L);
+        ResizedImage storedThumbnail = new ResizedImage(IMAGE_KEY, NAME, null, SESSION_KEY, 100, 100);
+        storedThumbnail.setData(new byte[]{1, 2, 3});
+        storedThumbnail.setMimeType("image/jpeg");
+        storedThumbnail.setContentHash("thumbnailHash");
+        storedThumbnail.setOriginalImageId(1L);
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        ImageResizer imageResizer = Mockito.spy(imageResizer());
+        DeduplicationMetrics deduplicationMetrics = new DeduplicationMetrics();
+
+        Mockito.when(imageMetadataRepository.findOriginalByContentHash(contentHash))
+                .thenReturn(Mono.just(storedImage));
+        Mockito.when(originalImageRepository.save(Mockito.any(OriginalImage.class)))
+                .thenReturn(Mono.just(duplicate));
+        Mockito.when(resizedImageRepository.findAllByOriginalImageId(1L))
+                .thenReturn(Flux.just(storedThumbnail));
+        Mockito.when(resizedImageRepository.save(Mockito.any(ResizedImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .directoryRepository(directoryRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .imageResizer(imageResizer)
+                .deduplicationMetrics(deduplicationMetrics)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.resizeAndSaveOriginalImage(imageDto, SESSION_KEY, 1L))
+                .expectNext(true)
+                .verifyComplete();
+
+        Mockito.verify(imageResizer, Mockito.never()).decode(Mockito.any(byte[].class), Mockito.anyString());
+        Mockito.verify(originalImageRepository).save(Mockito.argThat(image ->
+                image.getData() == null && image.getBase64() == null && contentHash.equals(image.getContentHash())));
+        Mockito.verify(resizedImageRepository).save(Mockito.argThat(image ->
+                "duplicateKey".equals(image.getImageKey()) && image.getOriginalImageId() == 2L
+                        && image.getData() == null && image.getBase64() == null
+                        && "thumbnailHash".equals(image.getContentHash())));
+        Assertions.assertEquals(1, deduplicationMetrics.getStats().hits());
+    }
+
+    @Test
+    public void serveSharedPayloadOfDuplicateVariant() {
+        // given
+        ResizedImage duplicateThumbnail = new ResizedImage("duplicateKey", NAME, null, SESSION_KEY, 100, 100);
+        duplicateThumbnail.setMimeType("image/jpeg");
+        duplicateThumbnail.setContentHash("thumbnailHash");
+        ResizedImage storedThumbnail = new ResizedImage(IMAGE_KEY, NAME, null, SESSION_KEY, 100, 100);
+        storedThumbnail.setData(new byte[]{1, 2, 3});
+        storedThumbnail.setMimeType("image/jpeg");
+        storedThumbnail.setContentHash("thumbnailHash");
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        Mockito.when(resizedImageRepository.findFirstByImageKeyAndWidthAndHeight("duplicateKey", 100, 100))
+                .thenReturn(Mono.just(duplicateThumbnail));
+        Mockito.when(resizedImageRepository.findPayloadSourcesByContentHashes(new String[]{"thumbnailHash"}))
+                .thenReturn(Flux.just(storedThumbnail));
+
+        ImageService imageService = imageService()
+                .resizedImageRepository(resizedImageRepository)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.getImageContent("duplicateKey", "small"))
+                .expectNextMatches(content -> Arrays.equals(storedThumbnail.getData(), content.data())
+                        && "\"thumbnailHash\"".equals(content.etag()))
+                .verifyComplete();
+    }
+
     @Test
     public void returnOriginalImageForResizedImageKey() {
         // given
@@ -268,6 +739,243 @@ public class ImageServiceTest {
         Mockito.verify(originalImageRepository).findById(originalImage.getImageId());
     }
 
+    @Test
+    public void persistDirectoryTreeWithFewRepositoryCallsPerImage() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        DirectoryDto childA = new DirectoryDto("a", "dirA", images("a", base64, 8), List.of(), 0, 0);
+        DirectoryDto childB = new DirectoryDto("b", "dirB", images("b", base64, 8), List.of(), 0, 0);
+        DirectoryDto upload = new DirectoryDto("root", "root", images("root", base64, 8), List.of(childA, childB), 0, 0);
+        int uploadedImages = 24;
+        Directory rootDirectory = new Directory("root", null, "root", 0, 0);
+        rootDirectory.setDirectoryId(1L);
 
-}
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        ImageBatchRepository imageBatchRepository = Mockito.mock(ImageBatchRepository.class);
+        DirectoryCounterUpdater directoryCounterUpdater = new DirectoryCounterUpdater(directoryRepository, 200);
+
+        Mockito.when(directoryRepository.findByDirectoryKey("root"))
+                .thenReturn(Mono.just(rootDirectory));
+        Mockito.when(imageBatchRepository.getBatchSize())
+                .thenReturn(16);
+        Mockito.when(directoryRepository.applyCounterDeltas(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.just(1));
+        Mockito.when(imageBatchRepository.insertDirectories(Mockito.anyList()))
+                .thenReturn(Mono.just(List.of(2L, 3L)));
+        Mockito.when(imageBatchRepository.findPayloadHoldersByContentHash(Mockito.anyCollection()))
+                .thenReturn(Mono.just(Map.of()));
+        Mockito.when(imageBatchRepository.insertImages(Mockito.anyList()))
+                .thenAnswer(invocation -> Mono.just(invocation.<List<PreparedImage>>getArgument(0)));
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .directoryRepository(directoryRepository)
+                .imageBatchRepository(imageBatchRepository)
+                .directoryCounterUpdater(directoryCounterUpdater)
+                .build();
+
+        // when
+        StepVerifier.create(imageService.saveOrUpdateDirectory(upload, SESSION_KEY, "root")
+                        .then(directoryCounterUpdater.flush()))
+                .verifyComplete();
 
+        // then
+        ArgumentCaptor<List<PreparedImage>> batches = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(imageBatchRepository, Mockito.times(2)).insertImages(batches.capture());
+        Assertions.assertEquals(uploadedImages, batches.getAllValues().stream().mapToInt(List::size).sum());
+        Assertions.assertTrue(batches.getAllValues().stream()
+                .flatMap(List::stream)
+                .allMatch(image -> image.resizedImages().size() == ImageSize.values().length));
+        Mockito.verify(imageBatchRepository).insertDirectories(Mockito.argThat(directories -> directories.size() == 2));
+        Mockito.verify(directoryRepository).applyCounterDeltas(new Long[]{1L}, new Integer[]{2}, new Integer[]{8});
+        Mockito.verifyNoInteractions(originalImageRepository, resizedImageRepository);
+
+        long repositoryCalls = Mockito.mockingDetails(directoryRepository).getInvocations().size()
+                + Mockito.mockingDetails(imageBatchRepository).getInvocations().stream()
+                .filter(invocation -> !invocation.getMethod().getName().equals("getBatchSize"))
+                .count();
+        // repository calls, not SQL statements: directory lookup, one counter flush, one insert for the child level,
+        // then a hash lookup and an insert per batch
+        Assertions.assertEquals(7, repositoryCalls);
+        Assertions.assertTrue((double) repositoryCalls / uploadedImages < 0.5);
+    }
+
+    @Test
+    public void storeOnlyOriginalForLazyUpload() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        ImageDto imageDto = new ImageDto(IMAGE_KEY, NAME, base64, 225, 225);
+        OriginalImage originalImage = new OriginalImage(NAME, null, SESSION_KEY, IMAGE_KEY, 225, 225, 1L);
+        originalImage.setImageId(1L);
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+
+        Mockito.when(originalImageRepository.save(Mockito.any(OriginalImage.class)))
+                .thenReturn(Mono.just(originalImage));
+        Mockito.when(imageMetadataRepository.findOriginalByContentHash(Mockito.anyString()))
+                .thenReturn(Mono.empty());
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .resizePolicy(ResizePolicy.LAZY)
+                .build();
+
+        // when and then
+        StepVerifier.create(imageService.resizeAndSaveOriginalImage(imageDto, SESSION_KEY, 1L))
+                .expectNext(true)
+                .verifyComplete();
+
+        Mockito.verify(originalImageRepository).save(Mockito.argThat(image ->
+                image.getWidth() == 225 && image.getHeight() == 225));
+        Mockito.verifyNoInteractions(resizedImageRepository);
+    }
+
+    @Test
+    public void resizeMissingVariantOnceForConcurrentRequests() {
+        // given
+        String base64 = Util.readFile(ORIGINAL_BASE64);
+        OriginalImage originalImage = new OriginalImage(NAME, base64, SESSION_KEY, IMAGE_KEY, 225, 225, 1L);
+        originalImage.setImageId(1L);
+        ImageSize imageSize = ImageSize.MEDIUM;
+
+        ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        ImageResizer imageResizer = Mockito.spy(imageResizer());
+
+        Mockito.when(resizedImageRepository.findFirstByImageKeyAndWidthAndHeight(IMAGE_KEY, imageSize.getWidth(), imageSize.getHeight()))
+                .thenReturn(Mono.empty());
+        Mockito.when(resizedImageRepository.findResizedImagesOfOriginals(Mockito.any(), Mockito.anyInt(), Mockito.anyInt()))
+                .thenReturn(Flux.empty());
+        Mockito.when(resizedImageRepository.save(Mockito.any(ResizedImage.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        Mockito.when(imageMetadataRepository.findOriginalByImageKey(IMAGE_KEY))
+                .thenReturn(Mono.just(new ImageMetadata(1L, IMAGE_KEY, NAME, SESSION_KEY, "image/jpeg", 225, 225, 1L, null)));
+        Mockito.when(originalImageRepository.findById(1L))
+                .thenReturn(Mono.just(originalImage).delayElement(Duration.ofMillis(100)));
+
+        ImageService imageService = imageService()
+                .originalImageRepository(originalImageRepository)
+                .resizedImageRepository(resizedImageRepository)
+                .imageMetadataRepository(imageMetadataRepository)
+                .imageResizer(imageResizer)
+                .resizePolicy(ResizePolicy.LAZY)
+                .build();
+
+        // when and then
+        StepVerifier.create(Flux.merge(
+                        imageService.getImageContent(IMAGE_KEY, "medium"),
+                        imageService.getImageContent(IMAGE_KEY, "medium"),
+                        imageService.getImageContent(IMAGE_KEY, "medium")))
+                .expectNextCount(3)
+                .verifyComplete();
+
+        Mockito.verify(originalImageRepository, Mockito.times(1)).findById(1L);
+        Mockito.verify(imageResizer, Mockito.times(1)).decode(Mockito.any(byte[].class), Mockito.anyString());
+        Mockito.verify(resizedImageRepository, Mockito.times(1)).save(Mockito.argThat(image ->
+                image.getOriginalImageId() == 1L && image.getWidth() == imageSize.getWidth()));
+    }
+
+    private List<ImageDto> images(String prefix, String base64, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new ImageDto(prefix + i, prefix + i + ".jpg", base64, 0, 0))
+                .toList();
+    }
+
+    private static ImageResizer imageResizer() {
+        return new ImageResizer(ResizeMode.DIRECT, new DecodeAdmission(50_000_000L, 512L * 1024 * 1024));
+    }
+
+    private static ImageServiceBuilder imageService() {
+        return new ImageServiceBuilder();
+    }
+
+    /**
+     * Builds an {@link ImageService} whose collaborators default to mocks, so a test only names the ones it stubs.
+     */
+    private static class ImageServiceBuilder {
+        private OriginalImageRepository originalImageRepository = Mockito.mock(OriginalImageRepository.class);
+        private ResizedImageRepository resizedImageRepository = Mockito.mock(ResizedImageRepository.class);
+        private DirectoryRepository directoryRepository = Mockito.mock(DirectoryRepository.class);
+        private DirectoryMetadataRepository directoryMetadataRepository = Mockito.mock(DirectoryMetadataRepository.class);
+        private ImageMetadataRepository imageMetadataRepository = Mockito.mock(ImageMetadataRepository.class);
+        private ImageResizer imageResizer = ImageServiceTest.imageResizer();
+        private ResizeExecutor resizeExecutor = new ResizeExecutor(2, 16, 20);
+        private DeduplicationMetrics deduplicationMetrics = new DeduplicationMetrics();
+        private ImageBatchRepository imageBatchRepository = Mockito.mock(ImageBatchRepository.class);
+        private DirectoryCounterUpdater directoryCounterUpdater = Mockito.mock(DirectoryCounterUpdater.class);
+        private ResizePolicy resizePolicy = ResizePolicy.EAGER;
+
+        ImageServiceBuilder originalImageRepository(OriginalImageRepository originalImageRepository) {
+            this.originalImageRepository = originalImageRepository;
+            return this;
+        }
+
+        ImageServiceBuilder resizedImageRepository(ResizedImageRepository resizedImageRepository) {
+            this.resizedImageRepository = resizedImageRepository;
+            return this;
+        }
+
+        ImageServiceBuilder directoryRepository(DirectoryRepository directoryRepository) {
+            this.directoryRepository = directoryRepository;
+            return this;
+        }
+
+        ImageServiceBuilder directoryMetadataRepository(DirectoryMetadataRepository directoryMetadataRepository) {
+            this.directoryMetadataRepository = directoryMetadataRepository;
+            return this;
+        }
+
+        ImageServiceBuilder imageMetadataRepository(ImageMetadataRepository imageMetadataRepository) {
+            this.imageMetadataRepository = imageMetadataRepository;
+            return this;
+        }
+
+        ImageServiceBuilder imageResizer(ImageResizer imageResizer) {
+            this.imageResizer = imageResizer;
+            return this;
+        }
+
+        ImageServiceBuilder resizeExecutor(ResizeExecutor resizeExecutor) {
+            this.resizeExecutor = resizeExecutor;
+            return this;
+        }
+
+        ImageServiceBuilder deduplicationMetrics(DeduplicationMetrics deduplicationMetrics) {
+            this.deduplicationMetrics = deduplicationMetrics;
+            return this;
+        }
+
+        ImageServiceBuilder imageBatchRepository(ImageBatchRepository imageBatchRepository) {
+            this.imageBatchRepository = imageBatchRepository;
+            return this;
+        }
+
+        ImageServiceBuilder directoryCounterUpdater(DirectoryCounterUpdater directoryCounterUpdater) {
+            this.directoryCounterUpdater = directoryCounterUpdater;
+            return this;
+        }
+
+        ImageServiceBuilder resizePolicy(ResizePolicy resizePolicy) {
+            this.resizePolicy = resizePolicy;
+            return this;
+        }
+
+        ImageService build() {
+            TransactionalOperator transactionalOperator = Mockito.mock(TransactionalOperator.class);
+            Mockito.when(transactionalOperator.transactional(Mockito.<Mono<Object>>any()))
+                    .thenAnswer(invocation -> invocation.getArgument(0));
+            return new ImageService(originalImageRepository, resizedImageRepository, directoryRepository,
+                    directoryMetadataRepository, imageMetadataRepository, imageResizer, resizeExecutor,
+                    deduplicationMetrics, imageBatchRepository, directoryCounterUpdater, new ListingCache(1 << 20),
+                    new ImageEventBus(null, null, new ObjectMapper(), false), transactionalOperator, StorageMode.BINARY, resizePolicy);
+        }
+    }
+}
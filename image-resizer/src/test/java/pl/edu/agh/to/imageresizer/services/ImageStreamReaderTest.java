@@ -0,0 +1,42 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import pl.edu.agh.to.imageresizer.dto.ImageDto;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ImageStreamReaderTest {
+    private final ImageStreamReader imageStreamReader = new ImageStreamReader(new ObjectMapper());
+
+    @Test
+    public void readOneImagePerLine() {
+        // given
+        String body = "{\"imageKey\":\"key1\",\"name\":\"name1\",\"base64\":\"base64_1\",\"width\":0,\"height\":0}\n"
+                + "\n"
+                + "{\"imageKey\":\"key2\",\"name\":\"name2\",\"base64\":\"base64_2\",\"width\":0,\"height\":0}\n";
+        InputStream inputStream = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+
+        // when and then
+        StepVerifier.create(imageStreamReader.readNdjson(inputStream), 1)
+                .expectNext(new ImageDto("key1", "name1", "base64_1", 0, 0))
+                .thenRequest(1)
+                .expectNext(new ImageDto("key2", "name2", "base64_2", 0, 0))
+                .thenRequest(1)
+                .verifyComplete();
+    }
+
+    @Test
+    public void failOnMalformedLine() {
+        // given
+        InputStream inputStream = new ByteArrayInputStream("not json\n".getBytes(StandardCharsets.UTF_8));
+
+        // when and then
+        StepVerifier.create(imageStreamReader.readNdjson(inputStream))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+    }
+}
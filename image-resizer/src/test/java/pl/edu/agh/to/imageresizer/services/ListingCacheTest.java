@@ -0,0 +1,114 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import pl.edu.agh.to.imageresizer.model.ImageSize;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import pl.edu.agh.to.imageresizer.services.ListingCache.ListingKey;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ListingCacheTest {
+    private final ListingKey KEY = ListingKey.byDirectory("dirKey", ImageSize.SMALL, "page:0");
+
+    @Test
+    public void serveRepeatedReadsFromMemoryUntilInvalidated() {
+        // given
+        ListingCache listingCache = new ListingCache(1 << 20);
+        AtomicInteger loads = new AtomicInteger();
+        ResizedImage image = new ResizedImage("key", "name", "base64", "session", 100, 100);
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(listingCache.get(KEY, () -> Flux.defer(() -> {
+                        loads.incrementAndGet();
+                        return Flux.just(image);
+                    })))
+                    .expectNext(image)
+                    .verifyComplete();
+        }
+        listingCache.invalidateAll();
+        StepVerifier.create(listingCache.get(KEY, () -> Flux.defer(() -> {
+                    loads.incrementAndGet();
+                    return Flux.just(image);
+                })))
+                .expectNext(image)
+                .verifyComplete();
+
+        // then
+        Assertions.assertEquals(2, loads.get());
+        Assertions.assertEquals(2, listingCache.getStats().hits());
+        Assertions.assertEquals(1, listingCache.getStats().entries());
+    }
+
+    @Test
+    public void dropPageLoadedDuringInvalidation() {
+        // given
+        ListingCache listingCache = new ListingCache(1 << 20);
+        Sinks.One<ResizedImage> slowPage = Sinks.one();
+        ResizedImage image = new ResizedImage("key", "name", "base64", "session", 100, 100);
+
+        // when
+        StepVerifier.create(listingCache.get(KEY, () -> slowPage.asMono().flux()))
+                .then(listingCache::invalidateAll)
+                .then(() -> slowPage.tryEmitValue(image))
+                .expectNext(image)
+                .verifyComplete();
+
+        // then
+        Assertions.assertEquals(0, listingCache.getStats().entries());
+    }
+
+    @Test
+    public void invalidateOnlyTheWrittenDirectory() {
+        // given
+        ListingCache listingCache = new ListingCache(1 << 20);
+        ListingKey otherKey = ListingKey.byDirectory("otherDirKey", ImageSize.SMALL, "page:0");
+        ListingKey imageKey = ListingKey.byImageKey("dirKey", ImageSize.SMALL, "page:0");
+        ResizedImage image = new ResizedImage("key", "name", "base64", "session", 100, 100);
+        for (ListingKey key : new ListingKey[]{KEY, otherKey, imageKey}) {
+            StepVerifier.create(listingCache.get(key, () -> Flux.just(image)))
+                    .expectNext(image)
+                    .verifyComplete();
+        }
+
+        // when
+        listingCache.invalidateDirectory("dirKey");
+
+        // then
+        Assertions.assertEquals(2, listingCache.getStats().entries());
+        StepVerifier.create(listingCache.get(otherKey, Flux::empty))
+                .expectNext(image)
+                .verifyComplete();
+        StepVerifier.create(listingCache.get(imageKey, Flux::empty))
+                .expectNext(image)
+                .verifyComplete();
+        StepVerifier.create(listingCache.get(KEY, Flux::empty))
+                .verifyComplete();
+    }
+
+    @Test
+    public void readerAfterInvalidationDoesNotJoinEarlierLoad() {
+        // given
+        ListingCache listingCache = new ListingCache(1 << 20);
+        Sinks.One<ResizedImage> stalePage = Sinks.one();
+        ResizedImage staleImage = new ResizedImage("stale", "name", "base64", "session", 100, 100);
+        ResizedImage freshImage = new ResizedImage("fresh", "name", "base64", "session", 100, 100);
+
+        // when and then
+        StepVerifier.create(listingCache.get(KEY, () -> stalePage.asMono().flux()))
+                .then(() -> listingCache.invalidateDirectory("dirKey"))
+                .then(() -> StepVerifier.create(listingCache.get(KEY, () -> Flux.just(freshImage)))
+                        .expectNext(freshImage)
+                        .verifyComplete())
+                .then(() -> stalePage.tryEmitValue(staleImage))
+                .expectNext(staleImage)
+                .verifyComplete();
+        StepVerifier.create(listingCache.get(KEY, Flux::empty))
+                .expectNext(freshImage)
+                .verifyComplete();
+    }
+}
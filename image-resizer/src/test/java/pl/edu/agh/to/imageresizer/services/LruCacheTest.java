@@ -0,0 +1,44 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import pl.edu.agh.to.imageresizer.dto.CacheStats;
+
+public class LruCacheTest {
+
+    @Test
+    public void evictLeastRecentlyUsedWhenOverByteBudget() {
+        // given
+        LruCache<String, byte[]> cache = new LruCache<>(10, value -> value.length);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.get("a");
+
+        // when
+        cache.put("c", new byte[4]);
+
+        // then
+        Assertions.assertNotNull(cache.get("a"));
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertNotNull(cache.get("c"));
+        CacheStats stats = cache.getStats();
+        Assertions.assertEquals(2, stats.entries());
+        Assertions.assertEquals(8, stats.bytes());
+        Assertions.assertEquals(1, stats.evictions());
+    }
+
+    @Test
+    public void skipValuesLargerThanBudget() {
+        // given
+        LruCache<String, byte[]> cache = new LruCache<>(10, value -> value.length);
+        cache.put("small", new byte[4]);
+
+        // when
+        cache.put("huge", new byte[11]);
+
+        // then
+        Assertions.assertNull(cache.get("huge"));
+        Assertions.assertNotNull(cache.get("small"));
+        Assertions.assertEquals(4, cache.getStats().bytes());
+    }
+}
@@ -0,0 +1,109 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResizeExecutorTest {
+
+    @Test
+    public void countRejectedTasksWhenQueueIsFull() throws InterruptedException {
+        // given
+        ResizeExecutor resizeExecutor = new ResizeExecutor(1, 1, 20);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        resizeExecutor.getScheduler().schedule(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        started.await();
+
+        // when
+        resizeExecutor.getScheduler().schedule(() -> { });
+
+        // then
+        assertTrue(resizeExecutor.isSaturated());
+        assertThrows(RejectedExecutionException.class, () -> resizeExecutor.getScheduler().schedule(() -> { }));
+        assertEquals(1, resizeExecutor.getStats().queueDepth());
+        assertEquals(1, resizeExecutor.getStats().rejectedTasks());
+
+        release.countDown();
+        resizeExecutor.destroy();
+    }
+
+    @Test
+    public void retryRejectedWorkUntilQueueHasRoom() throws InterruptedException {
+        // given
+        ResizeExecutor resizeExecutor = new ResizeExecutor(1, 1, 20);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        resizeExecutor.getScheduler().schedule(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        started.await();
+        resizeExecutor.getScheduler().schedule(() -> { });
+
+        // when
+        Mono<String> work = resizeExecutor.execute(Mono.fromCallable(() -> Thread.currentThread().getName()));
+        new Thread(() -> {
+            sleepQuietly(200);
+            release.countDown();
+        }).start();
+
+        // then
+        StepVerifier.create(work)
+                .expectNextMatches(threadName -> threadName.startsWith("resize-"))
+                .verifyComplete();
+        assertFalse(resizeExecutor.isSaturated());
+        assertTrue(resizeExecutor.getStats().rejectedTasks() > 0);
+        resizeExecutor.destroy();
+    }
+
+    @Test
+    public void giveUpOnRejectedWorkAfterMaxRetries() throws InterruptedException {
+        // given
+        ResizeExecutor resizeExecutor = new ResizeExecutor(1, 1, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        resizeExecutor.getScheduler().schedule(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        started.await();
+        resizeExecutor.getScheduler().schedule(() -> { });
+
+        // when and then
+        StepVerifier.create(resizeExecutor.execute(Mono.just("work")))
+                .expectError(RejectedExecutionException.class)
+                .verify();
+        assertEquals(3, resizeExecutor.getStats().rejectedTasks());
+
+        release.countDown();
+        resizeExecutor.destroy();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
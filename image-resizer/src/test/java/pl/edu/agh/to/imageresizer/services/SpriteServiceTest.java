@@ -0,0 +1,120 @@
+package pl.edu.agh.to.imageresizer.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import pl.edu.agh.to.imageresizer.dto.SpriteTile;
+import pl.edu.agh.to.imageresizer.model.ImageSize;
+import pl.edu.agh.to.imageresizer.model.ResizedImage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class SpriteServiceTest {
+
+    @Test
+    public void composeThumbnailsIntoGridWithOffsets() throws IOException {
+        // given
+        List<ResizedImage> images = IntStream.range(0, 7)
+                .mapToObj(i -> thumbnail("key" + i, 100, 80))
+                .toList();
+        ResizedImage damaged = new ResizedImage("broken", "broken", ImageService.ERROR, "session", 0, 0);
+
+        // when
+        Sprite sprite = SpriteService.compose(concat(images, damaged), ImageSize.SMALL);
+
+        // then
+        Assertions.assertEquals(500, sprite.width());
+        Assertions.assertEquals(200, sprite.height());
+        Assertions.assertEquals(new SpriteTile("key6", "key6", 100, 100, 100, 80, false), sprite.tiles().get(6));
+        Assertions.assertEquals(new SpriteTile("broken", "broken", 200, 100, 0, 0, true), sprite.tiles().get(7));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(sprite.image().data()));
+        Assertions.assertEquals(500, decoded.getWidth());
+        Assertions.assertEquals("image/jpeg", sprite.image().mimeType());
+    }
+
+    @Test
+    public void rebuildSpriteOnlyAfterListingInvalidation() {
+        // given
+        ImageService imageService = Mockito.mock(ImageService.class);
+        ListingCache listingCache = new ListingCache(1 << 20);
+        SpriteService spriteService = new SpriteService(imageService, new ResizeExecutor(2, 16, 20), listingCache, 1 << 20);
+        Mockito.when(imageService.getResizedImagesByDirKey("dirKey", ImageSize.SMALL, 0))
+                .thenAnswer(invocation -> Flux.just(thumbnail("key", 100, 100)));
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 0))
+                    .expectNextCount(1)
+                    .verifyComplete();
+        }
+        listingCache.invalidateAll();
+        StepVerifier.create(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 0))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        // then
+        Mockito.verify(imageService, Mockito.times(2)).getResizedImagesByDirKey("dirKey", ImageSize.SMALL, 0);
+    }
+
+    @Test
+    public void readerAfterInvalidationDoesNotJoinEarlierBuild() {
+        // given
+        ImageService imageService = Mockito.mock(ImageService.class);
+        ListingCache listingCache = new ListingCache(1 << 20);
+        SpriteService spriteService = new SpriteService(imageService, new ResizeExecutor(2, 16, 20), listingCache, 1 << 20);
+        Sinks.One<ResizedImage> stalePage = Sinks.one();
+        Mockito.when(imageService.getResizedImagesByDirKey("dirKey", ImageSize.SMALL, 0))
+                .thenReturn(stalePage.asMono().flux())
+                .thenReturn(Flux.just(thumbnail("fresh", 100, 100)));
+
+        // when and then
+        StepVerifier.create(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 0))
+                .then(() -> listingCache.invalidateDirectory("dirKey"))
+                .then(() -> StepVerifier.create(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 0))
+                        .expectNextMatches(sprite -> "fresh".equals(sprite.tiles().get(0).imageKey()))
+                        .verifyComplete())
+                .then(() -> stalePage.tryEmitValue(thumbnail("stale", 100, 100)))
+                .expectNextMatches(sprite -> "stale".equals(sprite.tiles().get(0).imageKey()))
+                .verifyComplete();
+        Mockito.verify(imageService, Mockito.times(2)).getResizedImagesByDirKey("dirKey", ImageSize.SMALL, 0);
+    }
+
+    @Test
+    public void returnEmptyForEmptyPage() {
+        // given
+        ImageService imageService = Mockito.mock(ImageService.class);
+        SpriteService spriteService = new SpriteService(imageService, new ResizeExecutor(2, 16, 20), new ListingCache(1 << 20), 1 << 20);
+        Mockito.when(imageService.getResizedImagesByDirKey("dirKey", ImageSize.SMALL, 3)).thenReturn(Flux.empty());
+
+        // when and then
+        StepVerifier.create(spriteService.getDirectorySprite("dirKey", ImageSize.SMALL, 3))
+                .verifyComplete();
+    }
+
+    private static ResizedImage thumbnail(String imageKey, int width, int height) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", outputStream);
+            ResizedImage resizedImage = new ResizedImage(imageKey, imageKey, null, "session", width, height);
+            resizedImage.setData(outputStream.toByteArray());
+            resizedImage.setMimeType("image/png");
+            return resizedImage;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<ResizedImage> concat(List<ResizedImage> images, ResizedImage last) {
+        return Stream.concat(images.stream(), Stream.of(last)).toList();
+    }
+}